@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenTracker;
+
+import java.util.Map;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Writes access tokens the Facebook SDK refreshes on its own to the current
+ * {@link com.parse.ParseUser}'s auth data, so it doesn't go stale until the next login.
+ * <p>
+ * Changes are debounced: a write only happens once no further change has been seen for the
+ * debounce interval, so a burst of refreshes results in one write of the latest token. Writes are
+ * serialized, and auth data identical to what was last sent to Parse, by this class or by a log
+ * in, link or restore, isn't written again. A token of a Facebook user other than the linked one
+ * is never written.
+ */
+/* package */ class AccessTokenSync {
+
+    /**
+     * Sends auth data to Parse for the current user.
+     */
+    interface Writer {
+        Task<Void> writeAsync(Map<String, String> authData);
+    }
+
+    private final FacebookController controller;
+    private final long debounceMillis;
+    private final Writer writer;
+
+    private final Object lock = new Object();
+    private AccessTokenTracker tracker;
+    private int generation;
+    private Map<String, String> syncedAuthData;
+    private Task<Void> syncTask = Task.forResult(null);
+
+    AccessTokenSync(FacebookController controller, long debounceMillis, Writer writer) {
+        this.controller = controller;
+        this.debounceMillis = debounceMillis;
+        this.writer = writer;
+    }
+
+    void start() {
+        AccessTokenTracker tracker = controller.trackAccessToken(
+                new FacebookController.AccessTokenListener() {
+                    @Override
+                    public void onCurrentAccessTokenChanged(AccessToken accessToken) {
+                        if (accessToken != null) {
+                            onAccessTokenChanged();
+                        }
+                    }
+                });
+        synchronized (lock) {
+            this.tracker = tracker;
+        }
+    }
+
+    void stop() {
+        AccessTokenTracker tracker;
+        synchronized (lock) {
+            tracker = this.tracker;
+            this.tracker = null;
+            // Drops any change that's still being debounced.
+            generation++;
+        }
+        if (tracker != null) {
+            tracker.stopTracking();
+        }
+    }
+
+    /**
+     * Records auth data that Parse already has, so syncing it again can be skipped. Only tokens of
+     * the Facebook user in it are synced.
+     *
+     * @param authData The auth data, or {@code null} if the user was unlinked or logged out.
+     */
+    void setSyncedAuthData(Map<String, String> authData) {
+        synchronized (lock) {
+            syncedAuthData = authData;
+        }
+    }
+
+    private static boolean isSameUser(Map<String, String> authData, Map<String, String> other) {
+        String userId = authData.get(AuthDataCodec.KEY_USER_ID);
+        return userId != null && userId.equals(other.get(AuthDataCodec.KEY_USER_ID));
+    }
+
+    /* package */ void onAccessTokenChanged() {
+        final int changeGeneration;
+        synchronized (lock) {
+            changeGeneration = ++generation;
+        }
+        Task.delay(debounceMillis).continueWithTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                synchronized (lock) {
+                    if (changeGeneration != generation) {
+                        // A newer change restarted the debounce interval.
+                        return null;
+                    }
+                    // Not inline, which would run the writer, and the file I/O of the refresh
+                    // lease, while holding the lock.
+                    syncTask = syncTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+                        @Override
+                        public Task<Void> then(Task<Void> task) throws Exception {
+                            return syncAsync();
+                        }
+                    }, Task.BACKGROUND_EXECUTOR);
+                    return syncTask;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The task of the latest scheduled write, for tests.
+     */
+    /* package */ Task<Void> getSyncTask() {
+        synchronized (lock) {
+            return syncTask;
+        }
+    }
+
+    private Task<Void> syncAsync() {
+        // Read at write time, so a write queued behind another picks up the latest token.
+        AccessToken accessToken = controller.getCurrentAccessToken();
+        if (accessToken == null) {
+            return Task.forResult(null);
+        }
+        final Map<String, String> authData = controller.getAuthData(accessToken);
+        synchronized (lock) {
+            if (authData.equals(syncedAuthData)) {
+                return Task.forResult(null);
+            }
+            // Only save a token of the Facebook account Parse has linked, never another one's.
+            if (syncedAuthData == null || !isSameUser(authData, syncedAuthData)) {
+                return Task.forResult(null);
+            }
+        }
+        return writer.writeAsync(authData).onSuccess(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                setSyncedAuthData(authData);
+                return null;
+            }
+        });
+    }
+}
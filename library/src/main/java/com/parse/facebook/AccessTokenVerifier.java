@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Verifies the Graph API access tokens in {@code facebook} auth data with Facebook's
+ * {@code debug_token} endpoint, for servers that check the token on every privileged request.
+ * It calls no Android APIs, so a backend can run it on a plain JVM, but not on its own: besides
+ * this library's classes it needs org.json ({@code org.json:json}), Bolts
+ * ({@code com.parse.bolts:bolts-tasks}) and the Parse Android SDK's classes for
+ * {@link com.parse.ParseException}, which its errors extend.
+ * <p>
+ * Results are cached per token until the token expires, or for at most {@code maxAgeMillis} so
+ * revoked tokens are eventually noticed, and the least recently used are evicted past
+ * {@code maxEntries}. Tokens Facebook rejects are remembered for
+ * {@link #INVALID_TTL_MILLIS}. Verifications of the same token that overlap share one request.
+ * Failures to reach Facebook aren't cached.
+ */
+public class AccessTokenVerifier {
+
+    /**
+     * The number of tokens whose results are cached by default.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /**
+     * How long a result is cached by default, if the token doesn't expire before.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /* package */ static final long INVALID_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String applicationId;
+    private final String appAccessToken;
+    private final GraphClient graphClient;
+    private final long maxAgeMillis;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> cache;
+    private final Map<String, Task<VerifiedAccessToken>> inFlight = new HashMap<>();
+    private long requestCount;
+
+    /**
+     * @param applicationId The Facebook app id tokens must be issued to.
+     * @param appSecret     The app secret, to make the requests with the app access token.
+     */
+    public AccessTokenVerifier(String applicationId, String appSecret) {
+        this(applicationId, appSecret, new HttpGraphClient(), DEFAULT_MAX_ENTRIES,
+                DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param applicationId The Facebook app id tokens must be issued to.
+     * @param appSecret     The app secret, to make the requests with the app access token.
+     * @param graphClient   The client to make the requests with, e.g. to point at a test server.
+     * @param maxEntries    The number of tokens whose results are cached.
+     * @param maxAgeMillis  How long a result is cached at most.
+     */
+    public AccessTokenVerifier(String applicationId, String appSecret, GraphClient graphClient,
+                               final int maxEntries, long maxAgeMillis) {
+        this.applicationId = applicationId;
+        this.appAccessToken = applicationId + '|' + appSecret;
+        this.graphClient = graphClient;
+        this.maxAgeMillis = maxAgeMillis;
+        cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return The number of {@code debug_token} requests made.
+     */
+    public long getRequestCount() {
+        synchronized (lock) {
+            return requestCount;
+        }
+    }
+
+    /**
+     * Forgets the result for a token, e.g. once the user logs out.
+     */
+    public void invalidate(String accessToken) {
+        synchronized (lock) {
+            cache.remove(accessToken);
+        }
+    }
+
+    /**
+     * Verifies the access token in {@code facebook} auth data, and that it belongs to the user id
+     * the auth data says.
+     *
+     * @param authData The {@code facebook} auth data.
+     * @return A task that resolves to the verified token, or fails with an
+     * {@link InvalidAccessTokenException}.
+     */
+    public Task<VerifiedAccessToken> verifyAsync(Map<String, String> authData) {
+        if (authData == null) {
+            return Task.forError(new InvalidAccessTokenException("missing auth data"));
+        }
+        final String userId = authData.get(AuthDataCodec.KEY_USER_ID);
+        return verifyAsync(authData.get(AuthDataCodec.KEY_ACCESS_TOKEN)).onSuccess(
+                new Continuation<VerifiedAccessToken, VerifiedAccessToken>() {
+                    @Override
+                    public VerifiedAccessToken then(Task<VerifiedAccessToken> task)
+                            throws Exception {
+                        VerifiedAccessToken verified = task.getResult();
+                        if (!verified.getUserId().equals(userId)) {
+                            throw new InvalidAccessTokenException("issued to another user");
+                        }
+                        return verified;
+                    }
+                });
+    }
+
+    /**
+     * @param accessToken The Graph API access token.
+     * @return A task that resolves to the verified token, or fails with an
+     * {@link InvalidAccessTokenException}.
+     */
+    public Task<VerifiedAccessToken> verifyAsync(final String accessToken) {
+        if (accessToken == null || accessToken.isEmpty()) {
+            return Task.forError(new InvalidAccessTokenException("missing access token"));
+        }
+        final Task<VerifiedAccessToken>.TaskCompletionSource tcs;
+        synchronized (lock) {
+            Entry entry = cache.get(accessToken);
+            if (entry != null) {
+                if (currentTimeMillis() < entry.expiresAtMillis) {
+                    return entry.toTask();
+                }
+                cache.remove(accessToken);
+            }
+            Task<VerifiedAccessToken> task = inFlight.get(accessToken);
+            if (task != null) {
+                return task;
+            }
+            tcs = Task.create();
+            inFlight.put(accessToken, tcs.getTask());
+            requestCount++;
+        }
+
+        Map<String, String> parameters = Collections.singletonMap("input_token", accessToken);
+        graphClient.getAsync(new GraphClient.Request("debug_token", parameters, appAccessToken))
+                .continueWith(new Continuation<GraphClient.Response, Void>() {
+                    @Override
+                    public Void then(Task<GraphClient.Response> task) throws Exception {
+                        VerifiedAccessToken verified = null;
+                        Exception error = task.getError();
+                        if (error == null && !task.isCancelled()) {
+                            try {
+                                verified = parse(accessToken, task.getResult().getSharedJSONObject());
+                            } catch (InvalidAccessTokenException | JSONException e) {
+                                error = e;
+                            }
+                        }
+                        synchronized (lock) {
+                            inFlight.remove(accessToken);
+                            long now = currentTimeMillis();
+                            if (verified != null) {
+                                long expiresAtMillis = now + maxAgeMillis;
+                                if (verified.getExpiresAtMillis() != 0) {
+                                    expiresAtMillis = Math.min(expiresAtMillis,
+                                            verified.getExpiresAtMillis());
+                                }
+                                cache.put(accessToken, new Entry(verified, null, expiresAtMillis));
+                            } else if (error instanceof InvalidAccessTokenException) {
+                                cache.put(accessToken, new Entry(null,
+                                        (InvalidAccessTokenException) error,
+                                        now + INVALID_TTL_MILLIS));
+                            }
+                        }
+                        if (verified != null) {
+                            tcs.setResult(verified);
+                        } else if (error != null) {
+                            tcs.setError(error);
+                        } else {
+                            tcs.setCancelled();
+                        }
+                        return null;
+                    }
+                });
+        return tcs.getTask();
+    }
+
+    private VerifiedAccessToken parse(String accessToken, JSONObject response)
+            throws InvalidAccessTokenException, JSONException {
+        JSONObject data = response.getJSONObject("data");
+        if (!data.optBoolean("is_valid")) {
+            JSONObject error = data.optJSONObject("error");
+            throw new InvalidAccessTokenException(
+                    error != null ? error.optString("message", "not valid") : "not valid");
+        }
+        if (!applicationId.equals(data.optString("app_id"))) {
+            throw new InvalidAccessTokenException("issued to another app");
+        }
+        String userId = data.optString("user_id", null);
+        if (userId == null || userId.isEmpty()) {
+            throw new InvalidAccessTokenException("not a user access token");
+        }
+        Set<String> scopes = new HashSet<>();
+        JSONArray array = data.optJSONArray("scopes");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                scopes.add(array.getString(i));
+            }
+        }
+        return new VerifiedAccessToken(accessToken, userId, applicationId,
+                TimeUnit.SECONDS.toMillis(data.optLong("expires_at")),
+                Collections.unmodifiableSet(scopes));
+    }
+
+    private static class Entry {
+        private final VerifiedAccessToken verified;
+        private final InvalidAccessTokenException error;
+        private final long expiresAtMillis;
+
+        Entry(VerifiedAccessToken verified, InvalidAccessTokenException error,
+              long expiresAtMillis) {
+            this.verified = verified;
+            this.error = error;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        Task<VerifiedAccessToken> toTask() {
+            return error != null
+                    ? Task.<VerifiedAccessToken>forError(error)
+                    : Task.forResult(verified);
+        }
+    }
+}
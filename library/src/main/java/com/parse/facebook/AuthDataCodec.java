@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SimpleTimeZone;
+
+/**
+ * The {@code facebook} auth data stored on a {@code ParseUser}: its keys, date format and
+ * permission list. Plain Java, so it can be shared with code that doesn't run on Android.
+ */
+/* package */ final class AuthDataCodec {
+
+    static final String KEY_USER_ID = "id";
+    static final String KEY_ACCESS_TOKEN = "access_token";
+    static final String KEY_AUTHENTICATION_TOKEN = "token";
+    static final String KEY_EXPIRATION_DATE = "expiration_date";
+    static final String KEY_REFRESH_DATE = "last_refresh_date";
+    static final String KEY_PERMISSIONS = "permissions";
+
+    private static final String PRECISE_DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    private static final String IMPRECISE_DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    // SimpleDateFormat isn't thread safe, so each thread gets its own instead of one per call.
+    private static final ThreadLocal<DateFormat> PRECISE_DATE_FORMAT =
+            new ThreadLocal<DateFormat>() {
+                @Override
+                protected DateFormat initialValue() {
+                    return dateFormat(PRECISE_DATE_PATTERN);
+                }
+            };
+    private static final ThreadLocal<DateFormat> IMPRECISE_DATE_FORMAT =
+            new ThreadLocal<DateFormat>() {
+                @Override
+                protected DateFormat initialValue() {
+                    return dateFormat(IMPRECISE_DATE_PATTERN);
+                }
+            };
+
+    private AuthDataCodec() {
+        // do nothing
+    }
+
+    /**
+     * @return The auth data for a Graph API access token.
+     */
+    static Map<String, String> encode(String userId, String accessToken, Date expirationDate,
+                                      Date lastRefreshDate, Collection<String> permissions) {
+        Map<String, String> authData = new HashMap<>();
+        authData.put(KEY_USER_ID, userId);
+        authData.put(KEY_ACCESS_TOKEN, accessToken);
+        authData.put(KEY_EXPIRATION_DATE, formatDate(expirationDate));
+        authData.put(KEY_REFRESH_DATE, formatDate(lastRefreshDate));
+        authData.put(KEY_PERMISSIONS, joinPermissions(permissions));
+        return authData;
+    }
+
+    /**
+     * Formats a date in the precise format Parse expects.
+     */
+    static String formatDate(Date date) {
+        return PRECISE_DATE_FORMAT.get().format(date);
+    }
+
+    /**
+     * Convert String representation of a date into Date object.
+     * <p>
+     * Following date formats are supported:
+     * yyyy-MM-dd'T'HH:mm:ss.SSS'Z'
+     * yyyy-MM-dd'T'HH:mm:ss'Z'
+     *
+     * @param source A <code>String</code> whose beginning should be parsed.
+     * @return A <code>Date</code> parsed from the string.
+     * @throws ParseException if the beginning of the specified string cannot be parsed.
+     */
+    static Date parseDate(String source) throws ParseException {
+        try {
+            return PRECISE_DATE_FORMAT.get().parse(source);
+        } catch (ParseException e) {
+            return IMPRECISE_DATE_FORMAT.get().parse(source);
+        }
+    }
+
+    static String joinPermissions(Collection<String> permissions) {
+        StringBuilder joined = new StringBuilder();
+        Iterator<String> iterator = permissions.iterator();
+        while (iterator.hasNext()) {
+            joined.append(iterator.next());
+            if (iterator.hasNext()) {
+                joined.append(',');
+            }
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @return The permissions, or {@code null} if there are none.
+     */
+    static Set<String> splitPermissions(String permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return null;
+        }
+        return new HashSet<>(Arrays.asList(permissions.split(",")));
+    }
+
+    private static DateFormat dateFormat(String pattern) {
+        DateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        return format;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+/**
+ * A change to the Facebook auth state, as emitted by {@link ParseFacebookUtils#getAuthEvents()}.
+ */
+public final class AuthEvent {
+
+    public enum Type {
+        /**
+         * A {@link com.parse.ParseUser} logged in with Facebook.
+         */
+        LOG_IN,
+        /**
+         * A {@link com.parse.ParseUser} was linked to a Facebook account.
+         */
+        LINK,
+        /**
+         * A {@link com.parse.ParseUser} was unlinked from its Facebook account.
+         */
+        UNLINK,
+        /**
+         * The Facebook access token of the current session was replaced with a newer one.
+         */
+        REFRESH,
+        /**
+         * The Facebook session of the current {@link com.parse.ParseUser} was restored from disk.
+         */
+        RESTORE,
+        /**
+         * The current {@link com.parse.ParseUser} logged out, so there's no Facebook session
+         * anymore.
+         */
+        LOG_OUT
+    }
+
+    private final Type type;
+    private final FacebookSession session;
+
+    /* package */ AuthEvent(Type type, FacebookSession session) {
+        this.type = type;
+        this.session = session;
+    }
+
+    /**
+     * @return What changed.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The session as of this event, or {@code null} if there's no Facebook access token.
+     */
+    public FacebookSession getSession() {
+        return session;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthEvent{type=" + type + ", userId="
+                + (session != null ? session.getUserId() : null) + "}";
+    }
+}
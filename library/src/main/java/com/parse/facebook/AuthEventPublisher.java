@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hot, never completing {@link Publisher} of {@link AuthEvent}s.
+ * <p>
+ * Events are conflated per subscriber: a newer event replaces the subscriber's undelivered one,
+ * so a subscriber that can't keep up skips straight to the latest state instead of buffering
+ * history. {@link AuthEvent.Type#LOG_OUT} and {@link AuthEvent.Type#UNLINK} are never replaced,
+ * though, since subscribers clear state on them that a later event wouldn't tell them to clear;
+ * they're queued and delivered in order. New subscribers first receive the most recent event, if
+ * any, so they don't need to poll for the current state.
+ * <p>
+ * Events are delivered on the thread that published them, or the thread that requested more, so
+ * {@link Subscriber#onNext(Object)} shouldn't block.
+ */
+/* package */ class AuthEventPublisher implements Publisher<AuthEvent> {
+
+    private final Object lock = new Object();
+    private final List<AuthSubscription> subscriptions = new ArrayList<>();
+    private AuthEvent lastEvent;
+
+    @Override
+    public void subscribe(Subscriber<? super AuthEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        AuthSubscription subscription = new AuthSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        synchronized (lock) {
+            if (subscription.cancelled) {
+                return;
+            }
+            subscriptions.add(subscription);
+            if (lastEvent != null) {
+                subscription.offer(lastEvent);
+            }
+        }
+        subscription.drain();
+    }
+
+    /* package */ void publish(AuthEvent event) {
+        List<AuthSubscription> targets;
+        synchronized (lock) {
+            lastEvent = event;
+            // Under the lock, so a concurrent subscribe can't pair an older lastEvent with us.
+            for (AuthSubscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+            targets = new ArrayList<>(subscriptions);
+        }
+        for (AuthSubscription subscription : targets) {
+            subscription.drain();
+        }
+    }
+
+    /* package */ int getSubscriberCount() {
+        synchronized (lock) {
+            return subscriptions.size();
+        }
+    }
+
+    private class AuthSubscription implements Subscription {
+        private final Subscriber<? super AuthEvent> subscriber;
+        // Guarded by itself. Only its last event can be non-terminal.
+        private final ArrayDeque<AuthEvent> pending = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        // Serializes signals to the subscriber: whoever moves it from 0 drains for everyone.
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean invalidRequest;
+
+        AuthSubscription(Subscriber<? super AuthEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(AuthEvent event) {
+            synchronized (pending) {
+                AuthEvent last = pending.peekLast();
+                if (last != null && !isTerminal(last)) {
+                    pending.pollLast();
+                }
+                pending.addLast(event);
+            }
+        }
+
+        private AuthEvent poll() {
+            synchronized (pending) {
+                return pending.pollFirst();
+            }
+        }
+
+        private void clear() {
+            synchronized (pending) {
+                pending.clear();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = true;
+            } else {
+                while (true) {
+                    long current = requested.get();
+                    long next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(current, next)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (lock) {
+                subscriptions.remove(this);
+            }
+            clear();
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                if (cancelled) {
+                    clear();
+                    return;
+                }
+                if (invalidRequest) {
+                    cancel();
+                    subscriber.onError(new IllegalArgumentException(
+                            "Subscription.request must be called with a positive number"));
+                    return;
+                }
+                if (requested.get() > 0) {
+                    AuthEvent event = poll();
+                    if (event != null) {
+                        if (requested.get() != Long.MAX_VALUE) {
+                            requested.decrementAndGet();
+                        }
+                        try {
+                            subscriber.onNext(event);
+                        } catch (RuntimeException e) {
+                            // A misbehaving subscriber only loses its own subscription.
+                            cancel();
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isTerminal(AuthEvent event) {
+        return event.getType() == AuthEvent.Type.LOG_OUT
+                || event.getType() == AuthEvent.Type.UNLINK;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Verifies Facebook authentication tokens, the RS256 signed JWTs issued by Limited Login, on the
+ * client: the signature against {@link JwksKeySet}, and the issuer, audience, expiry, issue time
+ * and nonce claims.
+ */
+/* package */ class AuthenticationTokenVerifier {
+
+    /* package */ static final Set<String> ISSUERS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("https://www.facebook.com", "https://facebook.com")));
+    /* package */ static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String ALGORITHM = "RS256";
+
+    private final String applicationId;
+    private final JwksKeySet keySet;
+
+    /**
+     * @param applicationId The Facebook app id tokens must be issued to.
+     * @param keySet        The keys tokens must be signed with.
+     */
+    AuthenticationTokenVerifier(String applicationId, JwksKeySet keySet) {
+        this.applicationId = applicationId;
+        this.keySet = keySet;
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @param token         The encoded token.
+     * @param expectedNonce The nonce the login was started with, or {@code null} to not check it.
+     * @return A task that resolves to the verified token, or fails with an
+     * {@link InvalidAuthenticationTokenException}.
+     */
+    Task<FacebookAuthenticationToken> verifyAsync(
+            final String token, final String expectedNonce) {
+        final String[] parts;
+        final JSONObject claims;
+        String keyId;
+        try {
+            parts = split(token);
+            JSONObject header = decodeJson(parts[0]);
+            if (!ALGORITHM.equals(header.optString("alg"))) {
+                throw new InvalidAuthenticationTokenException(
+                        "unsupported algorithm " + header.optString("alg"));
+            }
+            keyId = header.optString("kid", null);
+            claims = decodeJson(parts[1]);
+        } catch (InvalidAuthenticationTokenException e) {
+            return Task.forError(e);
+        }
+        if (keyId == null) {
+            return Task.forError(new InvalidAuthenticationTokenException("missing key id"));
+        }
+
+        return keySet.getKeyAsync(keyId).onSuccess(
+                new Continuation<PublicKey, FacebookAuthenticationToken>() {
+                    @Override
+                    public FacebookAuthenticationToken then(Task<PublicKey> task)
+                            throws Exception {
+                        PublicKey key = task.getResult();
+                        if (key == null) {
+                            throw new InvalidAuthenticationTokenException("unknown signing key");
+                        }
+                        verifySignature(parts, key);
+                        return verifyClaims(token, claims, expectedNonce);
+                    }
+                });
+    }
+
+    private static String[] split(String token) throws InvalidAuthenticationTokenException {
+        String[] parts = token != null ? token.split("\\.", -1) : new String[0];
+        if (parts.length != 3) {
+            throw new InvalidAuthenticationTokenException("not a JWT");
+        }
+        return parts;
+    }
+
+    private static JSONObject decodeJson(String part) throws InvalidAuthenticationTokenException {
+        try {
+            return new JSONObject(new String(JwksKeySet.decodeBase64Url(part), "UTF-8"));
+        } catch (JSONException | IllegalArgumentException | UnsupportedEncodingException e) {
+            throw new InvalidAuthenticationTokenException("malformed JWT");
+        }
+    }
+
+    private static void verifySignature(String[] parts, PublicKey key)
+            throws InvalidAuthenticationTokenException {
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(key);
+            signature.update((parts[0] + '.' + parts[1]).getBytes("US-ASCII"));
+            if (!signature.verify(JwksKeySet.decodeBase64Url(parts[2]))) {
+                throw new InvalidAuthenticationTokenException("bad signature");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException
+                | UnsupportedEncodingException e) {
+            throw new InvalidAuthenticationTokenException("bad signature");
+        }
+    }
+
+    private FacebookAuthenticationToken verifyClaims(
+            String token, JSONObject claims, String expectedNonce)
+            throws InvalidAuthenticationTokenException {
+        if (!ISSUERS.contains(claims.optString("iss"))) {
+            throw new InvalidAuthenticationTokenException("unexpected issuer");
+        }
+        if (applicationId == null || !applicationId.equals(claims.optString("aud"))) {
+            throw new InvalidAuthenticationTokenException("issued to another app");
+        }
+        String userId = claims.optString("sub", null);
+        if (userId == null || userId.isEmpty()) {
+            throw new InvalidAuthenticationTokenException("missing subject");
+        }
+
+        long now = currentTimeMillis();
+        long expiresAtMillis = TimeUnit.SECONDS.toMillis(claims.optLong("exp"));
+        long issuedAtMillis = TimeUnit.SECONDS.toMillis(claims.optLong("iat"));
+        if (now - CLOCK_SKEW_MILLIS >= expiresAtMillis) {
+            throw new InvalidAuthenticationTokenException("expired");
+        }
+        if (issuedAtMillis > now + CLOCK_SKEW_MILLIS) {
+            throw new InvalidAuthenticationTokenException("issued in the future");
+        }
+
+        String nonce = claims.optString("nonce", null);
+        if (expectedNonce != null && !expectedNonce.equals(nonce)) {
+            throw new InvalidAuthenticationTokenException("nonce mismatch");
+        }
+
+        return new FacebookAuthenticationToken(token, userId, nonce,
+                claims.optString("name", null),
+                claims.optString("email", null),
+                claims.optString("picture", null),
+                issuedAtMillis, expiresAtMillis);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A {@link GraphClient} that coalesces the requests made within a short window into Graph API
+ * batch requests, one per access token, and hands each request its own response.
+ * <p>
+ * A request that's alone in its window, or that revalidates a cached response with an ETag, is
+ * made on its own. A window with more than {@link #MAX_BATCH_SIZE} requests is split up.
+ *
+ * @see ParseFacebookUtils#setGraphClient(GraphClient)
+ */
+public class BatchingGraphClient implements GraphClient {
+
+    /**
+     * How long requests are collected before they're sent, by default.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    /**
+     * The most requests the Graph API accepts in one batch.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private static final class PendingRequest {
+        final Request request;
+        final Task<Response>.TaskCompletionSource tcs = Task.create();
+
+        PendingRequest(Request request) {
+            this.request = request;
+        }
+    }
+
+    private final HttpGraphClient client;
+    private final long windowMillis;
+
+    private final Object lock = new Object();
+    // Requests waiting for the window to close, by access token.
+    private Map<String, List<PendingRequest>> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private long batchCount;
+
+    public BatchingGraphClient(HttpGraphClient client) {
+        this(client, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param client       The client to make the requests and batch requests with.
+     * @param windowMillis How long requests are collected before they're sent.
+     */
+    public BatchingGraphClient(HttpGraphClient client, long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative");
+        }
+        this.client = client;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return The number of batch requests made so far.
+     */
+    public long getBatchCount() {
+        synchronized (lock) {
+            return batchCount;
+        }
+    }
+
+    @Override
+    public Task<Response> getAsync(Request request) {
+        if (request.getETag() != null) {
+            // Batched responses can't be conditional.
+            return client.getAsync(request);
+        }
+
+        PendingRequest pendingRequest = new PendingRequest(request);
+        List<PendingRequest> full = null;
+        boolean scheduleFlush = false;
+        synchronized (lock) {
+            List<PendingRequest> requests = pending.get(request.getAccessToken());
+            if (requests == null) {
+                requests = new ArrayList<>();
+                pending.put(request.getAccessToken(), requests);
+            }
+            requests.add(pendingRequest);
+            if (requests.size() == MAX_BATCH_SIZE) {
+                full = pending.remove(request.getAccessToken());
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        if (full != null) {
+            send(request.getAccessToken(), full);
+        }
+        if (scheduleFlush) {
+            Task.delay(windowMillis).continueWith(new Continuation<Void, Void>() {
+                @Override
+                public Void then(Task<Void> task) throws Exception {
+                    flush();
+                    return null;
+                }
+            });
+        }
+        return pendingRequest.tcs.getTask();
+    }
+
+    private void flush() {
+        Map<String, List<PendingRequest>> requests;
+        synchronized (lock) {
+            requests = pending;
+            pending = new HashMap<>();
+            flushScheduled = false;
+        }
+        for (Map.Entry<String, List<PendingRequest>> entry : requests.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void send(String accessToken, final List<PendingRequest> requests) {
+        if (requests.size() == 1) {
+            final PendingRequest request = requests.get(0);
+            client.getAsync(request.request).continueWith(new Continuation<Response, Void>() {
+                @Override
+                public Void then(Task<Response> task) throws Exception {
+                    complete(request, task);
+                    return null;
+                }
+            });
+            return;
+        }
+
+        String batch;
+        try {
+            batch = encodeBatch(requests);
+        } catch (JSONException e) {
+            for (PendingRequest request : requests) {
+                request.tcs.setError(e);
+            }
+            return;
+        }
+        synchronized (lock) {
+            batchCount++;
+        }
+        client.postBatchAsync(accessToken, batch).continueWith(new Continuation<String, Void>() {
+            @Override
+            public Void then(Task<String> task) throws Exception {
+                if (task.isCancelled() || task.isFaulted()) {
+                    // The whole batch failed, so every request in it did.
+                    for (PendingRequest request : requests) {
+                        if (task.isCancelled()) {
+                            request.tcs.setCancelled();
+                        } else {
+                            request.tcs.setError(task.getError());
+                        }
+                    }
+                    return null;
+                }
+                decodeBatch(task.getResult(), requests);
+                return null;
+            }
+        });
+    }
+
+    private static String encodeBatch(List<PendingRequest> requests) throws JSONException {
+        JSONArray batch = new JSONArray();
+        for (PendingRequest request : requests) {
+            batch.put(new JSONObject()
+                    .put("method", "GET")
+                    .put("relative_url", request.request.getRelativeUrl()));
+        }
+        return batch.toString();
+    }
+
+    private static void decodeBatch(String body, List<PendingRequest> requests) {
+        JSONArray responses;
+        try {
+            responses = new JSONArray(body);
+        } catch (JSONException e) {
+            for (PendingRequest request : requests) {
+                request.tcs.setError(e);
+            }
+            return;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            PendingRequest request = requests.get(i);
+            JSONObject response = responses.optJSONObject(i);
+            if (response == null) {
+                // The Graph API leaves out responses to requests it didn't get to in time.
+                request.tcs.setError(new IOException("Batched Graph API request timed out"));
+                continue;
+            }
+            int statusCode = response.optInt("code");
+            String responseBody = response.optString("body", null);
+            if (statusCode == Response.HTTP_NOT_MODIFIED
+                    || (statusCode >= 200 && statusCode < 300)) {
+                request.tcs.setResult(new Response(
+                        statusCode, responseBody, getHeader(response, "ETag")));
+            } else {
+                request.tcs.setError(new GraphException(statusCode, responseBody));
+            }
+        }
+    }
+
+    private static String getHeader(JSONObject response, String name) {
+        JSONArray headers = response.optJSONArray("headers");
+        if (headers == null) {
+            return null;
+        }
+        for (int i = 0; i < headers.length(); i++) {
+            JSONObject header = headers.optJSONObject(i);
+            if (header != null && name.equalsIgnoreCase(header.optString("name"))) {
+                return header.optString("value", null);
+            }
+        }
+        return null;
+    }
+
+    private static void complete(PendingRequest request, Task<Response> task) {
+        if (task.isCancelled()) {
+            request.tcs.setCancelled();
+        } else if (task.isFaulted()) {
+            request.tcs.setError(task.getError());
+        } else {
+            request.tcs.setResult(task.getResult());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+/**
+ * Reports the progress of a bulk link or unlink.
+ *
+ * @see ParseFacebookUtils#bulkLinkInBackground(java.util.List, int, java.io.File, BulkLinkCallback)
+ */
+public interface BulkLinkCallback {
+
+    /**
+     * Called as each item completes, on whichever thread completed it; calls for different items
+     * may overlap.
+     *
+     * @param result         The outcome of the item.
+     * @param completedCount The number of items completed so far, including those completed by
+     *                       earlier runs with the same checkpoint.
+     * @param totalCount     The number of items.
+     */
+    void onItemCompleted(BulkLinkResult result, int completedCount, int totalCount);
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseUser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A user to link to, or unlink from, Facebook as part of a bulk operation.
+ *
+ * @see ParseFacebookUtils#bulkLinkInBackground(java.util.List, int, java.io.File, BulkLinkCallback)
+ */
+public final class BulkLinkItem {
+
+    private final ParseUser user;
+    private final Map<String, String> authData;
+
+    private BulkLinkItem(ParseUser user, Map<String, String> authData) {
+        if (user == null) {
+            throw new IllegalArgumentException("user must not be null");
+        }
+        this.user = user;
+        this.authData = authData;
+    }
+
+    /**
+     * @param user     The user to link.
+     * @param authData The {@code facebook} auth data to link the user with.
+     */
+    public static BulkLinkItem link(ParseUser user, Map<String, String> authData) {
+        if (authData == null) {
+            throw new IllegalArgumentException("authData must not be null");
+        }
+        return new BulkLinkItem(user, Collections.unmodifiableMap(new HashMap<>(authData)));
+    }
+
+    /**
+     * @param user The user to unlink.
+     */
+    public static BulkLinkItem unlink(ParseUser user) {
+        return new BulkLinkItem(user, null);
+    }
+
+    public ParseUser getUser() {
+        return user;
+    }
+
+    /**
+     * @return The auth data to link with, or {@code null} to unlink.
+     */
+    public Map<String, String> getAuthData() {
+        return authData;
+    }
+
+    public boolean isUnlink() {
+        return authData == null;
+    }
+}
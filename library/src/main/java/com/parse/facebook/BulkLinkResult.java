@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+/**
+ * The outcome of one {@link BulkLinkItem}.
+ */
+public final class BulkLinkResult {
+
+    private final int index;
+    private final BulkLinkItem item;
+    private final Exception error;
+
+    /* package */ BulkLinkResult(int index, BulkLinkItem item, Exception error) {
+        this.index = index;
+        this.item = item;
+        this.error = error;
+    }
+
+    /**
+     * @return The position of the item in the list passed in.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public BulkLinkItem getItem() {
+        return item;
+    }
+
+    /**
+     * @return Why the item failed, or {@code null} if it succeeded.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
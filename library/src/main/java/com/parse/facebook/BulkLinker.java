@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Runs a list of {@link BulkLinkItem}s with at most {@code maxConcurrency} in flight.
+ * <p>
+ * Progress is checkpointed to a file as the number of leading items that have completed, every
+ * {@link #CHECKPOINT_INTERVAL} items and when the run ends, so a run with the same items and
+ * checkpoint picks up where the last one stopped. The checkpoint records a fingerprint of the
+ * items, each user's objectId, whether it's linked or unlinked and the Facebook user id it's
+ * linked to, so one kept for a different list is never resumed from. Items after the checkpoint that completed
+ * before a crash run again, which is harmless as linking and unlinking are idempotent.
+ * <p>
+ * An item that fails on its own is reported and the run goes on. One that fails because Parse
+ * can't be reached stops the run: no more items are started, and once those in flight complete
+ * the run fails with that error. The item that failed
+ * isn't counted as completed, so resuming runs it again.
+ */
+/* package */ class BulkLinker {
+
+    /* package */ static final int CHECKPOINT_INTERVAL = 100;
+
+    /* package */ interface Operation {
+        Task<Void> runAsync(BulkLinkItem item);
+    }
+
+    private final List<BulkLinkItem> items;
+    private final int maxConcurrency;
+    private final File checkpointFile;
+    private final Operation operation;
+    private final BulkLinkCallback callback;
+
+    private final Object lock = new Object();
+    private final Task<List<BulkLinkResult>>.TaskCompletionSource tcs = Task.create();
+    private final List<BulkLinkResult> results = new ArrayList<>();
+    private boolean[] completed;
+    private int start;
+    private int next;
+    private int inFlight;
+    private int completedCount;
+    // The number of leading items that have completed.
+    private int checkpoint;
+    private int savedCheckpoint;
+    private Exception fatalError;
+    private boolean draining;
+    private boolean finished;
+
+    private final Object checkpointLock = new Object();
+    private int writtenCheckpoint = -1;
+    private String fingerprint;
+
+    /**
+     * @param items          The items, in the order to run them.
+     * @param maxConcurrency The most items to run at once.
+     * @param checkpointFile Where to keep the checkpoint, or {@code null} to not keep one.
+     * @param operation      Runs an item.
+     * @param callback       Notified as items complete, or {@code null}.
+     */
+    BulkLinker(List<BulkLinkItem> items, int maxConcurrency, File checkpointFile,
+               Operation operation, BulkLinkCallback callback) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.items = new ArrayList<>(items);
+        this.maxConcurrency = maxConcurrency;
+        this.checkpointFile = checkpointFile;
+        this.operation = operation;
+        this.callback = callback;
+    }
+
+    /**
+     * @return A task that resolves to the results of the items run, in order, or fails with the
+     * error that stopped the run.
+     */
+    Task<List<BulkLinkResult>> runAsync() {
+        synchronized (lock) {
+            if (completed != null) {
+                throw new IllegalStateException("Already running");
+            }
+            fingerprint = fingerprint(items);
+            start = readCheckpoint();
+            next = start;
+            checkpoint = start;
+            savedCheckpoint = start;
+            completedCount = start;
+            completed = new boolean[items.size() - start];
+        }
+        drain();
+        return tcs.getTask();
+    }
+
+    private void drain() {
+        synchronized (lock) {
+            if (draining) {
+                // The thread draining will see the change.
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            final int index;
+            synchronized (lock) {
+                if (fatalError == null && inFlight < maxConcurrency && next < items.size()) {
+                    index = next++;
+                    inFlight++;
+                } else {
+                    draining = false;
+                    if (inFlight > 0 || finished) {
+                        return;
+                    }
+                    finished = true;
+                    index = -1;
+                }
+            }
+            if (index < 0) {
+                finish();
+                return;
+            }
+            run(index);
+        }
+    }
+
+    private void run(final int index) {
+        Task<Void> task;
+        try {
+            task = operation.runAsync(items.get(index));
+        } catch (Exception e) {
+            task = Task.forError(e);
+        }
+        task.continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                onItemCompleted(index, task.isCancelled()
+                        ? new CancellationException() : task.getError());
+                return null;
+            }
+        });
+    }
+
+    private void onItemCompleted(int index, Exception error) {
+        BulkLinkResult result = null;
+        int count = 0;
+        int checkpointToSave = -1;
+        synchronized (lock) {
+            inFlight--;
+            if (error != null && isFatal(error)) {
+                if (fatalError == null) {
+                    fatalError = error;
+                }
+            } else {
+                result = new BulkLinkResult(index, items.get(index), error);
+                results.add(result);
+                count = ++completedCount;
+                completed[index - start] = true;
+                while (checkpoint < items.size() && completed[checkpoint - start]) {
+                    checkpoint++;
+                }
+                if (checkpoint - savedCheckpoint >= CHECKPOINT_INTERVAL) {
+                    savedCheckpoint = checkpoint;
+                    checkpointToSave = checkpoint;
+                }
+            }
+        }
+        if (checkpointToSave >= 0) {
+            writeCheckpoint(checkpointToSave);
+        }
+        if (result != null && callback != null) {
+            callback.onItemCompleted(result, count, items.size());
+        }
+        drain();
+    }
+
+    private void finish() {
+        List<BulkLinkResult> sorted;
+        int finalCheckpoint;
+        Exception error;
+        synchronized (lock) {
+            sorted = new ArrayList<>(results);
+            finalCheckpoint = checkpoint;
+            error = fatalError;
+        }
+        writeCheckpoint(finalCheckpoint);
+        if (error != null) {
+            tcs.setError(error);
+            return;
+        }
+        Collections.sort(sorted, new Comparator<BulkLinkResult>() {
+            @Override
+            public int compare(BulkLinkResult lhs, BulkLinkResult rhs) {
+                return lhs.getIndex() < rhs.getIndex() ? -1
+                        : (lhs.getIndex() == rhs.getIndex() ? 0 : 1);
+            }
+        });
+        tcs.setResult(sorted);
+    }
+
+    /**
+     * @return Whether {@code error} means the items after it would fail too.
+     */
+    /* package */ static boolean isFatal(Exception error) {
+        return error instanceof ParseException
+                && ((ParseException) error).getCode() == ParseException.CONNECTION_FAILED;
+    }
+
+    //region Checkpoint
+
+    /**
+     * @return The index to start from. A missing or unreadable checkpoint, or one kept for
+     * different items, starts from the beginning.
+     */
+    private int readCheckpoint() {
+        if (checkpointFile == null || !checkpointFile.exists()) {
+            return 0;
+        }
+        try {
+            String[] parts = new String(FileUtils.readFile(checkpointFile), "UTF-8").trim().split("/");
+            int index = Integer.parseInt(parts[0]);
+            int size = Integer.parseInt(parts[1]);
+            if (size != items.size() || !fingerprint.equals(parts[2])
+                    || index < 0 || index > size) {
+                return 0;
+            }
+            return index;
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    private void writeCheckpoint(int index) {
+        if (checkpointFile == null) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            if (index <= writtenCheckpoint) {
+                return;
+            }
+            try {
+                FileUtils.writeFileAtomically(checkpointFile,
+                        (index + "/" + items.size() + "/" + fingerprint).getBytes("UTF-8"));
+                writtenCheckpoint = index;
+            } catch (IOException e) {
+                // The run goes on; resuming will just redo more items.
+            }
+        }
+    }
+
+    private static String fingerprint(List<BulkLinkItem> items) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (BulkLinkItem item : items) {
+                StringBuilder entry = new StringBuilder()
+                        .append(item.getUser().getObjectId()).append(' ');
+                if (item.isUnlink()) {
+                    entry.append('-');
+                } else {
+                    entry.append('+').append(item.getAuthData().get(AuthDataCodec.KEY_USER_ID));
+                }
+                digest.update(entry.append('\n').toString().getBytes("UTF-8"));
+            }
+            byte[] bytes = digest.digest();
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+/**
+ * A Facebook authentication token, the OpenID Connect ID token issued by Facebook Limited Login,
+ * whose signature and claims have been verified.
+ *
+ * @see ParseFacebookUtils#verifyAuthenticationTokenInBackground(String, String)
+ */
+public final class FacebookAuthenticationToken {
+
+    private final String token;
+    private final String userId;
+    private final String nonce;
+    private final String name;
+    private final String email;
+    private final String pictureUrl;
+    private final long issuedAtMillis;
+    private final long expiresAtMillis;
+
+    /* package */ FacebookAuthenticationToken(String token, String userId, String nonce,
+                                              String name, String email, String pictureUrl,
+                                              long issuedAtMillis, long expiresAtMillis) {
+        this.token = token;
+        this.userId = userId;
+        this.nonce = nonce;
+        this.name = name;
+        this.email = email;
+        this.pictureUrl = pictureUrl;
+        this.issuedAtMillis = issuedAtMillis;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @return The encoded token.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return The Facebook user id, from the {@code sub} claim.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return The nonce the login was started with, or {@code null}.
+     */
+    public String getNonce() {
+        return nonce;
+    }
+
+    /**
+     * @return The user's name, or {@code null} if it wasn't shared.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The user's email, or {@code null} if it wasn't shared.
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * @return The URL of the user's profile picture, or {@code null} if it wasn't shared.
+     */
+    public String getPictureUrl() {
+        return pictureUrl;
+    }
+
+    /**
+     * @return When the token was issued, in milliseconds since the epoch.
+     */
+    public long getIssuedAtMillis() {
+        return issuedAtMillis;
+    }
+
+    /**
+     * @return When the token expires, in milliseconds since the epoch.
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
@@ -12,54 +12,48 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.support.v4.app.Fragment;
-import android.text.TextUtils;
 
 import com.facebook.AccessToken;
 import com.facebook.AccessTokenSource;
+import com.facebook.AccessTokenTracker;
 import com.facebook.CallbackManager;
 import com.facebook.FacebookCallback;
 import com.facebook.FacebookException;
 import com.facebook.FacebookSdk;
+import com.facebook.login.LoginBehavior;
 import com.facebook.login.LoginManager;
 import com.facebook.login.LoginResult;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SimpleTimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import bolts.Continuation;
 import bolts.Task;
 
 class FacebookController {
 
-    /**
-     * Precise date format required for auth expiration data.
-     */
-    private static final DateFormat PRECISE_DATE_FORMAT =
-            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-    private static final DateFormat IMPRECISE_DATE_FORMAT =
-            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-
-    static {
-        PRECISE_DATE_FORMAT.setTimeZone(new SimpleTimeZone(0, "GMT"));
-        IMPRECISE_DATE_FORMAT.setTimeZone(new SimpleTimeZone(0, "GMT"));
-    }
-
     // Used as default activityCode. From FacebookSdk.java.
     public static final int DEFAULT_AUTH_ACTIVITY_CODE = 0xface;
 
-    private static final String KEY_USER_ID = "id";
-    private static final String KEY_ACCESS_TOKEN = "access_token";
-    private static final String KEY_EXPIRATION_DATE = "expiration_date";
-    private static final String KEY_REFRESH_DATE = "last_refresh_date";
-    private static final String KEY_PERMISSIONS = "permissions";
+    // A login that hasn't reported back by then is treated as abandoned and released.
+    static final long DEFAULT_ABANDONED_LOGIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /* package */ static final String KEY_USER_ID = AuthDataCodec.KEY_USER_ID;
+    /* package */ static final String KEY_ACCESS_TOKEN = AuthDataCodec.KEY_ACCESS_TOKEN;
+    /* package */ static final String KEY_AUTHENTICATION_TOKEN =
+            AuthDataCodec.KEY_AUTHENTICATION_TOKEN;
+    private static final String KEY_EXPIRATION_DATE = AuthDataCodec.KEY_EXPIRATION_DATE;
+    private static final String KEY_REFRESH_DATE = AuthDataCodec.KEY_REFRESH_DATE;
+    private static final String KEY_PERMISSIONS = AuthDataCodec.KEY_PERMISSIONS;
 
     // Mirrors com.facebook.internal.LoginAuthorizationType.java
     public enum LoginAuthorizationType {
@@ -68,7 +62,19 @@ class FacebookController {
 
     private final FacebookSdkDelegate facebookSdkDelegate;
 
+    private final Object lock = new Object();
     private CallbackManager callbackManager;
+    private Task<Map<String, String>>.TaskCompletionSource loginTaskCompletionSource;
+    private long loginStartedAtNanos;
+    // The behavior the login in flight was started with, if we picked it, and the LoginManager's
+    // behavior before, which is put back once the login is released.
+    private LoginBehavior loginBehavior;
+    private LoginBehavior previousLoginBehavior;
+    private long abandonedLoginTimeoutMillis = DEFAULT_ABANDONED_LOGIN_TIMEOUT_MILLIS;
+    private LoginBehaviorSelector loginBehaviorSelector;
+
+    private final AtomicReference<FacebookSession> session = new AtomicReference<>();
+    private final AuthEventPublisher authEvents = new AuthEventPublisher();
 
     FacebookController(FacebookSdkDelegate facebookSdkDelegate) {
         this.facebookSdkDelegate = facebookSdkDelegate;
@@ -82,12 +88,62 @@ class FacebookController {
         facebookSdkDelegate.initialize(context, callbackRequestCodeOffset);
     }
 
+    /**
+     * Does up front what the first login would otherwise do on the main thread: loads and
+     * constructs the {@link LoginManager}, a {@link CallbackManager} and the callback chain, and
+     * starts the executors the login task and its timeout run on. Nothing is registered, so this
+     * has no effect on logins, and it's safe to run on any thread once the SDK is initialized.
+     */
+    void prewarm() {
+        facebookSdkDelegate.getLoginManager();
+        CallbackManager callbackManager = facebookSdkDelegate.createCallbackManager();
+        Task<Map<String, String>>.TaskCompletionSource tcs = Task.create();
+        // Never registered, it's only constructed for its classes to be loaded.
+        new LoginCallback(this, callbackManager, tcs);
+        Task.delay(1).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    /**
+     * Sets how long an in-flight login may go without reporting back before it's considered
+     * abandoned. Abandoned logins are cancelled and their callback chain released so that nothing
+     * reachable from it (typically the launching {@link Activity} or {@link Fragment}) is retained.
+     * A value {@code <= 0} disables the timer: an in-flight login is then only considered
+     * abandoned, and cancelled, once a new one starts.
+     */
+    void setAbandonedLoginTimeoutMillis(long abandonedLoginTimeoutMillis) {
+        synchronized (lock) {
+            this.abandonedLoginTimeoutMillis = abandonedLoginTimeoutMillis;
+        }
+    }
+
+    /**
+     * Sets what picks the {@link LoginBehavior} of each login and is told how it went, or
+     * {@code null} to leave the {@link LoginManager}'s behavior alone.
+     */
+    void setLoginBehaviorSelector(LoginBehaviorSelector loginBehaviorSelector) {
+        synchronized (lock) {
+            this.loginBehaviorSelector = loginBehaviorSelector;
+        }
+    }
+
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
-        boolean ret = false;
-        if (callbackManager != null) {
-            ret = callbackManager.onActivityResult(requestCode, resultCode, data);
-            // Release callbackManager so our login callback doesn't get called again
-            callbackManager = null;
+        CallbackManager callbackManager;
+        synchronized (lock) {
+            callbackManager = this.callbackManager;
+        }
+        if (callbackManager == null) {
+            return false;
+        }
+        boolean ret = callbackManager.onActivityResult(requestCode, resultCode, data);
+        if (ret) {
+            // Release callbackManager so our login callback doesn't get called again. A result
+            // Facebook didn't handle belongs to another request, and the login is still going.
+            releaseLogin(callbackManager);
         }
         return ret;
     }
@@ -97,34 +153,68 @@ class FacebookController {
             Fragment fragment,
             LoginAuthorizationType authorizationType,
             Collection<String> permissions) {
-        if (callbackManager != null) {
-            // This should never happen since FB auth takes over UI and starts an Activity
-            return Task.forError(
-                    new RuntimeException("Unable to authenticate when another authentication is in process"));
+        AccessToken currentAccessToken = facebookSdkDelegate.getCurrentAccessToken();
+        if (currentAccessToken != null && !currentAccessToken.isExpired()) {
+            // Only ask for what we don't have yet, and skip the login UI altogether if that's
+            // nothing. The token Facebook returns carries the permissions granted previously too.
+            permissions = getMissingPermissions(currentAccessToken, permissions);
+            if (permissions.isEmpty()) {
+                publishSession(currentAccessToken);
+                return Task.forResult(getAuthData(currentAccessToken));
+            }
         }
 
         final Task<Map<String, String>>.TaskCompletionSource tcs = Task.create();
-        LoginManager manager = facebookSdkDelegate.getLoginManager();
-
-        callbackManager = facebookSdkDelegate.createCallbackManager();
-        manager.registerCallback(callbackManager, new FacebookCallback<LoginResult>() {
-            @Override
-            public void onSuccess(LoginResult loginResult) {
-                AccessToken accessToken = loginResult.getAccessToken();
-                Map<String, String> authData = getAuthData(accessToken);
-                tcs.trySetResult(authData);
+        final CallbackManager callbackManager;
+        final long timeoutMillis;
+        final LoginBehavior behavior;
+        CallbackManager abandonedCallbackManager;
+        Task<Map<String, String>>.TaskCompletionSource abandonedTcs;
+        LoginBehavior abandonedBehavior;
+        LoginBehavior abandonedPreviousBehavior;
+        long abandonedStartedAtNanos;
+        synchronized (lock) {
+            if (this.callbackManager != null && !isLoginAbandoned()) {
+                // This should never happen since FB auth takes over UI and starts an Activity
+                return Task.forError(
+                        new RuntimeException("Unable to authenticate when another authentication is in process"));
             }
+            abandonedCallbackManager = this.callbackManager;
+            abandonedTcs = loginTaskCompletionSource;
+            abandonedBehavior = loginBehavior;
+            abandonedPreviousBehavior = previousLoginBehavior;
+            abandonedStartedAtNanos = loginStartedAtNanos;
+            callbackManager = facebookSdkDelegate.createCallbackManager();
+            this.callbackManager = callbackManager;
+            loginTaskCompletionSource = tcs;
+            loginStartedAtNanos = System.nanoTime();
+            behavior = loginBehaviorSelector != null ? loginBehaviorSelector.select() : null;
+            loginBehavior = behavior;
+            previousLoginBehavior = null;
+            timeoutMillis = abandonedLoginTimeoutMillis;
+        }
+        if (abandonedCallbackManager != null) {
+            release(abandonedCallbackManager, abandonedTcs, abandonedBehavior,
+                    abandonedPreviousBehavior, abandonedStartedAtNanos);
+        }
 
-            @Override
-            public void onCancel() {
-                tcs.trySetCancelled();
+        LoginManager manager = facebookSdkDelegate.getLoginManager();
+        if (behavior != null) {
+            // LoginManager is a singleton the app may configure too, so its behavior is restored.
+            LoginBehavior previousBehavior = manager.getLoginBehavior();
+            manager.setLoginBehavior(behavior);
+            synchronized (lock) {
+                if (this.callbackManager == callbackManager) {
+                    previousLoginBehavior = previousBehavior;
+                    previousBehavior = null;
+                }
             }
-
-            @Override
-            public void onError(FacebookException e) {
-                tcs.trySetError(e);
+            if (previousBehavior != null) {
+                // Already released.
+                manager.setLoginBehavior(previousBehavior);
             }
-        });
+        }
+        manager.registerCallback(callbackManager, new LoginCallback(this, callbackManager, tcs));
 
         if (LoginAuthorizationType.PUBLISH.equals(authorizationType)) {
             if (fragment != null) {
@@ -140,9 +230,252 @@ class FacebookController {
             }
         }
 
+        if (timeoutMillis > 0) {
+            // Only hold the login weakly so the timer itself can't keep it alive once it's done.
+            final WeakReference<CallbackManager> callbackManagerRef =
+                    new WeakReference<>(callbackManager);
+            Task.delay(timeoutMillis).continueWith(new Continuation<Void, Void>() {
+                @Override
+                public Void then(Task<Void> task) throws Exception {
+                    CallbackManager callbackManager = callbackManagerRef.get();
+                    if (callbackManager != null) {
+                        releaseLogin(callbackManager);
+                    }
+                    return null;
+                }
+            });
+        }
+
         return tcs.getTask();
     }
 
+    /**
+     * @return The permissions in {@code permissions} that {@code accessToken} hasn't been granted.
+     */
+    private static Collection<String> getMissingPermissions(
+            AccessToken accessToken, Collection<String> permissions) {
+        Set<String> grantedPermissions = accessToken.getPermissions();
+        if (grantedPermissions.containsAll(permissions)) {
+            return Collections.emptyList();
+        }
+        List<String> missingPermissions = new ArrayList<>(permissions.size());
+        for (String permission : permissions) {
+            if (!grantedPermissions.contains(permission)) {
+                missingPermissions.add(permission);
+            }
+        }
+        return missingPermissions;
+    }
+
+    /**
+     * Must be called while holding {@code lock}.
+     */
+    private boolean isLoginAbandoned() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loginStartedAtNanos);
+        return elapsedMillis >= abandonedLoginTimeoutMillis;
+    }
+
+    /**
+     * Releases every reference we hold to the login started with {@code callbackManager} and
+     * cancels its task if it hasn't completed yet, so continuations waiting on it are released too.
+     * Does nothing if that login has already been released.
+     */
+    private void releaseLogin(CallbackManager callbackManager) {
+        Task<Map<String, String>>.TaskCompletionSource tcs;
+        LoginBehavior behavior;
+        LoginBehavior previousBehavior;
+        long startedAtNanos;
+        synchronized (lock) {
+            if (this.callbackManager != callbackManager) {
+                return;
+            }
+            tcs = loginTaskCompletionSource;
+            behavior = loginBehavior;
+            previousBehavior = previousLoginBehavior;
+            startedAtNanos = loginStartedAtNanos;
+            this.callbackManager = null;
+            loginTaskCompletionSource = null;
+            loginBehavior = null;
+            previousLoginBehavior = null;
+        }
+        release(callbackManager, tcs, behavior, previousBehavior, startedAtNanos);
+    }
+
+    private void release(CallbackManager callbackManager,
+                         Task<Map<String, String>>.TaskCompletionSource tcs,
+                         LoginBehavior behavior, LoginBehavior previousBehavior,
+                         long startedAtNanos) {
+        LoginManager manager = facebookSdkDelegate.getLoginManager();
+        manager.unregisterCallback(callbackManager);
+        if (previousBehavior != null) {
+            manager.setLoginBehavior(previousBehavior);
+        }
+        if (tcs == null) {
+            return;
+        }
+        // The login never reported back if it's still ours to cancel.
+        boolean abandoned = tcs.trySetCancelled();
+
+        LoginBehaviorSelector selector;
+        synchronized (lock) {
+            selector = loginBehaviorSelector;
+        }
+        if (selector == null || behavior == null) {
+            return;
+        }
+        Task<Map<String, String>> task = tcs.getTask();
+        LoginBehaviorSelector.Outcome outcome;
+        if (abandoned) {
+            outcome = LoginBehaviorSelector.Outcome.ABANDONED;
+        } else if (task.isCancelled()) {
+            outcome = LoginBehaviorSelector.Outcome.CANCELLED;
+        } else if (task.isFaulted()) {
+            outcome = LoginBehaviorSelector.Outcome.FAILED;
+        } else {
+            outcome = LoginBehaviorSelector.Outcome.SUCCEEDED;
+        }
+        selector.record(behavior, outcome,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos));
+    }
+
+    /**
+     * @return A snapshot of the current session, or {@code null} if there's no current token.
+     */
+    public FacebookSession getSession() {
+        FacebookSession session = this.session.get();
+        if (session == null) {
+            // Nothing published yet in this process, e.g. the SDK loaded a cached token on its own.
+            AccessToken currentAccessToken = facebookSdkDelegate.getCurrentAccessToken();
+            if (currentAccessToken != null) {
+                publishSession(currentAccessToken);
+                session = this.session.get();
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Publishes a new session snapshot for {@code accessToken}, unless the current one already
+     * describes it. The linked state carries over as long as the Facebook user stays the same.
+     *
+     * @param accessToken The new current token, or {@code null} if there's none.
+     * @return The snapshot that was replaced, or {@code null} if there was none or nothing changed.
+     */
+    /* package */ FacebookSession publishSession(AccessToken accessToken) {
+        while (true) {
+            FacebookSession current = session.get();
+            FacebookSession next;
+            if (accessToken == null) {
+                if (current == null) {
+                    return null;
+                }
+                next = null;
+            } else {
+                if (current != null && current.hasSameToken(accessToken)) {
+                    return null;
+                }
+                boolean linked = current != null
+                        && current.isLinked()
+                        && current.getUserId().equals(accessToken.getUserId());
+                next = FacebookSession.fromAccessToken(accessToken, linked);
+            }
+            if (session.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * @return The stream of auth state changes.
+     */
+    public AuthEventPublisher getAuthEvents() {
+        return authEvents;
+    }
+
+    /**
+     * Emits an event of the given type carrying the current session.
+     */
+    /* package */ void publishAuthEvent(AuthEvent.Type type) {
+        authEvents.publish(new AuthEvent(type, getSession()));
+    }
+
+    /**
+     * Installs a session saved by a previous run of the app, unless the Facebook SDK already has a
+     * token of another user.
+     */
+    /* package */ void installSession(FacebookSession session) {
+        AccessToken currentAccessToken = facebookSdkDelegate.getCurrentAccessToken();
+        if (currentAccessToken == null) {
+            long lastRefreshMillis = session.getLastRefreshMillis();
+            currentAccessToken = new AccessToken(
+                    session.getToken(),
+                    facebookSdkDelegate.getApplicationId(),
+                    session.getUserId(),
+                    session.getPermissions(),
+                    null,
+                    null,
+                    AccessTokenSource.DEVICE_AUTH,
+                    new Date(session.getExpiresAtMillis()),
+                    lastRefreshMillis != 0 ? new Date(lastRefreshMillis) : null,
+                    null);
+            facebookSdkDelegate.setCurrentAccessToken(currentAccessToken);
+        } else if (!currentAccessToken.getUserId().equals(session.getUserId())) {
+            return;
+        }
+        publishSession(currentAccessToken);
+        setSessionLinked(session.isLinked());
+    }
+
+    /**
+     * Publishes a new session snapshot for a token the Facebook SDK installed on its own, and
+     * emits {@link AuthEvent.Type#REFRESH} if it replaced the token of the same user.
+     */
+    /* package */ void refreshSession(AccessToken accessToken) {
+        if (accessToken == null) {
+            return;
+        }
+        FacebookSession replaced = publishSession(accessToken);
+        if (replaced != null && replaced.getUserId().equals(accessToken.getUserId())) {
+            publishAuthEvent(AuthEvent.Type.REFRESH);
+        }
+    }
+
+    /* package */ AccessToken getCurrentAccessToken() {
+        return facebookSdkDelegate.getCurrentAccessToken();
+    }
+
+    /**
+     * Starts observing changes the Facebook SDK makes to the current access token, e.g. when it
+     * refreshes the token on its own. The session snapshot is updated before {@code listener} is
+     * called.
+     *
+     * @return The tracker, so it can be stopped.
+     */
+    /* package */ AccessTokenTracker trackAccessToken(final AccessTokenListener listener) {
+        return facebookSdkDelegate.createAccessTokenTracker(new AccessTokenListener() {
+            @Override
+            public void onCurrentAccessTokenChanged(AccessToken accessToken) {
+                refreshSession(accessToken);
+                listener.onCurrentAccessTokenChanged(accessToken);
+            }
+        });
+    }
+
+    /**
+     * Records whether the current {@link com.parse.ParseUser} is linked to the current session.
+     */
+    /* package */ void setSessionLinked(boolean linked) {
+        while (true) {
+            FacebookSession current = getSession();
+            if (current == null || current.isLinked() == linked) {
+                return;
+            }
+            if (session.compareAndSet(current, current.withLinked(linked))) {
+                return;
+            }
+        }
+    }
+
     /**
      * Get auth data from the access token.
      * Includes the following:
@@ -157,33 +490,48 @@ class FacebookController {
      * See {@link FacebookController#setAuthData(Map)}
      */
     public Map<String, String> getAuthData(AccessToken accessToken) {
-        Map<String, String> authData = new HashMap<>();
-        authData.put(KEY_USER_ID, accessToken.getUserId());
-        authData.put(KEY_ACCESS_TOKEN, accessToken.getToken());
-        authData.put(KEY_EXPIRATION_DATE, PRECISE_DATE_FORMAT.format(accessToken.getExpires()));
-        authData.put(KEY_REFRESH_DATE, PRECISE_DATE_FORMAT.format(accessToken.getLastRefresh()));
-
-        Set<String> permissionSet = accessToken.getPermissions();
-        String valueToInsert = TextUtils.join(",", permissionSet);
-        authData.put(KEY_PERMISSIONS, valueToInsert);
+        return AuthDataCodec.encode(accessToken.getUserId(), accessToken.getToken(),
+                accessToken.getExpires(), accessToken.getLastRefresh(),
+                accessToken.getPermissions());
+    }
 
+    /**
+     * Get auth data from a verified Limited Login authentication token. Parse Server verifies the
+     * token itself, so only the user id and the token are included.
+     *
+     * @param authenticationToken - The verified token.
+     * @return - {@link Map} of auth data.
+     */
+    public Map<String, String> getAuthData(FacebookAuthenticationToken authenticationToken) {
+        Map<String, String> authData = new HashMap<>();
+        authData.put(KEY_USER_ID, authenticationToken.getUserId());
+        authData.put(KEY_AUTHENTICATION_TOKEN, authenticationToken.getToken());
         return authData;
     }
 
+    /* package */ String getApplicationId() {
+        return facebookSdkDelegate.getApplicationId();
+    }
+
     public void setAuthData(Map<String, String> authData)
             throws java.text.ParseException {
         if (authData == null) {
             facebookSdkDelegate.getLoginManager().logOut();
+            publishSession(null);
             return;
         }
 
         String token = authData.get(KEY_ACCESS_TOKEN);
         String userId = authData.get(KEY_USER_ID);
+        if (token == null && authData.get(KEY_AUTHENTICATION_TOKEN) != null) {
+            // Limited Login: there's no Graph API access token to restore.
+            return;
+        }
         String lastRefreshDateString = authData.get(KEY_REFRESH_DATE);
 
         Date lastRefreshDate = null;
         if (lastRefreshDateString != null) {
-            lastRefreshDate = parseDateString(lastRefreshDateString);
+            lastRefreshDate = AuthDataCodec.parseDate(lastRefreshDateString);
         }
 
         AccessToken currentAccessToken = facebookSdkDelegate.getCurrentAccessToken();
@@ -196,6 +544,7 @@ class FacebookController {
                     && currUserId != null && currUserId.equals(userId)) {
                 // Don't reset the current token if it's the same. If we reset it every time we'd lose
                 // permissions, source, lastRefreshTime, etc.
+                publishSession(currentAccessToken);
                 return;
             }
 
@@ -203,17 +552,13 @@ class FacebookController {
             if (currLastRefreshDate != null
                     && lastRefreshDate != null
                     && currLastRefreshDate.after(lastRefreshDate)) {
+                refreshSession(currentAccessToken);
                 return;
             }
         }
 
         //Don't forget permissions....if available
-        String permissionsCommaDelineated = authData.get(KEY_PERMISSIONS);
-        Set<String> permissions = null;
-        if (permissionsCommaDelineated != null && !permissionsCommaDelineated.isEmpty()) {
-            String permissionsArray[] = permissionsCommaDelineated.split(",");
-            permissions = new HashSet<>(Arrays.asList(permissionsArray));
-        }
+        Set<String> permissions = AuthDataCodec.splitPermissions(authData.get(KEY_PERMISSIONS));
 
         AccessToken accessToken = new AccessToken(
                 token,
@@ -223,9 +568,10 @@ class FacebookController {
                 null,
                 null,
                 AccessTokenSource.DEVICE_AUTH,
-                parseDateString(authData.get(KEY_EXPIRATION_DATE)),
+                AuthDataCodec.parseDate(authData.get(KEY_EXPIRATION_DATE)),
                 null, null);
         facebookSdkDelegate.setCurrentAccessToken(accessToken);
+        publishSession(accessToken);
     }
 
     /* package */ interface FacebookSdkDelegate {
@@ -240,24 +586,49 @@ class FacebookController {
         CallbackManager createCallbackManager();
 
         LoginManager getLoginManager();
+
+        AccessTokenTracker createAccessTokenTracker(AccessTokenListener listener);
+    }
+
+    /* package */ interface AccessTokenListener {
+        void onCurrentAccessTokenChanged(AccessToken accessToken);
     }
 
     /**
-     * Convert String representation of a date into Date object.
-     * <p>
-     * Following date formats are supported:
-     * yyyy-MM-dd'T'HH:mm:ss.SSS'Z'
-     * yyyy-MM-dd'T'HH:mm:ss'Z'
-     *
-     * @param source A <code>String</code> whose beginning should be parsed.
-     * @return A <code>Date</code> parsed from the string.
-     * @throws java.text.ParseException if the beginning of the specified string cannot be parsed.
+     * Completes the login task. Kept static so that it only references what it needs; in
+     * particular nothing UI related.
      */
-    private Date parseDateString(String source) throws java.text.ParseException {
-        try {
-            return PRECISE_DATE_FORMAT.parse(source);
-        } catch (java.text.ParseException e) {
-            return IMPRECISE_DATE_FORMAT.parse(source);
+    private static class LoginCallback implements FacebookCallback<LoginResult> {
+        private final FacebookController controller;
+        private final CallbackManager callbackManager;
+        private final Task<Map<String, String>>.TaskCompletionSource tcs;
+
+        LoginCallback(FacebookController controller, CallbackManager callbackManager,
+                      Task<Map<String, String>>.TaskCompletionSource tcs) {
+            this.controller = controller;
+            this.callbackManager = callbackManager;
+            this.tcs = tcs;
+        }
+
+        @Override
+        public void onSuccess(LoginResult loginResult) {
+            AccessToken accessToken = loginResult.getAccessToken();
+            Map<String, String> authData = controller.getAuthData(accessToken);
+            controller.publishSession(accessToken);
+            tcs.trySetResult(authData);
+            controller.releaseLogin(callbackManager);
+        }
+
+        @Override
+        public void onCancel() {
+            tcs.trySetCancelled();
+            controller.releaseLogin(callbackManager);
+        }
+
+        @Override
+        public void onError(FacebookException e) {
+            tcs.trySetError(e);
+            controller.releaseLogin(callbackManager);
         }
     }
 
@@ -291,5 +662,17 @@ class FacebookController {
         public LoginManager getLoginManager() {
             return LoginManager.getInstance();
         }
+
+        @Override
+        public AccessTokenTracker createAccessTokenTracker(final AccessTokenListener listener) {
+            // Starts tracking on construction.
+            return new AccessTokenTracker() {
+                @Override
+                protected void onCurrentAccessTokenChanged(
+                        AccessToken oldAccessToken, AccessToken currentAccessToken) {
+                    listener.onCurrentAccessTokenChanged(currentAccessToken);
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+/**
+ * A friend of the current Facebook user who also uses the app.
+ *
+ * @see ParseFacebookUtils#getFriends(int)
+ */
+public final class FacebookFriend {
+
+    private final String id;
+    private final String name;
+
+    /* package */ FacebookFriend(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @return The friend's app-scoped Facebook user id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return The friend's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "FacebookFriend{id=" + id + ", name=" + name + "}";
+    }
+}
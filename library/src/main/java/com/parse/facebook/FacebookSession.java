@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the current Facebook session.
+ * <p>
+ * A new snapshot is published whenever the token changes, and can be read from any thread
+ * without locking through {@link ParseFacebookUtils#getSession()}. Dates are epoch millis so
+ * nothing needs to be parsed to read them.
+ */
+public final class FacebookSession {
+
+    private static final String[] NO_PERMISSIONS = new String[0];
+
+    private final String userId;
+    private final String token;
+    private final long expiresAtMillis;
+    private final long lastRefreshMillis;
+    // Sorted, so lookups can binary search instead of hashing into a set.
+    private final String[] permissions;
+    private final List<String> permissionList;
+    private final boolean linked;
+
+    /* package */ FacebookSession(String userId, String token, long expiresAtMillis,
+                                  long lastRefreshMillis, String[] sortedPermissions,
+                                  boolean linked) {
+        this.userId = userId;
+        this.token = token;
+        this.expiresAtMillis = expiresAtMillis;
+        this.lastRefreshMillis = lastRefreshMillis;
+        this.permissions = sortedPermissions;
+        this.permissionList = Collections.unmodifiableList(Arrays.asList(sortedPermissions));
+        this.linked = linked;
+    }
+
+    /* package */ static FacebookSession fromAccessToken(AccessToken accessToken, boolean linked) {
+        return new FacebookSession(
+                accessToken.getUserId(),
+                accessToken.getToken(),
+                toMillis(accessToken.getExpires()),
+                toMillis(accessToken.getLastRefresh()),
+                sortedPermissions(accessToken.getPermissions()),
+                linked);
+    }
+
+    /* package */ static String[] sortedPermissions(Collection<String> permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return NO_PERMISSIONS;
+        }
+        String[] sorted = permissions.toArray(new String[permissions.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long toMillis(Date date) {
+        return date != null ? date.getTime() : 0;
+    }
+
+    /**
+     * @return The Facebook user id.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return The Facebook access token.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return When the token expires, in milliseconds since the epoch.
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * @return When the token was last refreshed, in milliseconds since the epoch.
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * @return {@code true} if the token has expired.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAtMillis;
+    }
+
+    /**
+     * @return The permissions granted to the token, sorted.
+     */
+    public List<String> getPermissions() {
+        return permissionList;
+    }
+
+    /**
+     * @param permission A Facebook permission, e.g. {@code "email"}.
+     * @return {@code true} if the permission was granted to the token.
+     */
+    public boolean hasPermission(String permission) {
+        return Arrays.binarySearch(permissions, permission) >= 0;
+    }
+
+    /**
+     * @return {@code true} if the current {@link com.parse.ParseUser} is linked to this Facebook
+     * account.
+     */
+    public boolean isLinked() {
+        return linked;
+    }
+
+    /* package */ FacebookSession withLinked(boolean linked) {
+        if (this.linked == linked) {
+            return this;
+        }
+        return new FacebookSession(
+                userId, token, expiresAtMillis, lastRefreshMillis, permissions, linked);
+    }
+
+    /* package */ boolean hasSameToken(AccessToken accessToken) {
+        if (token == null || !token.equals(accessToken.getToken())
+                || userId == null || !userId.equals(accessToken.getUserId())
+                || expiresAtMillis != toMillis(accessToken.getExpires())
+                || lastRefreshMillis != toMillis(accessToken.getLastRefresh())) {
+            return false;
+        }
+        Collection<String> tokenPermissions = accessToken.getPermissions();
+        int tokenPermissionCount = tokenPermissions != null ? tokenPermissions.size() : 0;
+        if (permissions.length != tokenPermissionCount) {
+            return false;
+        }
+        for (String permission : permissions) {
+            if (!tokenPermissions.contains(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a {@link FacebookSession}: dates as epoch millis and the common
+ * permissions as a bitset, so a typical session fits in a few hundred bytes and decodes without
+ * parsing any text.
+ */
+/* package */ final class FacebookSessionCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Permissions encoded as a bit each. Only ever append to this list; the index of a permission
+     * is its bit, so reordering would corrupt existing data.
+     */
+    private static final String[] KNOWN_PERMISSIONS = {
+            "public_profile",
+            "email",
+            "user_friends",
+            "user_birthday",
+            "user_gender",
+            "user_link",
+            "user_location",
+            "user_hometown",
+            "user_age_range",
+            "user_likes",
+            "user_photos",
+            "user_posts",
+            "user_videos",
+            "user_events",
+            "groups_access_member_info",
+            "publish_to_groups",
+            "pages_show_list",
+            "pages_read_engagement",
+            "pages_manage_posts",
+            "publish_video",
+            "instagram_basic",
+    };
+
+    private FacebookSessionCodec() {
+        // do nothing
+    }
+
+    /**
+     * @return The encoded session, or an empty array for {@code null}.
+     */
+    static byte[] encode(FacebookSession session) throws IOException {
+        if (session == null) {
+            return new byte[0];
+        }
+        long knownPermissions = 0;
+        List<String> otherPermissions = new ArrayList<>();
+        for (String permission : session.getPermissions()) {
+            int bit = indexOf(permission);
+            if (bit >= 0) {
+                knownPermissions |= 1L << bit;
+            } else {
+                otherPermissions.add(permission);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(session.getUserId());
+        out.writeUTF(session.getToken());
+        out.writeLong(session.getExpiresAtMillis());
+        out.writeLong(session.getLastRefreshMillis());
+        out.writeLong(knownPermissions);
+        out.writeShort(otherPermissions.size());
+        for (String permission : otherPermissions) {
+            out.writeUTF(permission);
+        }
+        out.writeBoolean(session.isLinked());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The decoded session, or {@code null} for an empty array.
+     * @throws IOException if {@code payload} isn't a session encoded by {@link #encode}.
+     */
+    static FacebookSession decode(byte[] payload) throws IOException {
+        return decode(payload, payload.length);
+    }
+
+    static FacebookSession decode(byte[] payload, int length) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload, 0, length);
+        DataInputStream in = new DataInputStream(bytes);
+        if (in.readByte() != FORMAT_VERSION) {
+            throw new IOException("Unknown session format");
+        }
+        String userId = in.readUTF();
+        String token = in.readUTF();
+        long expiresAtMillis = in.readLong();
+        long lastRefreshMillis = in.readLong();
+        long knownPermissions = in.readLong();
+        int otherPermissionCount = in.readUnsignedShort();
+
+        String[] permissions =
+                new String[Long.bitCount(knownPermissions) + otherPermissionCount];
+        int count = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if ((knownPermissions & (1L << bit)) != 0) {
+                if (bit >= KNOWN_PERMISSIONS.length) {
+                    throw new IOException("Unknown permission bit " + bit);
+                }
+                permissions[count++] = KNOWN_PERMISSIONS[bit];
+            }
+        }
+        for (int i = 0; i < otherPermissionCount; i++) {
+            permissions[count++] = in.readUTF();
+        }
+        boolean linked = in.readBoolean();
+        if (bytes.available() != 0) {
+            throw new IOException("Trailing bytes in session");
+        }
+        Arrays.sort(permissions);
+        return new FacebookSession(
+                userId, token, expiresAtMillis, lastRefreshMillis, permissions, linked);
+    }
+
+    private static int indexOf(String permission) {
+        for (int i = 0; i < KNOWN_PERMISSIONS.length; i++) {
+            if (KNOWN_PERMISSIONS[i].equals(permission)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Finds the {@link ParseUser}s linked to a set of Facebook user ids, e.g. the current user's
+ * friends.
+ * <p>
+ * Ids are looked up in chunks of {@link #CHUNK_SIZE} with {@code containedIn} queries that run in
+ * parallel. Which user each id resolved to, including ids no user is linked to, is cached for
+ * {@code ttlMillis}, and only ids that aren't cached are queried.
+ * <p>
+ * Users are matched to ids through their {@code authData}, which Parse Server only returns for
+ * other users to requests made with the master key. When a query returns users without it, the
+ * ids it couldn't match are split in half and each half is queried again, until every such user
+ * was found by a single id. That costs about two queries per level for each of those users, i.e.
+ * at most {@code 2 * log2(CHUNK_SIZE)} more queries per user, and is only paid once per
+ * {@code ttlMillis} since the matches are cached.
+ */
+/* package */ class FriendUserResolver {
+
+    /**
+     * The most ids looked up by one query; Parse returns at most 100 objects by default.
+     */
+    /* package */ static final int CHUNK_SIZE = 100;
+    /* package */ static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String FACEBOOK_ID_KEY = "authData.facebook.id";
+    private static final String AUTH_DATA_KEY = "authData";
+    private static final String AUTH_TYPE = "facebook";
+
+    /* package */ interface Delegate {
+        Task<List<ParseUser>> findUsersAsync(List<String> facebookIds);
+
+        String getFacebookId(ParseUser user);
+
+        ParseUser createWithoutData(String objectId);
+    }
+
+    private static final class CacheEntry {
+        // Null if no user is linked to the id.
+        final String objectId;
+        final long expiresAtMillis;
+
+        CacheEntry(String objectId, long expiresAtMillis) {
+            this.objectId = objectId;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final Delegate delegate;
+    private final long ttlMillis;
+
+    private final Object lock = new Object();
+    private final Map<String, CacheEntry> cache = new HashMap<>();
+    private long queryCount;
+
+    FriendUserResolver() {
+        this(new DelegateImpl(), DEFAULT_TTL_MILLIS);
+    }
+
+    FriendUserResolver(Delegate delegate, long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /* package */ long getQueryCount() {
+        synchronized (lock) {
+            return queryCount;
+        }
+    }
+
+    /**
+     * @param facebookIds The Facebook user ids to resolve.
+     * @return A task that resolves to the users linked to the ids, by Facebook user id. Ids no
+     * user is linked to are left out. Users resolved from the cache are unfetched.
+     */
+    Task<Map<String, ParseUser>> resolveAsync(Collection<String> facebookIds) {
+        final Map<String, ParseUser> users = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        synchronized (lock) {
+            long now = currentTimeMillis();
+            for (String facebookId : new LinkedHashSet<>(facebookIds)) {
+                CacheEntry entry = cache.get(facebookId);
+                if (entry == null || now >= entry.expiresAtMillis) {
+                    misses.add(facebookId);
+                } else if (entry.objectId != null) {
+                    users.put(facebookId, delegate.createWithoutData(entry.objectId));
+                }
+            }
+        }
+        if (misses.isEmpty()) {
+            return Task.forResult(users);
+        }
+
+        List<Task<Map<String, ParseUser>>> tasks = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i += CHUNK_SIZE) {
+            tasks.add(queryAsync(misses.subList(i, Math.min(i + CHUNK_SIZE, misses.size()))));
+        }
+        final List<Task<Map<String, ParseUser>>> chunks = tasks;
+        return Task.whenAll(chunks).onSuccess(new Continuation<Void, Map<String, ParseUser>>() {
+            @Override
+            public Map<String, ParseUser> then(Task<Void> task) throws Exception {
+                for (Task<Map<String, ParseUser>> chunk : chunks) {
+                    users.putAll(chunk.getResult());
+                }
+                return users;
+            }
+        });
+    }
+
+    private Task<Map<String, ParseUser>> queryAsync(List<String> facebookIds) {
+        final List<String> chunk = new ArrayList<>(facebookIds);
+        synchronized (lock) {
+            queryCount++;
+        }
+        return delegate.findUsersAsync(chunk).onSuccessTask(
+                new Continuation<List<ParseUser>, Task<Map<String, ParseUser>>>() {
+                    @Override
+                    public Task<Map<String, ParseUser>> then(Task<List<ParseUser>> task)
+                            throws Exception {
+                        final Map<String, ParseUser> users = new HashMap<>();
+                        ParseUser hiddenUser = null;
+                        for (ParseUser user : task.getResult()) {
+                            String facebookId = delegate.getFacebookId(user);
+                            if (facebookId == null) {
+                                hiddenUser = user;
+                            } else if (chunk.contains(facebookId)) {
+                                users.put(facebookId, user);
+                            }
+                        }
+                        List<String> unresolved = new ArrayList<>(chunk);
+                        unresolved.removeAll(users.keySet());
+                        if (hiddenUser != null && unresolved.size() == 1) {
+                            // The only id left is the one the user was found by.
+                            users.put(unresolved.remove(0), hiddenUser);
+                            hiddenUser = null;
+                        }
+
+                        synchronized (lock) {
+                            long expiresAtMillis = currentTimeMillis() + ttlMillis;
+                            for (Map.Entry<String, ParseUser> entry : users.entrySet()) {
+                                cache.put(entry.getKey(), new CacheEntry(
+                                        entry.getValue().getObjectId(), expiresAtMillis));
+                            }
+                            if (hiddenUser == null) {
+                                for (String facebookId : unresolved) {
+                                    cache.put(facebookId, new CacheEntry(null, expiresAtMillis));
+                                }
+                            }
+                        }
+                        if (hiddenUser == null || unresolved.isEmpty()) {
+                            return Task.forResult(users);
+                        }
+
+                        // Some of the unresolved ids are linked, but we can't tell which, so
+                        // narrow them down by halves until each user was found by a single id.
+                        int half = unresolved.size() / 2;
+                        final Task<Map<String, ParseUser>> first =
+                                queryAsync(unresolved.subList(0, half));
+                        final Task<Map<String, ParseUser>> second =
+                                queryAsync(unresolved.subList(half, unresolved.size()));
+                        return Task.whenAll(Arrays.asList(first, second)).onSuccess(
+                                new Continuation<Void, Map<String, ParseUser>>() {
+                                    @Override
+                                    public Map<String, ParseUser> then(Task<Void> task)
+                                            throws Exception {
+                                        users.putAll(first.getResult());
+                                        users.putAll(second.getResult());
+                                        return users;
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /**
+     * Forgets every resolved id, e.g. once the current user logs out.
+     */
+    void clear() {
+        synchronized (lock) {
+            cache.clear();
+        }
+    }
+
+    private static class DelegateImpl implements Delegate {
+        @Override
+        public Task<List<ParseUser>> findUsersAsync(List<String> facebookIds) {
+            ParseQuery<ParseUser> query = ParseUser.getQuery();
+            query.whereContainedIn(FACEBOOK_ID_KEY, facebookIds);
+            query.selectKeys(Collections.singletonList(AUTH_DATA_KEY));
+            query.setLimit(facebookIds.size());
+            return query.findInBackground();
+        }
+
+        @Override
+        public String getFacebookId(ParseUser user) {
+            Map<String, Object> authData = user.getMap(AUTH_DATA_KEY);
+            Object facebook = authData != null ? authData.get(AUTH_TYPE) : null;
+            if (!(facebook instanceof Map)) {
+                return null;
+            }
+            Object id = ((Map<?, ?>) facebook).get(FacebookController.KEY_USER_ID);
+            return id != null ? id.toString() : null;
+        }
+
+        @Override
+        public ParseUser createWithoutData(String objectId) {
+            return ParseObject.createWithoutData(ParseUser.class, objectId);
+        }
+    }
+}
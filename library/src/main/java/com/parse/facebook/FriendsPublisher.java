@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A cold {@link Publisher} of the current user's friends, paging through {@code me/friends}.
+ * <p>
+ * Each subscriber pages on its own. The first page is requested once the subscriber requests
+ * friends, and while a page is being delivered the next one is already being fetched, so at most
+ * two pages are held in memory however long the list is. Pages are read with a streaming parser
+ * straight into {@link FacebookFriend}s.
+ * <p>
+ * Friends are delivered on the thread that fetched the page, or the thread that requested more,
+ * so {@link Subscriber#onNext(Object)} shouldn't block.
+ */
+/* package */ class FriendsPublisher implements Publisher<FacebookFriend> {
+
+    /* package */ static final String FRIENDS_PATH = "me/friends";
+    private static final String FIELDS = "id,name";
+
+    /* package */ static final class Page {
+        final List<FacebookFriend> friends;
+        // The cursor of the next page, or null if this is the last one.
+        final String after;
+
+        Page(List<FacebookFriend> friends, String after) {
+            this.friends = friends;
+            this.after = after;
+        }
+    }
+
+    private final GraphClient client;
+    private final String accessToken;
+    private final int pageSize;
+
+    /**
+     * @param client      The client to fetch pages with.
+     * @param accessToken The access token to fetch pages with.
+     * @param pageSize    The number of friends to fetch per page.
+     */
+    FriendsPublisher(GraphClient client, String accessToken, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.client = client;
+        this.accessToken = accessToken;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super FacebookFriend> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        FriendsSubscription subscription = new FriendsSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * Reads a {@code me/friends} response without building a tree of the whole page.
+     */
+    /* package */ static Page parsePage(String body) throws IOException {
+        List<FacebookFriend> friends = new ArrayList<>();
+        String after = null;
+        boolean hasNext = false;
+        JsonReader reader = new JsonReader(new StringReader(body));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("data".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        friends.add(readFriend(reader));
+                    }
+                    reader.endArray();
+                } else if ("paging".equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String pagingName = reader.nextName();
+                        if ("cursors".equals(pagingName)) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if ("after".equals(reader.nextName())) {
+                                    after = readString(reader);
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                        } else if ("next".equals(pagingName)) {
+                            // Only there if there's another page.
+                            hasNext = readString(reader) != null;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens this way.
+            throw new IOException("Malformed friends page", e);
+        } finally {
+            reader.close();
+        }
+        return new Page(friends, hasNext ? after : null);
+    }
+
+    private static FacebookFriend readFriend(JsonReader reader) throws IOException {
+        String id = null;
+        String name = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if ("id".equals(field)) {
+                id = readString(reader);
+            } else if ("name".equals(field)) {
+                name = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new FacebookFriend(id, name);
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private class FriendsSubscription implements Subscription {
+        private final Subscriber<? super FacebookFriend> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // Serializes signals to the subscriber: whoever moves it from 0 drains for everyone.
+        private final AtomicInteger wip = new AtomicInteger();
+        // Set by fetches, taken by drain.
+        private final AtomicReference<Page> fetchedPage = new AtomicReference<>();
+        private final AtomicReference<Exception> fetchError = new AtomicReference<>();
+        private volatile boolean cancelled;
+        private volatile boolean invalidRequest;
+
+        // Only touched while draining.
+        private final ArrayDeque<FacebookFriend> buffer = new ArrayDeque<>();
+        private boolean started;
+        private boolean lastPage;
+
+        FriendsSubscription(Subscriber<? super FacebookFriend> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = true;
+            } else {
+                while (true) {
+                    long current = requested.get();
+                    long next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(current, next)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void fetch(String after) {
+            if (accessToken == null) {
+                fetchError.set(new IllegalStateException("There is no Facebook session"));
+                return;
+            }
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("fields", FIELDS);
+            parameters.put("limit", String.valueOf(pageSize));
+            if (after != null) {
+                parameters.put("after", after);
+            }
+            client.getAsync(new GraphClient.Request(FRIENDS_PATH, parameters, accessToken))
+                    .continueWith(new Continuation<GraphClient.Response, Void>() {
+                        @Override
+                        public Void then(Task<GraphClient.Response> task) throws Exception {
+                            if (task.isCancelled()) {
+                                fetchError.set(new CancellationException());
+                            } else if (task.isFaulted()) {
+                                fetchError.set(task.getError());
+                            } else if (!cancelled) {
+                                try {
+                                    fetchedPage.set(parsePage(task.getResult().getBody()));
+                                } catch (IOException e) {
+                                    fetchError.set(e);
+                                }
+                            }
+                            drain();
+                            return null;
+                        }
+                    });
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                if (cancelled) {
+                    buffer.clear();
+                    fetchedPage.set(null);
+                    return;
+                }
+                if (invalidRequest) {
+                    cancel();
+                    subscriber.onError(new IllegalArgumentException(
+                            "Subscription.request must be called with a positive number"));
+                    return;
+                }
+
+                if (buffer.isEmpty()) {
+                    Page page = fetchedPage.getAndSet(null);
+                    if (page != null) {
+                        buffer.addAll(page.friends);
+                        lastPage = page.after == null;
+                        if (!lastPage) {
+                            // Fetch the next page while this one is delivered.
+                            fetch(page.after);
+                        }
+                    } else if (started && lastPage) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                }
+
+                Exception error = fetchError.get();
+                if (buffer.isEmpty() && error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                    return;
+                }
+
+                long demand = requested.get();
+                if (demand > 0 && !started) {
+                    started = true;
+                    fetch(null);
+                    continue;
+                }
+                if (demand > 0 && !buffer.isEmpty()) {
+                    if (demand != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(buffer.poll());
+                    } catch (RuntimeException e) {
+                        // A misbehaving subscriber only loses its own subscription.
+                        cancel();
+                        return;
+                    }
+                    continue;
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
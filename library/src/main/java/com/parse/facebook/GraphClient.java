@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import bolts.Task;
+
+/**
+ * Makes GET requests to the Facebook Graph API.
+ *
+ * @see HttpGraphClient
+ * @see ParseFacebookUtils#setGraphClient(GraphClient)
+ */
+public interface GraphClient {
+
+    /**
+     * @param request The request to make.
+     * @return A task that resolves to the response, which is successful or not modified, or fails
+     * with a {@link GraphException} if the Graph API returned an error.
+     */
+    Task<Response> getAsync(Request request);
+
+    /**
+     * An immutable Graph API GET request.
+     */
+    final class Request {
+        private final String path;
+        private final Map<String, String> parameters;
+        private final String accessToken;
+        private final String eTag;
+
+        /**
+         * @param path        The path relative to the Graph API version, e.g. {@code "me"}.
+         * @param parameters  The query parameters, e.g. {@code fields}.
+         * @param accessToken The access token to make the request with.
+         */
+        public Request(String path, Map<String, String> parameters, String accessToken) {
+            this(path, parameters, accessToken, null);
+        }
+
+        private Request(String path, Map<String, String> parameters, String accessToken,
+                        String eTag) {
+            this.path = path;
+            // Sorted, so equal requests have equal URLs.
+            this.parameters = parameters != null
+                    ? Collections.unmodifiableMap(new TreeMap<>(parameters))
+                    : Collections.<String, String>emptyMap();
+            this.accessToken = accessToken;
+            this.eTag = eTag;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        /**
+         * @return The ETag of a cached response to revalidate, or {@code null}.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return A copy of this request that revalidates a cached response with {@code eTag}.
+         */
+        public Request withETag(String eTag) {
+            return new Request(path, parameters, accessToken, eTag);
+        }
+
+        /**
+         * @return The path and query string, without the access token.
+         */
+        public String getRelativeUrl() {
+            if (parameters.isEmpty()) {
+                return path;
+            }
+            StringBuilder url = new StringBuilder(path).append('?');
+            boolean first = true;
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                if (!first) {
+                    url.append('&');
+                }
+                first = false;
+                url.append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+            }
+            return url.toString();
+        }
+
+        /* package */ static String encode(String value) {
+            try {
+                return URLEncoder.encode(value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A successful or not modified Graph API response.
+     */
+    final class Response {
+        /**
+         * The status code of a response that confirmed a cached response is still current.
+         */
+        public static final int HTTP_NOT_MODIFIED = 304;
+
+        private final int statusCode;
+        private final String body;
+        private final String eTag;
+        private volatile JSONObject jsonObject;
+
+        public Response(int statusCode, String body, String eTag) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.eTag = eTag;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return The body, or {@code null} if not modified.
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * @return The ETag of the body, or {@code null} if there's none.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        public boolean isNotModified() {
+            return statusCode == HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return The body as a new JSON object, which the caller is free to modify.
+         */
+        public JSONObject getJSONObject() throws JSONException {
+            return new JSONObject(body);
+        }
+
+        /**
+         * @return The body as a JSON object that's only parsed once and shared by everyone
+         * holding this response, e.g. the callers of a shared request, so it must not be modified
+         * or handed out.
+         */
+        /* package */ JSONObject getSharedJSONObject() throws JSONException {
+            JSONObject object = jsonObject;
+            if (object == null) {
+                object = new JSONObject(body);
+                jsonObject = object;
+            }
+            return object;
+        }
+    }
+
+    /**
+     * An error response from the Graph API.
+     */
+    class GraphException extends IOException {
+        private final int statusCode;
+        private final String body;
+
+        public GraphException(int statusCode, String body) {
+            super("Graph API request failed with HTTP " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return The error body, usually a JSON object with an {@code error} field.
+         */
+        public String getBody() {
+            return body;
+        }
+    }
+}
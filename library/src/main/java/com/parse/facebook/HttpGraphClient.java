@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+
+import bolts.Task;
+
+/**
+ * A {@link GraphClient} that makes requests with {@link HttpURLConnection} on
+ * {@link Task#BACKGROUND_EXECUTOR}.
+ */
+public class HttpGraphClient implements GraphClient {
+
+    /**
+     * The Graph API endpoint requests go to by default.
+     */
+    public static final String DEFAULT_BASE_URL = "https://graph.facebook.com/v5.0";
+
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+    private final String baseUrl;
+
+    public HttpGraphClient() {
+        this(DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl The Graph API endpoint, including the version, e.g. to point at a test
+     *                server.
+     */
+    public HttpGraphClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public Task<Response> getAsync(final Request request) {
+        return Task.call(new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return get(request);
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    /* package */ URL getUrl(Request request) throws IOException {
+        String relativeUrl = request.getRelativeUrl();
+        StringBuilder url = new StringBuilder(baseUrl).append('/').append(relativeUrl);
+        if (request.getAccessToken() != null) {
+            url.append(relativeUrl.indexOf('?') >= 0 ? '&' : '?')
+                    .append("access_token=")
+                    .append(Request.encode(request.getAccessToken()));
+        }
+        return new URL(url.toString());
+    }
+
+    /**
+     * Makes a Graph API batch request.
+     *
+     * @param accessToken The access token to make the batched requests with.
+     * @param batch       The batch, a JSON array of requests.
+     * @return A task that resolves to the JSON array of responses.
+     * @see BatchingGraphClient
+     */
+    /* package */ Task<String> postBatchAsync(final String accessToken, final String batch) {
+        return Task.call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return postBatch(accessToken, batch);
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    private String postBatch(String accessToken, String batch) throws IOException {
+        StringBuilder form = new StringBuilder("include_headers=true&batch=")
+                .append(Request.encode(batch));
+        if (accessToken != null) {
+            form.append("&access_token=").append(Request.encode(accessToken));
+        }
+        byte[] body = form.toString().getBytes("UTF-8");
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int statusCode = connection.getResponseCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new GraphException(statusCode, read(connection.getErrorStream()));
+            }
+            return read(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Response get(Request request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) getUrl(request).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Revalidation is up to the caller, see Request#withETag.
+            connection.setUseCaches(false);
+            if (request.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", request.getETag());
+            }
+
+            int statusCode = connection.getResponseCode();
+            String eTag = connection.getHeaderField("ETag");
+            if (statusCode == Response.HTTP_NOT_MODIFIED) {
+                return new Response(statusCode, null, eTag != null ? eTag : request.getETag());
+            }
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new GraphException(statusCode, read(connection.getErrorStream()));
+            }
+            return new Response(statusCode, read(connection.getInputStream()), eTag);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        return new String(FileUtils.readFully(in), "UTF-8");
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+/**
+ * The error {@link AccessTokenVerifier} fails with when Facebook says an access token isn't valid
+ * for the app, or it belongs to a different user than the auth data says.
+ */
+public class InvalidAccessTokenException extends ParseException {
+
+    /* package */ InvalidAccessTokenException(String message) {
+        super(ParseException.OTHER_CAUSE, "Invalid Facebook access token: " + message);
+    }
+}
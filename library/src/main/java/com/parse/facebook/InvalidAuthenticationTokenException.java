@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+/**
+ * The error logging in or linking with a Facebook authentication token fails with when the token
+ * doesn't pass verification on the client, so it's never sent to Parse.
+ */
+public class InvalidAuthenticationTokenException extends ParseException {
+
+    /* package */ InvalidAuthenticationTokenException(String message) {
+        super(ParseException.OTHER_CAUSE, "Invalid Facebook authentication token: " + message);
+    }
+}
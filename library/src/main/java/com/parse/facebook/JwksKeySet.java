@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * The RSA keys Facebook signs authentication tokens with, fetched from its JWKS endpoint and
+ * cached.
+ * <p>
+ * Cached keys are used for {@code ttlMillis}. After that they're still used, but refreshed in the
+ * background, so verifying a token never waits on the network once the keys have been fetched.
+ * A token signed with a key that isn't cached, e.g. right after Facebook rotates its keys, makes
+ * the keys be fetched again, at most once per {@link #MIN_REFRESH_INTERVAL_MILLIS}.
+ */
+/* package */ class JwksKeySet {
+
+    /* package */ static final String DEFAULT_JWKS_URL =
+            "https://limited.facebook.com/.well-known/oauth/openid/jwks/";
+    /* package */ static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    // Stops tokens with made up key ids from making us fetch the keys over and over.
+    /* package */ static final long MIN_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+    private final String url;
+    private final long ttlMillis;
+
+    private final Object lock = new Object();
+    private Map<String, PublicKey> keys = Collections.emptyMap();
+    private long fetchedAtMillis;
+    // 0 until the first refresh.
+    private long lastRefreshAtMillis;
+    private Task<Void> refreshTask;
+    private long fetchCount;
+
+    JwksKeySet() {
+        this(DEFAULT_JWKS_URL, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param url       The JWKS endpoint.
+     * @param ttlMillis How long fetched keys are used before they're refreshed.
+     */
+    JwksKeySet(String url, long ttlMillis) {
+        this.url = url;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /* package */ long getFetchCount() {
+        synchronized (lock) {
+            return fetchCount;
+        }
+    }
+
+    /**
+     * @param keyId The {@code kid} of the key.
+     * @return A task that resolves to the key, or {@code null} if there's no such key.
+     */
+    Task<PublicKey> getKeyAsync(final String keyId) {
+        PublicKey key;
+        Task<Void> refresh = null;
+        synchronized (lock) {
+            key = keys.get(keyId);
+            long now = currentTimeMillis();
+            if (key != null) {
+                if (now - fetchedAtMillis >= ttlMillis) {
+                    // Serve the cached key, and refresh for next time.
+                    refreshLocked(now);
+                }
+                return Task.forResult(key);
+            }
+            if (refreshTask != null) {
+                refresh = refreshTask;
+            } else if (lastRefreshAtMillis == 0
+                    || now - lastRefreshAtMillis >= MIN_REFRESH_INTERVAL_MILLIS) {
+                refresh = refreshLocked(now);
+            }
+        }
+        if (refresh == null) {
+            return Task.forResult(null);
+        }
+        return refresh.continueWith(new Continuation<Void, PublicKey>() {
+            @Override
+            public PublicKey then(Task<Void> task) throws Exception {
+                if (task.isFaulted()) {
+                    throw task.getError();
+                }
+                synchronized (lock) {
+                    return keys.get(keyId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches the keys in the background unless they're fresh, e.g. to have them ready before
+     * the first token needs to be verified.
+     */
+    Task<Void> refreshInBackground() {
+        synchronized (lock) {
+            long now = currentTimeMillis();
+            if (!keys.isEmpty() && now - fetchedAtMillis < ttlMillis) {
+                return Task.forResult(null);
+            }
+            return refreshLocked(now);
+        }
+    }
+
+    private Task<Void> refreshLocked(long now) {
+        if (refreshTask != null) {
+            return refreshTask;
+        }
+        lastRefreshAtMillis = now;
+        fetchCount++;
+        final Task<Void> task = Task.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Map<String, PublicKey> fetched = parseKeys(fetch());
+                synchronized (lock) {
+                    keys = fetched;
+                    fetchedAtMillis = currentTimeMillis();
+                }
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+        refreshTask = task;
+        task.continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> ignored) throws Exception {
+                synchronized (lock) {
+                    if (refreshTask == task) {
+                        refreshTask = null;
+                    }
+                }
+                return null;
+            }
+        });
+        return task;
+    }
+
+    /* package */ String fetch() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            int statusCode = connection.getResponseCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new IOException("Fetching " + url + " failed with HTTP " + statusCode);
+            }
+            return new String(FileUtils.readFully(connection.getInputStream()), "UTF-8");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the RSA signing keys from a JWKS document, skipping keys of any other kind.
+     */
+    /* package */ static Map<String, PublicKey> parseKeys(String jwks) throws IOException {
+        try {
+            JSONArray array = new JSONObject(jwks).getJSONArray("keys");
+            Map<String, PublicKey> keys = new HashMap<>();
+            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject key = array.getJSONObject(i);
+                if (!"RSA".equals(key.optString("kty"))
+                        || !"sig".equals(key.optString("use", "sig"))) {
+                    continue;
+                }
+                BigInteger modulus = new BigInteger(1, decodeBase64Url(key.getString("n")));
+                BigInteger exponent = new BigInteger(1, decodeBase64Url(key.getString("e")));
+                keys.put(key.getString("kid"),
+                        keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+            }
+            return keys;
+        } catch (JSONException | GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("Malformed JWKS", e);
+        }
+    }
+
+    /* package */ static byte[] decodeBase64Url(String value) {
+        return Base64.decode(value, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+}
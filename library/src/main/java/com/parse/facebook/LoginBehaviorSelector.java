@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.login.LoginBehavior;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Picks the {@link LoginBehavior} to log in with from how logins have gone on this device.
+ * <p>
+ * A behavior is reliable once {@link #MIN_COMPLETED} of its logins have completed and at least
+ * {@link #MIN_SUCCESS_RATE} of them succeeded; logins the user cancels don't count either way.
+ * The fastest reliable behavior is used. Until one is known, the candidates are tried in order of
+ * preference, moving on from each once it proves unreliable. Every
+ * {@link #EXPLORATION_INTERVAL}th login tries a candidate that hasn't been measured enough, so a
+ * faster behavior can still be found.
+ * <p>
+ * The statistics are kept in a file, read in the background on creation and written in the
+ * background as logins complete. Selections made before it's been read go by what's been
+ * recorded since.
+ */
+/* package */ class LoginBehaviorSelector {
+
+    /**
+     * In order of preference: the Facebook app, falling back to the web; Custom Tabs; a WebView.
+     */
+    /* package */ static final List<LoginBehavior> CANDIDATES = Collections.unmodifiableList(
+            Arrays.asList(LoginBehavior.NATIVE_WITH_FALLBACK, LoginBehavior.WEB_ONLY,
+                    LoginBehavior.WEB_VIEW_ONLY));
+    /* package */ static final int MIN_COMPLETED = 3;
+    /* package */ static final double MIN_SUCCESS_RATE = 0.8;
+    /* package */ static final int EXPLORATION_INTERVAL = 10;
+    // How much the latest login moves the average latency.
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private static final int FORMAT_VERSION = 1;
+    // Far more than any real file; guards against reading garbage into memory.
+    private static final int MAX_FILE_LENGTH = 4 * 1024;
+
+    /* package */ enum Outcome {
+        SUCCEEDED, FAILED, CANCELLED, ABANDONED
+    }
+
+    private final File file;
+
+    private final Object lock = new Object();
+    private final Map<LoginBehavior, LoginBehaviorStats> stats =
+            new EnumMap<>(LoginBehavior.class);
+    private LoginBehavior override;
+    private long selectionCount;
+    private final Task<Void> loadTask;
+    // Writes queue behind the load, so they can't replace statistics that haven't been read yet.
+    private Task<Void> writeTask;
+    private boolean writePending;
+
+    /**
+     * @param file Where to keep the statistics, or {@code null} to only keep them in memory.
+     */
+    LoginBehaviorSelector(File file) {
+        this.file = file;
+        if (file != null) {
+            loadTask = Task.call(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    read();
+                    return null;
+                }
+            }, Task.BACKGROUND_EXECUTOR);
+        } else {
+            loadTask = Task.forResult(null);
+        }
+        writeTask = loadTask;
+    }
+
+    /**
+     * @param behavior The behavior to always use, or {@code null} to pick one.
+     */
+    void setOverride(LoginBehavior behavior) {
+        synchronized (lock) {
+            override = behavior;
+        }
+    }
+
+    LoginBehavior getOverride() {
+        synchronized (lock) {
+            return override;
+        }
+    }
+
+    /**
+     * @return The statistics of every behavior that's been logged in with.
+     */
+    Map<LoginBehavior, LoginBehaviorStats> getStats() {
+        synchronized (lock) {
+            return Collections.unmodifiableMap(new EnumMap<>(stats));
+        }
+    }
+
+    /**
+     * @return The behavior to log in with next.
+     */
+    LoginBehavior select() {
+        synchronized (lock) {
+            if (override != null) {
+                return override;
+            }
+            selectionCount++;
+
+            LoginBehavior fastest = null;
+            long fastestLatency = Long.MAX_VALUE;
+            for (LoginBehavior candidate : CANDIDATES) {
+                LoginBehaviorStats candidateStats = stats.get(candidate);
+                if (isReliable(candidateStats)
+                        && candidateStats.getAverageLatencyMillis() < fastestLatency) {
+                    fastest = candidate;
+                    fastestLatency = candidateStats.getAverageLatencyMillis();
+                }
+            }
+
+            if (fastest == null || selectionCount % EXPLORATION_INTERVAL == 0) {
+                for (LoginBehavior candidate : CANDIDATES) {
+                    if (!isMeasured(stats.get(candidate))) {
+                        return candidate;
+                    }
+                }
+            }
+            if (fastest != null) {
+                return fastest;
+            }
+
+            // Every candidate has proven unreliable; use the least bad.
+            LoginBehavior best = CANDIDATES.get(0);
+            for (LoginBehavior candidate : CANDIDATES) {
+                if (stats.get(candidate).getSuccessRate() > stats.get(best).getSuccessRate()) {
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Records how a login went.
+     *
+     * @param behavior      The behavior the login used.
+     * @param outcome       How it ended.
+     * @param elapsedMillis How long it took.
+     */
+    void record(LoginBehavior behavior, Outcome outcome, long elapsedMillis) {
+        synchronized (lock) {
+            LoginBehaviorStats previous = stats.get(behavior);
+            int successes = previous != null ? previous.getSuccessCount() : 0;
+            int failures = previous != null ? previous.getFailureCount() : 0;
+            int cancellations = previous != null ? previous.getCancellationCount() : 0;
+            long latency = previous != null ? previous.getAverageLatencyMillis() : 0;
+            switch (outcome) {
+                case SUCCEEDED:
+                    latency = successes == 0 ? elapsedMillis : Math.round(
+                            LATENCY_WEIGHT * elapsedMillis + (1 - LATENCY_WEIGHT) * latency);
+                    successes++;
+                    break;
+                case CANCELLED:
+                    cancellations++;
+                    break;
+                default:
+                    failures++;
+                    break;
+            }
+            stats.put(behavior,
+                    new LoginBehaviorStats(behavior, successes, failures, cancellations, latency));
+            writeInBackgroundLocked();
+        }
+    }
+
+    /* package */ Task<Void> getLoadTask() {
+        return loadTask;
+    }
+
+    /* package */ Task<Void> getWriteTask() {
+        synchronized (lock) {
+            return writeTask;
+        }
+    }
+
+    private static boolean isMeasured(LoginBehaviorStats stats) {
+        return stats != null && stats.getSuccessCount() + stats.getFailureCount() >= MIN_COMPLETED;
+    }
+
+    private static boolean isReliable(LoginBehaviorStats stats) {
+        return isMeasured(stats) && stats.getSuccessRate() >= MIN_SUCCESS_RATE;
+    }
+
+    //region Persistence
+
+    private void writeInBackgroundLocked() {
+        if (file == null || writePending) {
+            // The queued write hasn't started yet and will pick this up.
+            return;
+        }
+        writePending = true;
+        writeTask = writeTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return Task.call(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        byte[] bytes;
+                        synchronized (lock) {
+                            writePending = false;
+                            bytes = encodeLocked();
+                        }
+                        FileUtils.writeFileAtomically(file, bytes);
+                        return null;
+                    }
+                }, Task.BACKGROUND_EXECUTOR);
+            }
+        });
+    }
+
+    private byte[] encodeLocked() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(stats.size());
+        for (LoginBehaviorStats behaviorStats : stats.values()) {
+            out.writeUTF(behaviorStats.getBehavior().name());
+            out.writeInt(behaviorStats.getSuccessCount());
+            out.writeInt(behaviorStats.getFailureCount());
+            out.writeInt(behaviorStats.getCancellationCount());
+            out.writeLong(behaviorStats.getAverageLatencyMillis());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void read() {
+        long length = file.length();
+        if (length == 0 || length > MAX_FILE_LENGTH) {
+            return;
+        }
+        try {
+            byte[] bytes = FileUtils.readFile(file);
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (data.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            Map<LoginBehavior, LoginBehaviorStats> read = new EnumMap<>(LoginBehavior.class);
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                LoginBehavior behavior = LoginBehavior.valueOf(data.readUTF());
+                read.put(behavior, new LoginBehaviorStats(behavior, data.readInt(),
+                        data.readInt(), data.readInt(), data.readLong()));
+            }
+            synchronized (lock) {
+                // Behaviors recorded while reading keep what was recorded; it only costs them
+                // some measuring again.
+                for (Map.Entry<LoginBehavior, LoginBehaviorStats> entry : read.entrySet()) {
+                    if (!stats.containsKey(entry.getKey())) {
+                        stats.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable statistics only mean measuring again.
+        }
+    }
+
+    //endregion
+}
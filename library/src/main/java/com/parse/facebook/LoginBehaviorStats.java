@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.login.LoginBehavior;
+
+/**
+ * How logins with one {@link LoginBehavior} have gone on this device.
+ *
+ * @see ParseFacebookUtils#getLoginBehaviorStats()
+ */
+public final class LoginBehaviorStats {
+
+    private final LoginBehavior behavior;
+    private final int successes;
+    private final int failures;
+    private final int cancellations;
+    private final long averageLatencyMillis;
+
+    /* package */ LoginBehaviorStats(LoginBehavior behavior, int successes, int failures,
+                                     int cancellations, long averageLatencyMillis) {
+        this.behavior = behavior;
+        this.successes = successes;
+        this.failures = failures;
+        this.cancellations = cancellations;
+        this.averageLatencyMillis = averageLatencyMillis;
+    }
+
+    public LoginBehavior getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * @return The number of logins that completed with an access token.
+     */
+    public int getSuccessCount() {
+        return successes;
+    }
+
+    /**
+     * @return The number of logins that failed, or never reported back and were abandoned.
+     */
+    public int getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return The number of logins the user cancelled.
+     */
+    public int getCancellationCount() {
+        return cancellations;
+    }
+
+    /**
+     * @return The share of logins that succeeded, leaving out those the user cancelled, or
+     * {@code 0} if none have completed.
+     */
+    public double getSuccessRate() {
+        int completed = successes + failures;
+        return completed > 0 ? (double) successes / completed : 0;
+    }
+
+    /**
+     * @return How long successful logins take, weighted towards the most recent, or {@code 0} if
+     * none have succeeded.
+     */
+    public long getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client-side circuit breaker for the Parse requests made by {@link ParseFacebookUtils}.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and requests fail fast
+ * with a {@link LoginThrottledException} instead of reaching the backend. Once
+ * {@code openDurationMillis} has passed a single trial request is let through: if it succeeds the
+ * circuit closes again, otherwise it stays open for another {@code openDurationMillis}.
+ * <p>
+ * Only failures that indicate the backend is unhealthy count; see {@link #isFailure(Exception)}.
+ *
+ * @see ParseFacebookUtils#setCircuitBreaker(LoginCircuitBreaker)
+ */
+public class LoginCircuitBreaker {
+
+    public enum State {
+        /**
+         * Requests go through.
+         */
+        CLOSED,
+        /**
+         * Requests are rejected.
+         */
+        OPEN,
+        /**
+         * A single trial request is allowed through to probe whether the backend has recovered.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Notified whenever the breaker changes state, e.g. to report it to metrics.
+     */
+    public interface Listener {
+        void onStateChanged(LoginCircuitBreaker breaker, State state);
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    private final Object lock = new Object();
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+    private long rejectedCount;
+    private Listener listener;
+
+    /**
+     * @param failureThreshold   The number of consecutive failures that opens the circuit.
+     * @param openDurationMillis How long the circuit stays open before a trial request is allowed.
+     */
+    public LoginCircuitBreaker(int failureThreshold, long openDurationMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("openDurationMillis must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    }
+
+    public void setListener(Listener listener) {
+        synchronized (lock) {
+            this.listener = listener;
+        }
+    }
+
+    public State getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /**
+     * @return The number of consecutive failures counted since the last success.
+     */
+    public int getConsecutiveFailures() {
+        synchronized (lock) {
+            return consecutiveFailures;
+        }
+    }
+
+    /**
+     * @return The total number of requests rejected because the circuit was open.
+     */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * @param error The error a request failed with.
+     * @return {@code true} if the error counts towards opening the circuit. By default that's
+     * connection failures, timeouts and internal server errors; errors such as invalid credentials
+     * mean the backend is responding and don't count.
+     */
+    public boolean isFailure(Exception error) {
+        if (error instanceof ParseException) {
+            int code = ((ParseException) error).getCode();
+            return code == ParseException.CONNECTION_FAILED
+                    || code == ParseException.TIMEOUT
+                    || code == ParseException.INTERNAL_SERVER_ERROR;
+        }
+        return error instanceof IOException;
+    }
+
+    /* package */ long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return {@code true} if a request may be made now. Every request that's allowed must be
+     * followed by exactly one call to {@link #onSuccess()}, {@link #onFailure()} or
+     * {@link #onAbandoned()}.
+     */
+    /* package */ boolean tryAcquire() {
+        Listener listener = null;
+        boolean allowed;
+        synchronized (lock) {
+            switch (state) {
+                case OPEN:
+                    if (nanoTime() - openedAtNanos >= openDurationNanos) {
+                        state = State.HALF_OPEN;
+                        trialInFlight = true;
+                        listener = this.listener;
+                        allowed = true;
+                    } else {
+                        allowed = false;
+                    }
+                    break;
+                case HALF_OPEN:
+                    allowed = !trialInFlight;
+                    trialInFlight = true;
+                    break;
+                default:
+                    allowed = true;
+                    break;
+            }
+            if (!allowed) {
+                rejectedCount++;
+            }
+        }
+        if (listener != null) {
+            listener.onStateChanged(this, State.HALF_OPEN);
+        }
+        return allowed;
+    }
+
+    /* package */ void onSuccess() {
+        Listener listener = null;
+        synchronized (lock) {
+            consecutiveFailures = 0;
+            trialInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                listener = this.listener;
+            }
+        }
+        if (listener != null) {
+            listener.onStateChanged(this, State.CLOSED);
+        }
+    }
+
+    /* package */ void onFailure() {
+        Listener listener = null;
+        synchronized (lock) {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN
+                    || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAtNanos = nanoTime();
+                listener = this.listener;
+            }
+        }
+        if (listener != null) {
+            listener.onStateChanged(this, State.OPEN);
+        }
+    }
+
+    /**
+     * The request finished without telling us anything about the backend, e.g. it was cancelled.
+     */
+    /* package */ void onAbandoned() {
+        synchronized (lock) {
+            trialInFlight = false;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client-side token bucket rate limiter for the Parse requests made by
+ * {@link ParseFacebookUtils}.
+ * <p>
+ * The bucket holds up to {@code capacity} tokens and is refilled at {@code permitsPerSecond}.
+ * Each request takes one token; requests made while the bucket is empty fail fast with a
+ * {@link LoginThrottledException}.
+ *
+ * @see ParseFacebookUtils#setRateLimiter(LoginRateLimiter)
+ */
+public class LoginRateLimiter {
+
+    private final double capacity;
+    private final double permitsPerNano;
+
+    private final Object lock = new Object();
+    private double tokens;
+    private long lastRefillNanos;
+    private long rejectedCount;
+
+    /**
+     * @param capacity         The maximum burst size.
+     * @param permitsPerSecond The sustained request rate.
+     */
+    public LoginRateLimiter(int capacity, double permitsPerSecond) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.capacity = capacity;
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefillNanos = nanoTime();
+    }
+
+    /**
+     * @return The number of requests that can be made right now.
+     */
+    public int getAvailablePermits() {
+        synchronized (lock) {
+            refill();
+            return (int) tokens;
+        }
+    }
+
+    /**
+     * @return The total number of requests rejected because the bucket was empty.
+     */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /* package */ long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /* package */ boolean tryAcquire() {
+        synchronized (lock) {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            rejectedCount++;
+            return false;
+        }
+    }
+
+    private void refill() {
+        long now = nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Controls how {@link ParseFacebookUtils} retries the Parse stage of logging in or linking, i.e.
+ * after the Facebook credentials have been obtained. Retries reuse those credentials, so a
+ * transient backend failure doesn't send the user back through the Facebook login UI.
+ * <p>
+ * Retries are delayed with exponential backoff: the n-th retry waits
+ * {@code min(maxBackoffMillis, initialBackoffMillis * 2^(n-1))}, reduced by a random amount of up
+ * to {@code jitter} of that value so that many clients failing at once don't retry in lockstep.
+ * <p>
+ * By default only connection failures and timeouts are retried. Override
+ * {@link #isRetryable(Exception)} to change that.
+ *
+ * @see ParseFacebookUtils#setLoginRetryPolicy(LoginRetryPolicy)
+ */
+public class LoginRetryPolicy {
+
+    private static final double BACKOFF_MULTIPLIER = 2;
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double jitter;
+    private final Random random;
+
+    /**
+     * @param maxAttempts          The maximum number of attempts, including the first one. Must
+     *                             be at least 1.
+     * @param initialBackoffMillis The delay before the first retry.
+     * @param maxBackoffMillis     The upper bound for the delay before any retry.
+     * @param jitter               The fraction of each delay, between 0 and 1, that's randomized.
+     */
+    public LoginRetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                            double jitter) {
+        this(maxAttempts, initialBackoffMillis, maxBackoffMillis, jitter, new Random());
+    }
+
+    /* package */ LoginRetryPolicy(int maxAttempts, long initialBackoffMillis,
+                                   long maxBackoffMillis, double jitter, Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException(
+                    "Backoff must satisfy 0 <= initialBackoffMillis <= maxBackoffMillis");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    /**
+     * @return The maximum number of attempts, including the first one.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param error The error the last attempt failed with.
+     * @return {@code true} if the error is transient and the attempt should be retried.
+     */
+    public boolean isRetryable(Exception error) {
+        if (error instanceof ParseException) {
+            int code = ((ParseException) error).getCode();
+            return code == ParseException.CONNECTION_FAILED || code == ParseException.TIMEOUT;
+        }
+        return error instanceof IOException;
+    }
+
+    /**
+     * @param retry The 1-based number of the retry about to be made.
+     * @return How long to wait before making it.
+     */
+    /* package */ long getBackoffMillis(int retry) {
+        double backoff = initialBackoffMillis * Math.pow(BACKOFF_MULTIPLIER, retry - 1);
+        backoff = Math.min(backoff, maxBackoffMillis);
+        return (long) (backoff - backoff * jitter * random.nextDouble());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+/**
+ * The error a request made by {@link ParseFacebookUtils} fails with when it's rejected on the
+ * client without reaching Parse, because the {@link LoginCircuitBreaker} is open or the
+ * {@link LoginRateLimiter} is out of permits.
+ */
+public class LoginThrottledException extends ParseException {
+
+    public enum Reason {
+        CIRCUIT_OPEN, RATE_LIMITED
+    }
+
+    private final Reason reason;
+
+    /* package */ LoginThrottledException(Reason reason) {
+        super(ParseException.OTHER_CAUSE, reason == Reason.CIRCUIT_OPEN
+                ? "Request rejected: the login circuit breaker is open"
+                : "Request rejected: the login rate limit was exceeded");
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
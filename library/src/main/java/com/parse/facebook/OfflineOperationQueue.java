@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A file backed queue of log in, link and unlink operations that couldn't reach Parse, along with
+ * the auth data Facebook gave us for them, so they can be replayed in order once we're back
+ * online instead of asking the user to log in to Facebook again.
+ * <p>
+ * Operations are deduplicated: a new operation replaces any pending one with the same
+ * {@link PendingOperation#getKey() key}, so repeated attempts collapse into one request.
+ */
+class OfflineOperationQueue {
+
+    enum OperationType {
+        LOG_IN, LINK, UNLINK
+    }
+
+    static class PendingOperation {
+        private static final String KEY_TYPE = "type";
+        private static final String KEY_USER_OBJECT_ID = "userObjectId";
+        private static final String KEY_AUTH_DATA = "authData";
+
+        private final OperationType type;
+        private final String userObjectId;
+        private final Map<String, String> authData;
+
+        PendingOperation(OperationType type, String userObjectId, Map<String, String> authData) {
+            this.type = type;
+            this.userObjectId = userObjectId;
+            this.authData = authData != null
+                    ? Collections.unmodifiableMap(new HashMap<>(authData))
+                    : null;
+        }
+
+        OperationType getType() {
+            return type;
+        }
+
+        /**
+         * @return The objectId of the user to link or unlink, {@code null} for log in.
+         */
+        String getUserObjectId() {
+            return userObjectId;
+        }
+
+        /**
+         * @return The auth data to log in or link with, {@code null} for unlink.
+         */
+        Map<String, String> getAuthData() {
+            return authData;
+        }
+
+        /**
+         * Operations with the same key supersede each other. Only the last log in matters, and
+         * only the last link or unlink of a given user does.
+         */
+        String getKey() {
+            return type == OperationType.LOG_IN ? "logIn" : "user:" + userObjectId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingOperation)) {
+                return false;
+            }
+            PendingOperation that = (PendingOperation) o;
+            return type == that.type
+                    && (userObjectId != null
+                            ? userObjectId.equals(that.userObjectId) : that.userObjectId == null)
+                    && (authData != null
+                            ? authData.equals(that.authData) : that.authData == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + (userObjectId != null ? userObjectId.hashCode() : 0);
+            result = 31 * result + (authData != null ? authData.hashCode() : 0);
+            return result;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_TYPE, type.name());
+            if (userObjectId != null) {
+                json.put(KEY_USER_OBJECT_ID, userObjectId);
+            }
+            if (authData != null) {
+                json.put(KEY_AUTH_DATA, new JSONObject(authData));
+            }
+            return json;
+        }
+
+        static PendingOperation fromJSON(JSONObject json) throws JSONException {
+            Map<String, String> authData = null;
+            JSONObject authDataJSON = json.optJSONObject(KEY_AUTH_DATA);
+            if (authDataJSON != null) {
+                authData = new HashMap<>();
+                Iterator<String> keys = authDataJSON.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    authData.put(key, authDataJSON.getString(key));
+                }
+            }
+            return new PendingOperation(
+                    OperationType.valueOf(json.getString(KEY_TYPE)),
+                    json.optString(KEY_USER_OBJECT_ID, null),
+                    authData);
+        }
+    }
+
+    /**
+     * Sends a pending operation to Parse.
+     */
+    interface OperationRunner {
+        Task<Void> runAsync(PendingOperation operation);
+    }
+
+    private final File file;
+    private final Object lock = new Object();
+    private List<PendingOperation> operations;
+    private Task<Void> replayTask;
+
+    OfflineOperationQueue(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return {@code true} if {@code error} means Parse couldn't be reached, so the operation
+     * that failed with it is worth queueing.
+     */
+    static boolean isOfflineError(Exception error) {
+        return error instanceof ParseException
+                && ((ParseException) error).getCode() == ParseException.CONNECTION_FAILED;
+    }
+
+    void enqueue(PendingOperation operation) {
+        synchronized (lock) {
+            List<PendingOperation> operations = getOperations();
+            removeByKey(operations, operation.getKey());
+            operations.add(operation);
+            persist();
+        }
+    }
+
+    /**
+     * Drops a pending operation equal to {@code operation}, e.g. once it succeeded outside the
+     * queue. Other pending operations, including ones with the same key, are kept.
+     */
+    void remove(PendingOperation operation) {
+        synchronized (lock) {
+            if (getOperations().remove(operation)) {
+                persist();
+            }
+        }
+    }
+
+    /**
+     * Drops the pending log ins and links. Once the user logs out, the Facebook auth data they
+     * carry is stale and replaying them would log the user in or relink them behind the app's
+     * back.
+     */
+    void removeAuthOperations() {
+        synchronized (lock) {
+            boolean removed = false;
+            Iterator<PendingOperation> iterator = getOperations().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getType() != OperationType.UNLINK) {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+            if (removed) {
+                persist();
+            }
+        }
+    }
+
+    List<PendingOperation> getPendingOperations() {
+        synchronized (lock) {
+            return new ArrayList<>(getOperations());
+        }
+    }
+
+    /**
+     * Replays the pending operations one at a time, in order. An operation that fails because
+     * we're still offline stops the replay, stays queued and fails the returned task; any other
+     * outcome removes it. Calls made while a replay is in progress join it.
+     */
+    Task<Void> replayAsync(OperationRunner runner) {
+        final Task<Void>.TaskCompletionSource tcs;
+        synchronized (lock) {
+            if (replayTask != null) {
+                return replayTask;
+            }
+            tcs = Task.create();
+            replayTask = tcs.getTask();
+        }
+
+        replayNextAsync(runner).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                synchronized (lock) {
+                    replayTask = null;
+                }
+                if (task.isFaulted()) {
+                    tcs.setError(task.getError());
+                } else {
+                    tcs.setResult(null);
+                }
+                return null;
+            }
+        });
+        return tcs.getTask();
+    }
+
+    private Task<Void> replayNextAsync(final OperationRunner runner) {
+        final PendingOperation operation;
+        synchronized (lock) {
+            List<PendingOperation> operations = getOperations();
+            if (operations.isEmpty()) {
+                return Task.forResult(null);
+            }
+            operation = operations.get(0);
+        }
+
+        Task<Void> task;
+        try {
+            task = runner.runAsync(operation);
+        } catch (Exception e) {
+            task = Task.forError(e);
+        }
+        return task.continueWithTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                if (task.isFaulted() && isOfflineError(task.getError())) {
+                    return task;
+                }
+                synchronized (lock) {
+                    // Only drop it if it wasn't superseded while it was running.
+                    List<PendingOperation> operations = getOperations();
+                    if (operations.remove(operation)) {
+                        persist();
+                    }
+                }
+                return replayNextAsync(runner);
+            }
+        });
+    }
+
+    private static void removeByKey(List<PendingOperation> operations, String key) {
+        Iterator<PendingOperation> iterator = operations.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().equals(key)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    //region Persistence
+
+    /**
+     * Must be called while holding {@code lock}.
+     */
+    private List<PendingOperation> getOperations() {
+        if (operations == null) {
+            operations = load();
+        }
+        return operations;
+    }
+
+    private List<PendingOperation> load() {
+        List<PendingOperation> operations = new ArrayList<>();
+        if (!file.exists()) {
+            return operations;
+        }
+        try {
+            JSONArray json = new JSONArray(new String(FileUtils.readFile(file), "UTF-8"));
+            for (int i = 0; i < json.length(); i++) {
+                operations.add(PendingOperation.fromJSON(json.getJSONObject(i)));
+            }
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            // A corrupt queue only costs the user a relogin; don't let it fail every operation.
+            operations.clear();
+        }
+        return operations;
+    }
+
+    /**
+     * Must be called while holding {@code lock}.
+     */
+    private void persist() {
+        try {
+            if (operations.isEmpty()) {
+                // noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            JSONArray json = new JSONArray();
+            for (PendingOperation operation : operations) {
+                json.put(operation.toJSON());
+            }
+            FileUtils.writeFileAtomically(file, json.toString().getBytes("UTF-8"));
+        } catch (IOException | JSONException e) {
+            // The in-memory queue is still intact, it just won't survive a restart.
+        }
+    }
+
+    //endregion
+}
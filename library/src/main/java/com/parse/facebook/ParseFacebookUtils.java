@@ -9,20 +9,39 @@
 package com.parse.facebook;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Build;
 import android.support.v4.app.Fragment;
 
 import com.facebook.AccessToken;
+import com.facebook.login.LoginBehavior;
 import com.parse.AuthenticationCallback;
 import com.parse.LogInCallback;
 import com.parse.ParseException;
 import com.parse.ParseUser;
 import com.parse.SaveCallback;
 
+import org.json.JSONObject;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 import bolts.Continuation;
 import bolts.Task;
@@ -72,12 +91,82 @@ import bolts.Task;
  * Lastly, log in with {@link ParseFacebookUtils#logInWithReadPermissionsInBackground(android.app.Activity, java.util.Collection)}
  */
 public final class ParseFacebookUtils {
+    /**
+     * How long a refreshed access token must stay unchanged before it's saved, by default.
+     *
+     * @see #enableAccessTokenSync()
+     */
+    public static final long DEFAULT_ACCESS_TOKEN_SYNC_DEBOUNCE_MILLIS = 5000;
+
+    /**
+     * How long a login may go without reporting back before it's cancelled, by default.
+     *
+     * @see #setAbandonedLoginTimeout(long)
+     */
+    public static final long DEFAULT_ABANDONED_LOGIN_TIMEOUT_MILLIS =
+            FacebookController.DEFAULT_ABANDONED_LOGIN_TIMEOUT_MILLIS;
+
+    /**
+     * How long a cached profile is served before it's revalidated, by default.
+     *
+     * @see #enableProfileCache(Context)
+     */
+    public static final long DEFAULT_PROFILE_CACHE_TTL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The most users linked or unlinked at once by a bulk operation, by default.
+     *
+     * @see #bulkLinkInBackground(List, File, BulkLinkCallback)
+     */
+    public static final int DEFAULT_BULK_LINK_CONCURRENCY = 4;
+
     private static final String AUTH_TYPE = "facebook";
+    private static final String PREWARM_THREAD_NAME = "ParseFacebookUtils-prewarm";
+    private static final String OFFLINE_QUEUE_FILE_NAME = "com.parse.facebook.pendingOperations";
+    private static final String SHARED_SESSION_FILE_NAME = "com.parse.facebook.sharedSession";
+    private static final String SESSION_SNAPSHOT_FILE_NAME = "com.parse.facebook.sessionSnapshot";
+    private static final String LOGIN_BEHAVIOR_STATS_FILE_NAME =
+            "com.parse.facebook.loginBehaviorStats";
+    private static final String PROFILE_PATH = "me";
+    private static final String PROFILE_FIELDS_PARAMETER = "fields";
+    private static final String PROFILE_CACHE_DIRECTORY_NAME = "com.parse.facebook.profiles";
+    private static final int PROFILE_CACHE_MEMORY_ENTRIES = 16;
+    private static final long PROFILE_CACHE_DISK_BYTES = 1024 * 1024;
+    private static final String PICTURE_DIRECTORY_NAME = "com.parse.facebook.pictures";
+    private static final long PICTURE_DISK_BYTES = 10 * 1024 * 1024;
+    private static final int PICTURE_MAX_MEMORY_BYTES = 8 * 1024 * 1024;
 
     private static final Object lock = new Object();
-    static boolean isInitialized;
-    static FacebookController controller;
+    // Written under lock, but volatile so getSession() can read them without it.
+    static volatile boolean isInitialized;
+    static volatile FacebookController controller;
     static ParseUserDelegate userDelegate = new ParseUserDelegateImpl();
+    static LoginRetryPolicy retryPolicy;
+    static LoginCircuitBreaker circuitBreaker;
+    static LoginRateLimiter rateLimiter;
+    static OfflineOperationQueue offlineQueue;
+    static AccessTokenSync accessTokenSync;
+    static volatile SharedSessionStore sharedSessionStore;
+    static SessionSnapshot sessionSnapshot;
+    static GraphClient graphClient;
+    static ProfileCache profileCache;
+    static FriendUserResolver friendUserResolver;
+    static ProfilePictureLoader pictureLoader;
+    static AuthenticationTokenVerifier authenticationTokenVerifier;
+    static LoginBehaviorSelector loginBehaviorSelector;
+
+    private static final SharedSessionStore.Lease NO_OP_LEASE = new SharedSessionStore.Lease() {
+        @Override
+        public void release() {
+            // do nothing
+        }
+    };
+
+    private static final Object restoreLock = new Object();
+    // The last auth data restored and the token it installed, guarded by restoreLock.
+    static Map<String, String> restoredAuthData;
+    static AccessToken restoredAccessToken;
+    static long skippedRestoreCount;
 
     /**
      * @param user A {@link com.parse.ParseUser} object.
@@ -87,6 +176,41 @@ public final class ParseFacebookUtils {
         return user.isLinked(AUTH_TYPE);
     }
 
+    /**
+     * Returns a snapshot of the current Facebook session. Snapshots are immutable and replaced as a
+     * whole when the token changes, so this can be called from any thread without locking.
+     * <p>
+     * With the shared session store, this is the session last stored by any process, so it's
+     * {@code null} once another process logged out.
+     *
+     * @return The current session, or {@code null} if there's no Facebook access token.
+     */
+    public static FacebookSession getSession() {
+        checkInitialization();
+        SharedSessionStore store = getSharedSessionStore();
+        if (store != null && store.isWritten()) {
+            // Null too, if another process logged out.
+            return store.read();
+        }
+        return getController().getSession();
+    }
+
+    /**
+     * Returns a stream of changes to the Facebook auth state: log in, link, unlink, token refresh
+     * and session restore. The stream never completes.
+     * <p>
+     * Each subscriber first receives the most recent event, if any. Events are conflated per
+     * subscriber, so one that requests slowly only receives the latest state rather than every
+     * intermediate one, except that log outs and unlinks are always delivered. Events are delivered on the thread that caused them and
+     * {@link org.reactivestreams.Subscriber#onNext(Object)} shouldn't block.
+     *
+     * @return A {@link Publisher} of auth events.
+     */
+    public static Publisher<AuthEvent> getAuthEvents() {
+        checkInitialization();
+        return getController().getAuthEvents();
+    }
+
     /**
      * Initializes {@code ParseFacebookUtils} and {@link com.facebook.FacebookSdk}.
      * <p>
@@ -98,6 +222,41 @@ public final class ParseFacebookUtils {
         initialize(context, FacebookController.DEFAULT_AUTH_ACTIVITY_CODE);
     }
 
+    /**
+     * Initializes {@code ParseFacebookUtils} and {@link com.facebook.FacebookSdk}, optionally
+     * pre-warming login.
+     *
+     * @param context The application context
+     * @param prewarm Whether to pre-warm login in the background.
+     * @see #initialize(Context, int, boolean)
+     */
+    public static void initialize(Context context, boolean prewarm) {
+        initialize(context, FacebookController.DEFAULT_AUTH_ACTIVITY_CODE, prewarm);
+    }
+
+    /**
+     * Initializes {@code ParseFacebookUtils} and {@link com.facebook.FacebookSdk}, optionally
+     * pre-warming login.
+     * <p>
+     * Pre-warming loads and constructs the Facebook login machinery and starts the executors
+     * logging in uses, on a low priority background thread, so the first log in doesn't pay for
+     * that on the main thread. Nothing is fetched from the network.
+     *
+     * @param context                   The application context
+     * @param callbackRequestCodeOffset The request code offset that Facebook activities will be
+     *                                  called with. Please do not use the range between the
+     *                                  value you set and another 100 entries after it in your
+     *                                  other requests.
+     * @param prewarm                   Whether to pre-warm login in the background.
+     */
+    public static void initialize(Context context, int callbackRequestCodeOffset,
+                                  boolean prewarm) {
+        initialize(context, callbackRequestCodeOffset);
+        if (prewarm) {
+            prewarmInBackground();
+        }
+    }
+
     /**
      * Initializes {@code ParseFacebookUtils} and {@link com.facebook.FacebookSdk}.
      * <p>
@@ -115,28 +274,123 @@ public final class ParseFacebookUtils {
             userDelegate.registerAuthenticationCallback(AUTH_TYPE, new AuthenticationCallback() {
                 @Override
                 public boolean onRestore(Map<String, String> authData) {
-                    try {
-                        getController().setAuthData(authData);
-                        return true;
-                    } catch (Exception e) {
-                        return false;
-                    }
+                    return restore(authData);
                 }
             });
             isInitialized = true;
         }
     }
 
-    private static void checkInitialization() {
-        synchronized (lock) {
-            if (!isInitialized) {
-                throw new IllegalStateException(
-                        "You must call ParseFacebookUtils.initialize() before using ParseFacebookUtils");
+    /* package */ static Task<Void> prewarmInBackground() {
+        final FacebookController controller = getController();
+        final Task<Void>.TaskCompletionSource tcs = Task.create();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    controller.prewarm();
+                    getGraphClient();
+                    tcs.setResult(null);
+                } catch (RuntimeException e) {
+                    // Pre-warming is best effort; the first login will just do this itself.
+                    tcs.setError(e);
+                }
             }
+        }, PREWARM_THREAD_NAME);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+        return tcs.getTask();
+    }
+
+    /**
+     * Parse restores the current user's auth data whenever the user is loaded, which may happen
+     * many times per process. Restores of the auth data that was already restored are skipped.
+     *
+     * @return The number of restores skipped because they were repeats.
+     */
+    public static long getSkippedRestoreCount() {
+        synchronized (restoreLock) {
+            return skippedRestoreCount;
+        }
+    }
+
+    /**
+     * Sets how long a login may go without the Facebook login UI reporting back, e.g. because the
+     * launching {@code Activity} was destroyed, before it's cancelled. Cancelling releases the
+     * login's callbacks, so nothing they reference, typically the {@code Activity}, is retained.
+     * <p>
+     * A login that does complete after it's been cancelled is dropped, so apps whose users may
+     * take long, e.g. for two-factor authentication or switching to the Facebook app to reset
+     * their password, should raise this or disable it. When disabled, a login that never reports
+     * back is only cancelled once the next one starts.
+     *
+     * @param timeoutMillis The timeout, or {@code 0} to disable it. Defaults to
+     *                      {@link #DEFAULT_ABANDONED_LOGIN_TIMEOUT_MILLIS}.
+     */
+    public static void setAbandonedLoginTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative");
+        }
+        checkInitialization();
+        getController().setAbandonedLoginTimeoutMillis(timeoutMillis);
+    }
+
+    /**
+     * Sets the policy used to retry the Parse stage of logging in or linking when it fails with a
+     * transient error. The Facebook credentials that were already obtained are reused, so the user
+     * isn't asked to log in to Facebook again.
+     *
+     * @param policy The retry policy, or {@code null} to not retry (the default).
+     */
+    public static void setLoginRetryPolicy(LoginRetryPolicy policy) {
+        synchronized (lock) {
+            retryPolicy = policy;
+        }
+    }
+
+    /**
+     * Sets a circuit breaker for the log in, link and unlink requests made to Parse. While it's
+     * open requests fail fast with a {@link LoginThrottledException} instead of reaching Parse.
+     *
+     * @param breaker The circuit breaker, or {@code null} to not use one (the default).
+     */
+    public static void setCircuitBreaker(LoginCircuitBreaker breaker) {
+        synchronized (lock) {
+            circuitBreaker = breaker;
+        }
+    }
+
+    /**
+     * Sets a rate limiter for the log in, link and unlink requests made to Parse. Requests over
+     * the limit fail fast with a {@link LoginThrottledException} instead of reaching Parse.
+     *
+     * @param limiter The rate limiter, or {@code null} to not use one (the default).
+     */
+    public static void setRateLimiter(LoginRateLimiter limiter) {
+        synchronized (lock) {
+            rateLimiter = limiter;
+        }
+    }
+
+    private static LoginRetryPolicy getRetryPolicy() {
+        synchronized (lock) {
+            return retryPolicy;
+        }
+    }
+
+    private static void checkInitialization() {
+        if (!isInitialized) {
+            throw new IllegalStateException(
+                    "You must call ParseFacebookUtils.initialize() before using ParseFacebookUtils");
         }
     }
 
     private static FacebookController getController() {
+        FacebookController current = controller;
+        if (current != null) {
+            return current;
+        }
         synchronized (lock) {
             if (controller == null) {
                 controller = new FacebookController();
@@ -145,6 +399,30 @@ public final class ParseFacebookUtils {
         }
     }
 
+    private static void subscribeToAuthEvents(final AuthEventListener listener) {
+        getController().getAuthEvents().subscribe(new Subscriber<AuthEvent>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(AuthEvent event) {
+                listener.onAuthEvent(event);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // do nothing
+            }
+
+            @Override
+            public void onComplete() {
+                // do nothing
+            }
+        });
+    }
+
     /**
      * The method that should be called from the Activity's or Fragment's onActivityResult method.
      *
@@ -162,6 +440,103 @@ public final class ParseFacebookUtils {
         }
     }
 
+    //region Restore
+
+    /**
+     * Installs the auth data Parse restored for the current user. With the shared session store,
+     * processes take turns restoring under the refresh lease, and the session the first one
+     * restores is stored before the lease is released, so the others find it there and skip
+     * restoring it again. Such processes read the session from the store; the token isn't
+     * installed into their Facebook SDK.
+     */
+    private static boolean restore(Map<String, String> authData) {
+        SharedSessionStore store = getSharedSessionStore();
+        if (store == null || authData == null) {
+            return restoreLocally(authData);
+        }
+        SharedSessionStore.Lease lease;
+        try {
+            lease = store.acquireRefreshLease();
+        } catch (IOException e) {
+            return restoreLocally(authData);
+        }
+        try {
+            if (store.isWritten() && isSessionOf(store.read(), authData)) {
+                // Another process restored it already.
+                synchronized (restoreLock) {
+                    skippedRestoreCount++;
+                }
+                return true;
+            }
+            if (!restoreLocally(authData)) {
+                return false;
+            }
+            try {
+                store.write(getController().getSession());
+            } catch (IOException e) {
+                // The RESTORE event stores it in the background as well.
+            }
+            return true;
+        } finally {
+            lease.release();
+        }
+    }
+
+    private static boolean isSessionOf(FacebookSession session, Map<String, String> authData) {
+        return session != null
+                && session.getToken() != null
+                && session.getToken().equals(authData.get(FacebookController.KEY_ACCESS_TOKEN))
+                && session.getUserId() != null
+                && session.getUserId().equals(authData.get(FacebookController.KEY_USER_ID));
+    }
+
+    /**
+     * Installs the auth data in this process. A repeat of the last restore, i.e. the same auth
+     * data while the token it installed is still current, is skipped without touching the
+     * Facebook SDK. Restores are serialized, so concurrent restores of the same auth data
+     * collapse into one.
+     */
+    private static boolean restoreLocally(Map<String, String> authData) {
+        FacebookController controller = getController();
+        synchronized (restoreLock) {
+            if (authData != null
+                    && restoredAccessToken != null
+                    && restoredAccessToken == controller.getCurrentAccessToken()
+                    && authData.equals(restoredAuthData)) {
+                skippedRestoreCount++;
+                return true;
+            }
+            try {
+                controller.setAuthData(authData);
+            } catch (Exception e) {
+                restoredAuthData = null;
+                restoredAccessToken = null;
+                return false;
+            }
+            if (authData != null) {
+                restoredAuthData = new HashMap<>(authData);
+                restoredAccessToken = controller.getCurrentAccessToken();
+            } else {
+                restoredAuthData = null;
+                restoredAccessToken = null;
+            }
+        }
+
+        if (authData != null) {
+            controller.setSessionLinked(true);
+            setSyncedAuthData(authData);
+            controller.publishAuthEvent(AuthEvent.Type.RESTORE);
+        } else {
+            removePendingAuthOperations();
+            controller.setSessionLinked(false);
+            setSyncedAuthData(null);
+            controller.publishAuthEvent(AuthEvent.Type.LOG_OUT);
+        }
+        return true;
+    }
+
+    //endregion
+
     //region Log In
 
     /**
@@ -173,7 +548,7 @@ public final class ParseFacebookUtils {
      */
     public static Task<ParseUser> logInInBackground(AccessToken accessToken) {
         checkInitialization();
-        return userDelegate.logInWithInBackground(AUTH_TYPE, getController().getAuthData(accessToken));
+        return logInWithAuthDataAsync(getController().getAuthData(accessToken));
     }
 
     /**
@@ -303,11 +678,222 @@ public final class ParseFacebookUtils {
                 activity, fragment, authorizationType, permissions).onSuccessTask(new Continuation<Map<String, String>, Task<ParseUser>>() {
             @Override
             public Task<ParseUser> then(Task<Map<String, String>> task) throws Exception {
-                return userDelegate.logInWithInBackground(AUTH_TYPE, task.getResult());
+                return logInWithAuthDataAsync(task.getResult());
             }
         });
     }
 
+    /**
+     * Log in using Facebook login with the requested read permissions, and fetch the user's
+     * Facebook profile at the same time. The profile request is made as soon as Facebook login
+     * completes, in parallel with logging in to Parse, instead of after it.
+     *
+     * @param activity      The activity which is starting the login process.
+     * @param permissions   The requested permissions.
+     * @param profileFields The comma separated profile fields to fetch, e.g.
+     *                      {@code "id,name,email"}.
+     * @return A task that will be resolved with the user and the profile when logging in is
+     * complete. It only fails if logging in does.
+     * @see #setGraphClient(GraphClient)
+     */
+    public static Task<ProfileResult<ParseUser>> logInWithProfileInBackground(Activity activity,
+            Collection<String> permissions, String profileFields) {
+        return logInWithProfileAsync(activity, null, permissions, profileFields);
+    }
+
+    /**
+     * Log in using Facebook login with the requested read permissions, and fetch the user's
+     * Facebook profile at the same time.
+     *
+     * @param fragment      The fragment which is starting the login process.
+     * @param permissions   The requested permissions.
+     * @param profileFields The comma separated profile fields to fetch.
+     * @return A task that will be resolved with the user and the profile when logging in is
+     * complete.
+     * @see #logInWithProfileInBackground(Activity, Collection, String)
+     */
+    public static Task<ProfileResult<ParseUser>> logInWithProfileInBackground(Fragment fragment,
+            Collection<String> permissions, String profileFields) {
+        return logInWithProfileAsync(null, fragment, permissions, profileFields);
+    }
+
+    private static Task<ProfileResult<ParseUser>> logInWithProfileAsync(Activity activity,
+            Fragment fragment, Collection<String> permissions, final String profileFields) {
+        checkInitialization();
+        if (permissions == null) {
+            permissions = Collections.emptyList();
+        }
+
+        return getController().authenticateAsync(activity, fragment,
+                FacebookController.LoginAuthorizationType.READ, permissions).onSuccessTask(
+                new Continuation<Map<String, String>, Task<ProfileResult<ParseUser>>>() {
+                    @Override
+                    public Task<ProfileResult<ParseUser>> then(Task<Map<String, String>> task)
+                            throws Exception {
+                        Map<String, String> authData = task.getResult();
+                        return withProfileAsync(logInWithAuthDataAsync(authData),
+                                fetchProfileAsync(authData, profileFields));
+                    }
+                });
+    }
+
+    private static Task<ParseUser> logInWithAuthDataAsync(Map<String, String> authData) {
+        return queueIfOfflineAsync(sendLogInAsync(authData), newLogInOperation(authData));
+    }
+
+    private static Task<ParseUser> sendLogInAsync(final Map<String, String> authData) {
+        return onAuthSuccessAsync(retryAsync(new Callable<Task<ParseUser>>() {
+            @Override
+            public Task<ParseUser> call() throws Exception {
+                return userDelegate.logInWithInBackground(AUTH_TYPE, authData);
+            }
+        }), true, AuthEvent.Type.LOG_IN, authData, newLogInOperation(authData));
+    }
+
+    //endregion
+
+    //region Login Behavior
+
+    /**
+     * Picks the {@link LoginBehavior} of each login from how logins have gone on this device,
+     * instead of always using the {@link com.facebook.login.LoginManager}'s. How long each
+     * behavior takes to complete and how often it succeeds is recorded, and the fastest one that
+     * reliably succeeds is used; until one is known, the Facebook app, Custom Tabs and a WebView
+     * are tried in that order. The statistics are kept in a small file.
+     *
+     * @param context The application context
+     * @see #setLoginBehaviorOverride(LoginBehavior)
+     * @see #getLoginBehaviorStats()
+     */
+    public static void enableAdaptiveLoginBehavior(Context context) {
+        checkInitialization();
+        LoginBehaviorSelector selector;
+        synchronized (lock) {
+            if (loginBehaviorSelector != null) {
+                return;
+            }
+            selector = new LoginBehaviorSelector(new File(
+                    context.getApplicationContext().getFilesDir(), LOGIN_BEHAVIOR_STATS_FILE_NAME));
+            loginBehaviorSelector = selector;
+        }
+        getController().setLoginBehaviorSelector(selector);
+    }
+
+    /**
+     * Makes every login use {@code behavior}, while still recording how it goes.
+     *
+     * @param behavior The behavior, or {@code null} to go back to picking one.
+     * @see #enableAdaptiveLoginBehavior(Context)
+     */
+    public static void setLoginBehaviorOverride(LoginBehavior behavior) {
+        LoginBehaviorSelector selector = getLoginBehaviorSelector();
+        if (selector == null) {
+            throw new IllegalStateException(
+                    "You must call ParseFacebookUtils.enableAdaptiveLoginBehavior first");
+        }
+        selector.setOverride(behavior);
+    }
+
+    /**
+     * @return How logins with each behavior that's been used have gone on this device, or an
+     * empty map if adaptive login behavior isn't enabled.
+     * @see #enableAdaptiveLoginBehavior(Context)
+     */
+    public static Map<LoginBehavior, LoginBehaviorStats> getLoginBehaviorStats() {
+        LoginBehaviorSelector selector = getLoginBehaviorSelector();
+        if (selector == null) {
+            return Collections.emptyMap();
+        }
+        return selector.getStats();
+    }
+
+    private static LoginBehaviorSelector getLoginBehaviorSelector() {
+        synchronized (lock) {
+            return loginBehaviorSelector;
+        }
+    }
+
+    //endregion
+
+    //region Authentication Tokens
+
+    /**
+     * Verifies a Facebook authentication token, the OpenID Connect ID token issued by Facebook
+     * Limited Login, on the device: its RS256 signature against Facebook's published keys, and
+     * that it was issued by Facebook to this app, hasn't expired and carries {@code nonce}.
+     * <p>
+     * Facebook's keys are fetched once and cached, and refreshed in the background when they get
+     * old, so verifying a token doesn't need a request of its own.
+     *
+     * @param authenticationToken The encoded token.
+     * @param nonce               The nonce the login was started with, or {@code null} to not
+     *                            check it.
+     * @return A task that will be resolved with the verified token, or fail with an
+     * {@link InvalidAuthenticationTokenException}.
+     */
+    public static Task<FacebookAuthenticationToken> verifyAuthenticationTokenInBackground(
+            String authenticationToken, String nonce) {
+        checkInitialization();
+        return getAuthenticationTokenVerifier().verifyAsync(authenticationToken, nonce);
+    }
+
+    /**
+     * Log in with a Facebook authentication token from Limited Login. The token is verified on the
+     * device first, see {@link #verifyAuthenticationTokenInBackground(String, String)}, and only
+     * sent to Parse if it's valid.
+     *
+     * @param authenticationToken The encoded token.
+     * @param nonce               The nonce the login was started with.
+     * @return A task that will be resolved when logging in is complete.
+     */
+    public static Task<ParseUser> logInWithAuthenticationTokenInBackground(
+            String authenticationToken, String nonce) {
+        return verifyAuthenticationTokenInBackground(authenticationToken, nonce).onSuccessTask(
+                new Continuation<FacebookAuthenticationToken, Task<ParseUser>>() {
+                    @Override
+                    public Task<ParseUser> then(Task<FacebookAuthenticationToken> task)
+                            throws Exception {
+                        return logInWithAuthDataAsync(
+                                getController().getAuthData(task.getResult()));
+                    }
+                });
+    }
+
+    /**
+     * Link an existing Parse user with a Facebook authentication token from Limited Login. The
+     * token is verified on the device first.
+     *
+     * @param user                The Parse user to link with.
+     * @param authenticationToken The encoded token.
+     * @param nonce               The nonce the login was started with.
+     * @return A task that will be resolved when linking is complete.
+     */
+    public static Task<Void> linkWithAuthenticationTokenInBackground(
+            final ParseUser user, String authenticationToken, String nonce) {
+        return verifyAuthenticationTokenInBackground(authenticationToken, nonce).onSuccessTask(
+                new Continuation<FacebookAuthenticationToken, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(Task<FacebookAuthenticationToken> task)
+                            throws Exception {
+                        return linkWithAuthDataAsync(
+                                user, getController().getAuthData(task.getResult()));
+                    }
+                });
+    }
+
+    private static AuthenticationTokenVerifier getAuthenticationTokenVerifier() {
+        synchronized (lock) {
+            if (authenticationTokenVerifier == null) {
+                JwksKeySet keySet = new JwksKeySet();
+                // Have the keys ready by the time the first token comes in.
+                keySet.refreshInBackground();
+                authenticationTokenVerifier = new AuthenticationTokenVerifier(
+                        getController().getApplicationId(), keySet);
+            }
+            return authenticationTokenVerifier;
+        }
+    }
+
     //endregion
 
     //region Link
@@ -322,7 +908,7 @@ public final class ParseFacebookUtils {
      */
     public static Task<Void> linkInBackground(ParseUser user, AccessToken accessToken) {
         checkInitialization();
-        return user.linkWithInBackground(AUTH_TYPE, getController().getAuthData(accessToken));
+        return linkWithAuthDataAsync(user, getController().getAuthData(accessToken));
     }
 
     /**
@@ -462,40 +1048,970 @@ public final class ParseFacebookUtils {
                 activity, fragment, authorizationType, permissions).onSuccessTask(new Continuation<Map<String, String>, Task<Void>>() {
             @Override
             public Task<Void> then(Task<Map<String, String>> task) throws Exception {
-                return user.linkWithInBackground(AUTH_TYPE, task.getResult());
+                return linkWithAuthDataAsync(user, task.getResult());
             }
         });
     }
 
-    //endregion
-
-    //region Unlink
-
     /**
-     * Unlink a user from a Facebook account. This will save the user's data.
+     * Link an existing Parse user to Facebook with the requested read permissions, and fetch the
+     * user's Facebook profile at the same time. The profile request is made as soon as Facebook
+     * login completes, in parallel with linking the Parse user, instead of after it.
      *
-     * @param user The user to unlink.
-     * @return A task that will be resolved when unlinking has completed.
+     * @param user          The user to link to a Facebook account.
+     * @param activity      The activity which is starting the login process.
+     * @param permissions   The requested permissions.
+     * @param profileFields The comma separated profile fields to fetch, e.g.
+     *                      {@code "id,name,email"}.
+     * @return A task that will be resolved with the profile when linking is complete. It only
+     * fails if linking does.
+     * @see #setGraphClient(GraphClient)
      */
-    public static Task<Void> unlinkInBackground(ParseUser user) {
-        checkInitialization();
-        return user.unlinkFromInBackground(AUTH_TYPE);
+    public static Task<ProfileResult<Void>> linkWithProfileInBackground(ParseUser user,
+            Activity activity, Collection<String> permissions, String profileFields) {
+        return linkWithProfileAsync(user, activity, null, permissions, profileFields);
     }
 
     /**
-     * Unlink a user from a Facebook account. This will save the user's data.
+     * Link an existing Parse user to Facebook with the requested read permissions, and fetch the
+     * user's Facebook profile at the same time.
      *
-     * @param user     The user to unlink.
-     * @param callback A callback that will be executed when unlinking is complete.
-     * @return A task that will be resolved when linking is complete.
+     * @param user          The user to link to a Facebook account.
+     * @param fragment      The fragment which is starting the login process.
+     * @param permissions   The requested permissions.
+     * @param profileFields The comma separated profile fields to fetch.
+     * @return A task that will be resolved with the profile when linking is complete.
+     * @see #linkWithProfileInBackground(ParseUser, Activity, Collection, String)
      */
-    public static Task<Void> unlinkInBackground(ParseUser user, SaveCallback callback) {
-        return callbackOnMainThreadAsync(unlinkInBackground(user), callback, false);
+    public static Task<ProfileResult<Void>> linkWithProfileInBackground(ParseUser user,
+            Fragment fragment, Collection<String> permissions, String profileFields) {
+        return linkWithProfileAsync(user, null, fragment, permissions, profileFields);
     }
 
-    //endregion
+    private static Task<ProfileResult<Void>> linkWithProfileAsync(final ParseUser user,
+            Activity activity, Fragment fragment, Collection<String> permissions,
+            final String profileFields) {
+        checkInitialization();
+        if (permissions == null) {
+            permissions = Collections.emptyList();
+        }
 
-    //region TaskUtils
+        return getController().authenticateAsync(activity, fragment,
+                FacebookController.LoginAuthorizationType.READ, permissions).onSuccessTask(
+                new Continuation<Map<String, String>, Task<ProfileResult<Void>>>() {
+                    @Override
+                    public Task<ProfileResult<Void>> then(Task<Map<String, String>> task)
+                            throws Exception {
+                        Map<String, String> authData = task.getResult();
+                        return withProfileAsync(linkWithAuthDataAsync(user, authData),
+                                fetchProfileAsync(authData, profileFields));
+                    }
+                });
+    }
+
+    private static Task<Void> linkWithAuthDataAsync(ParseUser user, Map<String, String> authData) {
+        return queueIfOfflineAsync(sendLinkAsync(user, authData), newUserOperation(
+                OfflineOperationQueue.OperationType.LINK, user, authData));
+    }
+
+    private static Task<Void> sendLinkAsync(
+            final ParseUser user, final Map<String, String> authData) {
+        return onAuthSuccessAsync(retryAsync(new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() throws Exception {
+                return user.linkWithInBackground(AUTH_TYPE, authData);
+            }
+        }), true, AuthEvent.Type.LINK, authData, newUserOperation(
+                OfflineOperationQueue.OperationType.LINK, user, authData));
+    }
+
+    //endregion
+
+    //region Unlink
+
+    /**
+     * Unlink a user from a Facebook account. This will save the user's data.
+     *
+     * @param user The user to unlink.
+     * @return A task that will be resolved when unlinking has completed.
+     */
+    public static Task<Void> unlinkInBackground(ParseUser user) {
+        checkInitialization();
+        return queueIfOfflineAsync(sendUnlinkAsync(user), newUserOperation(
+                OfflineOperationQueue.OperationType.UNLINK, user, null));
+    }
+
+    private static Task<Void> sendUnlinkAsync(final ParseUser user) {
+        return onAuthSuccessAsync(guardedAsync(new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() throws Exception {
+                return user.unlinkFromInBackground(AUTH_TYPE);
+            }
+        }), false, AuthEvent.Type.UNLINK, null, newUserOperation(
+                OfflineOperationQueue.OperationType.UNLINK, user, null));
+    }
+
+    /**
+     * Unlink a user from a Facebook account. This will save the user's data.
+     *
+     * @param user     The user to unlink.
+     * @param callback A callback that will be executed when unlinking is complete.
+     * @return A task that will be resolved when linking is complete.
+     */
+    public static Task<Void> unlinkInBackground(ParseUser user, SaveCallback callback) {
+        return callbackOnMainThreadAsync(unlinkInBackground(user), callback, false);
+    }
+
+    //endregion
+
+    //region Bulk Link
+
+    /**
+     * Links or unlinks many users, e.g. for an account migration, with at most
+     * {@link #DEFAULT_BULK_LINK_CONCURRENCY} in flight.
+     *
+     * @see #bulkLinkInBackground(List, int, File, BulkLinkCallback)
+     */
+    public static Task<List<BulkLinkResult>> bulkLinkInBackground(
+            List<BulkLinkItem> items, File checkpointFile, BulkLinkCallback callback) {
+        return bulkLinkInBackground(items, DEFAULT_BULK_LINK_CONCURRENCY, checkpointFile, callback);
+    }
+
+    /**
+     * Links or unlinks many users, e.g. for an account migration, with at most
+     * {@code maxConcurrency} in flight instead of all at once.
+     * <p>
+     * Each user is saved on its own; Parse's batch endpoint can't be used for this, as auth data
+     * can only be changed through {@link ParseUser#linkWithInBackground(String, Map)} and
+     * {@link ParseUser#unlinkFromInBackground(String)}. Unlike {@link #linkInBackground}, items
+     * aren't retried, throttled, queued while offline or reported as {@link AuthEvent}s.
+     * <p>
+     * Parse only lets a client save a user that's authenticated, i.e. the one it's logged in as.
+     * Items for any other user fail with {@link ParseException#SESSION_MISSING} without a
+     * request being made, so migrating other users' accounts has to be done where the master key
+     * is available, e.g. in Cloud Code.
+     * <p>
+     * An item that fails is reported and the rest go on. If Parse can't be reached the run stops
+     * and fails with that error; running the same items with the same {@code checkpointFile}
+     * again resumes from where it stopped.
+     *
+     * @param items          The users to link or unlink.
+     * @param maxConcurrency The most items to run at once.
+     * @param checkpointFile Where to keep track of progress, or {@code null} to not be able to
+     *                       resume.
+     * @param callback       Notified as each item completes, or {@code null}.
+     * @return A task that resolves to the result of each item run, in order.
+     */
+    public static Task<List<BulkLinkResult>> bulkLinkInBackground(
+            List<BulkLinkItem> items, int maxConcurrency, File checkpointFile,
+            BulkLinkCallback callback) {
+        checkInitialization();
+        return new BulkLinker(items, maxConcurrency, checkpointFile, new BulkLinker.Operation() {
+            @Override
+            public Task<Void> runAsync(BulkLinkItem item) {
+                if (!item.getUser().isAuthenticated()) {
+                    // ParseUser would reject the save anyway; don't make the request.
+                    return Task.forError(new ParseException(ParseException.SESSION_MISSING,
+                            "Cannot link or unlink a ParseUser that is not authenticated"));
+                }
+                if (item.isUnlink()) {
+                    return item.getUser().unlinkFromInBackground(AUTH_TYPE);
+                }
+                return item.getUser().linkWithInBackground(AUTH_TYPE, item.getAuthData());
+            }
+        }, callback).runAsync();
+    }
+
+    //endregion
+
+    //region Offline Queue
+
+    /**
+     * Enables queueing of log in, link and unlink operations that fail because Parse can't be
+     * reached. Queued operations keep the auth data that was obtained from Facebook and are
+     * replayed in order once connectivity returns, so the user doesn't have to log in to Facebook
+     * again. The queue is persisted and survives app restarts; repeated attempts of the same
+     * operation are collapsed into one.
+     * <p>
+     * The task of an operation that gets queued still fails with the original error.
+     *
+     * @param context The application context
+     */
+    public static void enableOfflineQueue(Context context) {
+        Context applicationContext = context.getApplicationContext();
+        synchronized (lock) {
+            if (offlineQueue != null) {
+                return;
+            }
+            offlineQueue = new OfflineOperationQueue(
+                    new File(applicationContext.getFilesDir(), OFFLINE_QUEUE_FILE_NAME));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            ConnectivityManager connectivityManager = (ConnectivityManager)
+                    applicationContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            connectivityManager.registerDefaultNetworkCallback(
+                    new ConnectivityManager.NetworkCallback() {
+                        @Override
+                        public void onAvailable(Network network) {
+                            onConnectivityRestored();
+                        }
+                    });
+        } else {
+            registerConnectivityReceiver(applicationContext);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void registerConnectivityReceiver(Context context) {
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                    onConnectivityRestored();
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    private static void onConnectivityRestored() {
+        // Both the broadcast, which is sticky, and the callback, which is called right away when
+        // there's a network, can come before initialize().
+        synchronized (lock) {
+            if (!isInitialized) {
+                return;
+            }
+        }
+        replayPendingOperationsInBackground();
+    }
+
+    /**
+     * Replays the operations queued while offline. This happens automatically when connectivity
+     * returns; call this to replay at another time, e.g. on app start.
+     *
+     * @return A task that will be resolved when all queued operations have been replayed, or
+     * fails if Parse is still unreachable.
+     * @see #enableOfflineQueue(Context)
+     */
+    public static Task<Void> replayPendingOperationsInBackground() {
+        checkInitialization();
+        OfflineOperationQueue queue = getOfflineQueue();
+        if (queue == null) {
+            return Task.forResult(null);
+        }
+        return queue.replayAsync(new OfflineOperationQueue.OperationRunner() {
+            @Override
+            public Task<Void> runAsync(OfflineOperationQueue.PendingOperation operation) {
+                if (operation.getType() == OfflineOperationQueue.OperationType.LOG_IN) {
+                    // Don't replace a user that logged in since.
+                    if (userDelegate.getCurrentUser() != null) {
+                        return Task.forResult(null);
+                    }
+                    return sendLogInAsync(operation.getAuthData()).makeVoid();
+                }
+
+                // Only replay a link or unlink for the user it was made for.
+                ParseUser user = userDelegate.getCurrentUser();
+                if (user == null || !operation.getUserObjectId().equals(user.getObjectId())) {
+                    return Task.forResult(null);
+                }
+                if (operation.getType() == OfflineOperationQueue.OperationType.LINK) {
+                    return sendLinkAsync(user, operation.getAuthData());
+                }
+                return sendUnlinkAsync(user);
+            }
+        });
+    }
+
+    private static OfflineOperationQueue getOfflineQueue() {
+        synchronized (lock) {
+            return offlineQueue;
+        }
+    }
+
+    /**
+     * Drops {@code operation} from the offline queue, once it succeeded. Later operations queued
+     * meanwhile, e.g. a log in with newer auth data, stay queued.
+     */
+    private static void removePendingOperation(OfflineOperationQueue.PendingOperation operation) {
+        OfflineOperationQueue queue = getOfflineQueue();
+        if (queue != null && operation != null) {
+            queue.remove(operation);
+        }
+    }
+
+    private static void removePendingAuthOperations() {
+        OfflineOperationQueue queue = getOfflineQueue();
+        if (queue != null) {
+            queue.removeAuthOperations();
+        }
+    }
+
+    private static OfflineOperationQueue.PendingOperation newLogInOperation(
+            Map<String, String> authData) {
+        return new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.LOG_IN, null, authData);
+    }
+
+    private static OfflineOperationQueue.PendingOperation newUserOperation(
+            OfflineOperationQueue.OperationType type, ParseUser user, Map<String, String> authData) {
+        String objectId = user.getObjectId();
+        if (objectId == null) {
+            // An unsaved user can't be found again after a restart.
+            return null;
+        }
+        return new OfflineOperationQueue.PendingOperation(type, objectId, authData);
+    }
+
+    /**
+     * Adds {@code operation} to the offline queue if {@code task} fails because Parse couldn't be
+     * reached.
+     */
+    private static <T> Task<T> queueIfOfflineAsync(
+            Task<T> task, final OfflineOperationQueue.PendingOperation operation) {
+        final OfflineOperationQueue queue = getOfflineQueue();
+        if (queue == null || operation == null) {
+            return task;
+        }
+        return task.continueWithTask(new Continuation<T, Task<T>>() {
+            @Override
+            public Task<T> then(Task<T> task) throws Exception {
+                if (task.isFaulted() && OfflineOperationQueue.isOfflineError(task.getError())) {
+                    queue.enqueue(operation);
+                }
+                return task;
+            }
+        });
+    }
+
+    //endregion
+
+    //region Session
+
+    /**
+     * Once {@code task} succeeds, drops {@code operation} from the offline queue, records in the
+     * current {@link FacebookSession} whether the user is linked, records the auth data Parse now
+     * has and emits an {@link AuthEvent} of the given type.
+     */
+    private static <T> Task<T> onAuthSuccessAsync(Task<T> task, final boolean linked,
+            final AuthEvent.Type type, final Map<String, String> authData,
+            final OfflineOperationQueue.PendingOperation operation) {
+        return task.continueWithTask(new Continuation<T, Task<T>>() {
+            @Override
+            public Task<T> then(Task<T> task) throws Exception {
+                if (!task.isFaulted() && !task.isCancelled()) {
+                    removePendingOperation(operation);
+                    getController().setSessionLinked(linked);
+                    setSyncedAuthData(authData);
+                    getController().publishAuthEvent(type);
+                }
+                return task;
+            }
+        });
+    }
+
+    //endregion
+
+    //region Access Token Sync
+
+    /**
+     * Keeps the current user's Facebook auth data up to date when the Facebook SDK refreshes the
+     * access token on its own, e.g. on app start. Refreshes within
+     * {@link #DEFAULT_ACCESS_TOKEN_SYNC_DEBOUNCE_MILLIS} of each other result in one save.
+     *
+     * @see #enableAccessTokenSync(long)
+     */
+    public static void enableAccessTokenSync() {
+        enableAccessTokenSync(DEFAULT_ACCESS_TOKEN_SYNC_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Keeps the current user's Facebook auth data up to date when the Facebook SDK refreshes the
+     * access token on its own, e.g. on app start. Without this the auth data stored in Parse goes
+     * stale until the next explicit log in or link.
+     * <p>
+     * Only users already linked to Facebook are updated, and only with a token of the Facebook
+     * account they were restored or logged in with. Refreshes are debounced, so a burst of
+     * them results in one save of the latest token, and a token Parse already has isn't saved
+     * again.
+     *
+     * @param debounceMillis How long the token must stay unchanged before it's saved.
+     */
+    public static void enableAccessTokenSync(long debounceMillis) {
+        checkInitialization();
+        AccessTokenSync sync;
+        synchronized (lock) {
+            if (accessTokenSync != null) {
+                return;
+            }
+            sync = new AccessTokenSync(getController(), debounceMillis,
+                    new AccessTokenSync.Writer() {
+                        @Override
+                        public Task<Void> writeAsync(final Map<String, String> authData) {
+                            final ParseUser user = userDelegate.getCurrentUser();
+                            if (user == null || !isLinked(user)) {
+                                return Task.forResult(null);
+                            }
+                            final SharedSessionStore.Lease lease;
+                            try {
+                                lease = acquireRefreshLease();
+                            } catch (IOException e) {
+                                return Task.forError(e);
+                            }
+                            if (lease == null) {
+                                // Another process is saving the refreshed token.
+                                return Task.forResult(null);
+                            }
+                            return retryAsync(new Callable<Task<Void>>() {
+                                @Override
+                                public Task<Void> call() throws Exception {
+                                    return user.linkWithInBackground(AUTH_TYPE, authData);
+                                }
+                            }).continueWithTask(new Continuation<Void, Task<Void>>() {
+                                @Override
+                                public Task<Void> then(Task<Void> task) throws Exception {
+                                    lease.release();
+                                    return task;
+                                }
+                            });
+                        }
+                    });
+            accessTokenSync = sync;
+        }
+        synchronized (restoreLock) {
+            sync.setSyncedAuthData(restoredAuthData);
+        }
+        sync.start();
+    }
+
+    /**
+     * Stops keeping the current user's Facebook auth data up to date.
+     *
+     * @see #enableAccessTokenSync(long)
+     */
+    public static void disableAccessTokenSync() {
+        AccessTokenSync sync;
+        synchronized (lock) {
+            sync = accessTokenSync;
+            accessTokenSync = null;
+        }
+        if (sync != null) {
+            sync.stop();
+        }
+    }
+
+    /**
+     * @return The refresh lease, a no-op one if there's no shared session store, or {@code null}
+     * if another process holds it.
+     */
+    private static SharedSessionStore.Lease acquireRefreshLease() throws IOException {
+        SharedSessionStore store = getSharedSessionStore();
+        if (store == null) {
+            return NO_OP_LEASE;
+        }
+        return store.tryAcquireRefreshLease();
+    }
+
+    private static void setSyncedAuthData(Map<String, String> authData) {
+        AccessTokenSync sync;
+        synchronized (lock) {
+            sync = accessTokenSync;
+        }
+        if (sync != null) {
+            sync.setSyncedAuthData(authData);
+        }
+    }
+
+    //endregion
+
+    //region Graph
+
+    /**
+     * Sets the client used to make Graph API requests, e.g. to fetch profiles while logging in.
+     * Defaults to an {@link HttpGraphClient} for the public Graph API, wrapped in a
+     * {@link SingleFlightGraphClient} so identical requests made at the same time, e.g. for
+     * {@code me} by different parts of the app, share one request.
+     *
+     * @param client The client, or {@code null} to use the default.
+     */
+    public static void setGraphClient(GraphClient client) {
+        synchronized (lock) {
+            graphClient = client;
+        }
+    }
+
+    private static GraphClient getGraphClient() {
+        synchronized (lock) {
+            if (graphClient == null) {
+                graphClient = new SingleFlightGraphClient(new HttpGraphClient());
+            }
+            return graphClient;
+        }
+    }
+
+    /**
+     * Makes a Graph API GET request with the current Facebook session's access token.
+     * <p>
+     * Requests go through the client set with {@link #setGraphClient(GraphClient)}, so with a
+     * {@link BatchingGraphClient} the requests made right after logging in, e.g. by each part of
+     * the first screen, are sent in a single batch.
+     *
+     * @param path       The path relative to the Graph API version, e.g. {@code "me/friends"}.
+     * @param parameters The query parameters, or {@code null}.
+     * @return A task that will be resolved with the response, or fail if there's no Facebook
+     * session or the Graph API returned an error.
+     */
+    public static Task<GraphClient.Response> getGraphInBackground(
+            String path, Map<String, String> parameters) {
+        checkInitialization();
+        FacebookSession session = getSession();
+        if (session == null) {
+            return Task.forError(new IllegalStateException("There is no Facebook session"));
+        }
+        return getGraphClient().getAsync(
+                new GraphClient.Request(path, parameters, session.getToken()));
+    }
+
+    /**
+     * Streams the current user's friends who also use the app, which requires the
+     * {@code user_friends} permission.
+     * <p>
+     * Nothing is fetched until a subscriber requests friends. Pages of {@code pageSize} friends are
+     * then fetched as the subscriber consumes them, each one while the previous one is still being
+     * delivered, so memory use stays bounded however many friends there are. Each subscriber pages
+     * through the list on its own.
+     *
+     * @param pageSize The number of friends to fetch per request.
+     * @return A publisher of friends, which fails if there's no Facebook session.
+     */
+    public static Publisher<FacebookFriend> getFriends(int pageSize) {
+        checkInitialization();
+        FacebookSession session = getSession();
+        return new FriendsPublisher(
+                getGraphClient(), session != null ? session.getToken() : null, pageSize);
+    }
+
+    /**
+     * Finds the users linked to the given Facebook user ids, e.g. the ids of the friends from
+     * {@link #getFriends(int)}.
+     * <p>
+     * The ids are queried on {@code authData.facebook.id} in parallel chunks. Which user each id
+     * resolved to, including ids no user is linked to, is remembered for an hour, so only new
+     * ids are queried again. Users remembered that way are returned unfetched.
+     * <p>
+     * Parse Server strips {@code authData} from other users unless the request uses the master
+     * key, which an app mustn't ship. When a chunk finds users it can't match that way, its ids
+     * are queried again in halves until each of those users was found by a single id, so they're
+     * still returned, at the cost of a few more queries per user the first time.
+     *
+     * @param facebookIds The Facebook user ids.
+     * @return A task that will be resolved with the linked users, by Facebook user id. Ids no
+     * user is linked to are left out.
+     */
+    public static Task<Map<String, ParseUser>> findUsersInBackground(
+            Collection<String> facebookIds) {
+        checkInitialization();
+        return getFriendUserResolver().resolveAsync(facebookIds);
+    }
+
+    private static FriendUserResolver getFriendUserResolver() {
+        final FriendUserResolver resolver;
+        synchronized (lock) {
+            if (friendUserResolver != null) {
+                return friendUserResolver;
+            }
+            resolver = new FriendUserResolver();
+            friendUserResolver = resolver;
+        }
+        subscribeToAuthEvents(new AuthEventListener() {
+            @Override
+            public void onAuthEvent(AuthEvent event) {
+                if (event.getType() == AuthEvent.Type.LOG_OUT) {
+                    resolver.clear();
+                }
+            }
+        });
+        return resolver;
+    }
+
+    /**
+     * Fetches the current user's Facebook profile. When the profile cache is enabled, a profile
+     * that was fetched recently, including before the app was restarted, is served from it.
+     *
+     * @param profileFields The comma separated profile fields to fetch, e.g.
+     *                      {@code "id,name,email"}.
+     * @return A task that will be resolved with the profile, or fail if there's no Facebook
+     * session.
+     * @see #enableProfileCache(Context)
+     */
+    public static Task<JSONObject> getProfileInBackground(String profileFields) {
+        checkInitialization();
+        FacebookSession session = getSession();
+        if (session == null) {
+            return Task.forError(new IllegalStateException("There is no Facebook session"));
+        }
+        return fetchProfileAsync(session.getUserId(), session.getToken(), profileFields);
+    }
+
+    private static Task<JSONObject> fetchProfileAsync(
+            Map<String, String> authData, String profileFields) {
+        return fetchProfileAsync(authData.get(FacebookController.KEY_USER_ID),
+                authData.get(FacebookController.KEY_ACCESS_TOKEN), profileFields);
+    }
+
+    private static Task<JSONObject> fetchProfileAsync(
+            String userId, String accessToken, String profileFields) {
+        GraphClient.Request request = new GraphClient.Request(
+                PROFILE_PATH,
+                Collections.singletonMap(PROFILE_FIELDS_PARAMETER, profileFields),
+                accessToken);
+        ProfileCache cache = getProfileCache();
+        if (cache == null || userId == null) {
+            return getGraphClient().getAsync(request).onSuccess(
+                    new Continuation<GraphClient.Response, JSONObject>() {
+                        @Override
+                        public JSONObject then(Task<GraphClient.Response> task) throws Exception {
+                            return task.getResult().getJSONObject();
+                        }
+                    });
+        }
+        return cache.getAsync(getGraphClient(), userId, request).onSuccess(
+                new Continuation<String, JSONObject>() {
+                    @Override
+                    public JSONObject then(Task<String> task) throws Exception {
+                        return new JSONObject(task.getResult());
+                    }
+                });
+    }
+
+    /**
+     * Combines the result of logging in or linking with the profile fetched alongside it. Only the
+     * former can fail the returned task.
+     */
+    private static <T> Task<ProfileResult<T>> withProfileAsync(
+            final Task<T> authTask, final Task<JSONObject> profileTask) {
+        return Task.whenAll(Arrays.asList(authTask, profileTask)).continueWithTask(
+                new Continuation<Void, Task<ProfileResult<T>>>() {
+                    @Override
+                    public Task<ProfileResult<T>> then(Task<Void> task) throws Exception {
+                        if (authTask.isCancelled()) {
+                            return Task.cancelled();
+                        }
+                        if (authTask.isFaulted()) {
+                            return Task.forError(authTask.getError());
+                        }
+                        Exception profileError = profileTask.isCancelled()
+                                ? new CancellationException()
+                                : profileTask.getError();
+                        return Task.forResult(new ProfileResult<>(
+                                authTask.getResult(), profileTask.getResult(), profileError));
+                    }
+                });
+    }
+
+    //endregion
+
+    //region Profile Pictures
+
+    /**
+     * Loads the Facebook profile picture of a user, e.g. the current user, with the id in their
+     * auth data, or a friend from {@link #getFriends(int)}, sized for the view it's shown in.
+     * <p>
+     * Only a picture close to the view's size is downloaded, and it's decoded at the smallest
+     * size that still covers the view. Downloaded pictures are kept on disk and decoded ones in
+     * memory, so showing the same picture again, e.g. while scrolling a feed, is cheap. Pictures
+     * are downloaded again once they're a day old, so changed pictures show up.
+     *
+     * @param context    The application context
+     * @param facebookId The Facebook user id.
+     * @param width      The width of the view the picture is shown in, in pixels.
+     * @param height     The height of the view the picture is shown in, in pixels.
+     * @return A task that will be resolved with the picture. It's resolved in the background, so
+     * continue on the UI thread to show it.
+     */
+    public static Task<Bitmap> loadProfilePictureInBackground(
+            Context context, String facebookId, int width, int height) {
+        checkInitialization();
+        FacebookSession session = getSession();
+        return getPictureLoader(context).loadAsync(
+                facebookId, session != null ? session.getToken() : null, width, height);
+    }
+
+    private static ProfilePictureLoader getPictureLoader(Context context) {
+        final ProfilePictureLoader loader;
+        synchronized (lock) {
+            if (pictureLoader != null) {
+                return pictureLoader;
+            }
+            int maxMemoryBytes = (int) Math.min(
+                    Runtime.getRuntime().maxMemory() / 8, PICTURE_MAX_MEMORY_BYTES);
+            loader = new ProfilePictureLoader(
+                    new File(context.getApplicationContext().getCacheDir(),
+                            PICTURE_DIRECTORY_NAME),
+                    maxMemoryBytes, PICTURE_DISK_BYTES, ProfilePictureLoader.DEFAULT_MAX_AGE_MILLIS,
+                    HttpGraphClient.DEFAULT_BASE_URL);
+            pictureLoader = loader;
+        }
+        subscribeToAuthEvents(new AuthEventListener() {
+            @Override
+            public void onAuthEvent(AuthEvent event) {
+                if (event.getType() == AuthEvent.Type.LOG_OUT) {
+                    Task.call(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            loader.clear();
+                            return null;
+                        }
+                    }, Task.BACKGROUND_EXECUTOR);
+                }
+            }
+        });
+        return loader;
+    }
+
+    //endregion
+
+    //region Profile Cache
+
+    /**
+     * Caches fetched Facebook profiles in memory and on disk, keyed by Facebook user id, using
+     * {@link #DEFAULT_PROFILE_CACHE_TTL_MILLIS}.
+     *
+     * @param context The application context
+     * @see #enableProfileCache(Context, long)
+     */
+    public static void enableProfileCache(Context context) {
+        enableProfileCache(context, DEFAULT_PROFILE_CACHE_TTL_MILLIS);
+    }
+
+    /**
+     * Caches fetched Facebook profiles in memory and on disk, keyed by Facebook user id, so
+     * repeated reads, including ones after the app is restarted, don't refetch them.
+     * <p>
+     * A cached profile is served as is for {@code ttlMillis}. After that it's revalidated with
+     * its ETag, which only transfers the profile again if it changed. Cached profiles are removed
+     * when the user unlinks Facebook or logs out.
+     *
+     * @param context   The application context
+     * @param ttlMillis How long a cached profile is served before it's revalidated.
+     */
+    public static void enableProfileCache(Context context, long ttlMillis) {
+        checkInitialization();
+        final ProfileCache cache;
+        synchronized (lock) {
+            if (profileCache != null) {
+                return;
+            }
+            cache = new ProfileCache(
+                    new File(context.getApplicationContext().getCacheDir(),
+                            PROFILE_CACHE_DIRECTORY_NAME),
+                    PROFILE_CACHE_MEMORY_ENTRIES, PROFILE_CACHE_DISK_BYTES, ttlMillis);
+            profileCache = cache;
+        }
+        subscribeToAuthEvents(new AuthEventListener() {
+            @Override
+            public void onAuthEvent(final AuthEvent event) {
+                if (event.getType() != AuthEvent.Type.UNLINK
+                        && event.getType() != AuthEvent.Type.LOG_OUT) {
+                    return;
+                }
+                Task.call(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        FacebookSession session = event.getSession();
+                        if (session != null && session.getUserId() != null) {
+                            cache.remove(session.getUserId());
+                        } else {
+                            cache.clear();
+                        }
+                        return null;
+                    }
+                }, Task.BACKGROUND_EXECUTOR);
+            }
+        });
+    }
+
+    private static ProfileCache getProfileCache() {
+        synchronized (lock) {
+            return profileCache;
+        }
+    }
+
+    //endregion
+
+    //region Session Snapshot
+
+    /**
+     * Keeps a compact copy of the Facebook session on disk and installs it right away, so the
+     * access token is ready on cold start before Parse has loaded the current user and restored
+     * its auth data. Later restores of the same auth data are then cheap no-ops.
+     * <p>
+     * The snapshot is a single small file read on the calling thread; it's updated in the
+     * background whenever the session changes and deleted on log out. Call this right after
+     * {@link #initialize(Context)}.
+     *
+     * @param context The application context
+     */
+    public static void enableSessionSnapshot(Context context) {
+        checkInitialization();
+        final SessionSnapshot snapshot;
+        synchronized (lock) {
+            if (sessionSnapshot != null) {
+                return;
+            }
+            snapshot = new SessionSnapshot(new File(
+                    context.getApplicationContext().getFilesDir(), SESSION_SNAPSHOT_FILE_NAME));
+            sessionSnapshot = snapshot;
+        }
+
+        FacebookSession session = snapshot.read();
+        if (session != null && !session.isExpired()) {
+            getController().installSession(session);
+        }
+
+        subscribeToAuthEvents(new AuthEventListener() {
+            @Override
+            public void onAuthEvent(AuthEvent event) {
+                snapshot.writeInBackground(event.getSession());
+            }
+        });
+    }
+
+    //endregion
+
+    //region Shared Session Store
+
+    /**
+     * Shares the Facebook session between all processes of the app through a memory-mapped file.
+     * Every process then reads the latest session from {@link #getSession()}, including sessions
+     * another process logged in, linked, refreshed or restored, without restoring it on its own.
+     * Work that only one process needs to do, such as restoring the current user's session or
+     * saving tokens refreshed by the Facebook SDK (see {@link #enableAccessTokenSync()}), is done
+     * by one process at a time.
+     * <p>
+     * Call this in every process, after {@link #initialize(Context)}.
+     *
+     * @param context The application context
+     * @return {@code false} if the shared file couldn't be opened, in which case each process
+     * keeps using its own session.
+     */
+    public static boolean enableSharedSessionStore(Context context) {
+        checkInitialization();
+        final SharedSessionStore store;
+        synchronized (lock) {
+            if (sharedSessionStore != null) {
+                return true;
+            }
+            try {
+                store = new SharedSessionStore(new File(
+                        context.getApplicationContext().getFilesDir(), SHARED_SESSION_FILE_NAME));
+            } catch (IOException e) {
+                return false;
+            }
+            sharedSessionStore = store;
+        }
+        subscribeToAuthEvents(new AuthEventListener() {
+            @Override
+            public void onAuthEvent(AuthEvent event) {
+                // If this fails, other processes keep seeing the previous session until the next
+                // change.
+                store.writeInBackground(event.getSession());
+            }
+        });
+        return true;
+    }
+
+    private static SharedSessionStore getSharedSessionStore() {
+        return sharedSessionStore;
+    }
+
+    //endregion
+
+    //region TaskUtils
+
+    /**
+     * Runs {@code attempt}, running it again according to the current {@link LoginRetryPolicy}
+     * for as long as it fails with a retryable error.
+     */
+    private static <T> Task<T> retryAsync(Callable<Task<T>> attempt) {
+        LoginRetryPolicy policy = getRetryPolicy();
+        if (policy == null) {
+            return guardedAsync(attempt);
+        }
+        return retryAsync(attempt, policy, 1);
+    }
+
+    private static <T> Task<T> retryAsync(
+            final Callable<Task<T>> attempt, final LoginRetryPolicy policy, final int attemptNumber) {
+        return guardedAsync(attempt).continueWithTask(new Continuation<T, Task<T>>() {
+            @Override
+            public Task<T> then(Task<T> task) throws Exception {
+                Exception error = task.getError();
+                if (error == null
+                        || attemptNumber >= policy.getMaxAttempts()
+                        || !policy.isRetryable(error)) {
+                    return task;
+                }
+                return Task.delay(policy.getBackoffMillis(attemptNumber)).continueWithTask(
+                        new Continuation<Void, Task<T>>() {
+                            @Override
+                            public Task<T> then(Task<Void> task) throws Exception {
+                                return retryAsync(attempt, policy, attemptNumber + 1);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Runs {@code request} unless the current {@link LoginCircuitBreaker} or
+     * {@link LoginRateLimiter} rejects it, in which case it fails with a
+     * {@link LoginThrottledException}.
+     */
+    private static <T> Task<T> guardedAsync(Callable<Task<T>> request) {
+        final LoginCircuitBreaker breaker;
+        LoginRateLimiter limiter;
+        synchronized (lock) {
+            breaker = circuitBreaker;
+            limiter = rateLimiter;
+        }
+
+        if (breaker != null && !breaker.tryAcquire()) {
+            return Task.forError(
+                    new LoginThrottledException(LoginThrottledException.Reason.CIRCUIT_OPEN));
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (breaker != null) {
+                breaker.onAbandoned();
+            }
+            return Task.forError(
+                    new LoginThrottledException(LoginThrottledException.Reason.RATE_LIMITED));
+        }
+        if (breaker == null) {
+            return callAsync(request);
+        }
+
+        return callAsync(request).continueWithTask(new Continuation<T, Task<T>>() {
+            @Override
+            public Task<T> then(Task<T> task) throws Exception {
+                if (task.isCancelled()) {
+                    breaker.onAbandoned();
+                } else if (task.isFaulted() && breaker.isFailure(task.getError())) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+                return task;
+            }
+        });
+    }
+
+    private static <T> Task<T> callAsync(Callable<Task<T>> callable) {
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            return Task.forError(e);
+        }
+    }
 
     /**
      * Calls the callback after a task completes on the main thread, returning a Task that completes
@@ -570,10 +2086,19 @@ public final class ParseFacebookUtils {
         // do nothing
     }
 
+    /**
+     * Receives every {@link AuthEvent}, for features that react to changes of the session.
+     */
+    private interface AuthEventListener {
+        void onAuthEvent(AuthEvent event);
+    }
+
     interface ParseUserDelegate {
         void registerAuthenticationCallback(String authType, AuthenticationCallback callback);
 
         Task<ParseUser> logInWithInBackground(String authType, Map<String, String> authData);
+
+        ParseUser getCurrentUser();
     }
 
     private static class ParseUserDelegateImpl implements ParseUserDelegate {
@@ -586,5 +2111,10 @@ public final class ParseFacebookUtils {
         public Task<ParseUser> logInWithInBackground(String authType, Map<String, String> authData) {
             return ParseUser.logInWithInBackground(authType, authData);
         }
+
+        @Override
+        public ParseUser getCurrentUser() {
+            return ParseUser.getCurrentUser();
+        }
     }
 }
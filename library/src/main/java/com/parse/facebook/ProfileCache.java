@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Caches Graph API profile responses per Facebook user id, in a small in-memory LRU backed by a
+ * size-bounded directory on disk, so profiles read again after a restart are served locally.
+ * <p>
+ * Responses younger than {@code ttlMillis} are served without a request. Older ones are
+ * revalidated with their ETag, so an unchanged profile only costs a 304 with no body. If the
+ * Graph API can't be reached at all, the stale response is served instead of failing.
+ */
+/* package */ class ProfileCache {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_SUFFIX = ".profile";
+    // Enough to keep file names short while making collisions practically impossible.
+    private static final int HASH_HEX_LENGTH = 16;
+
+    /* package */ static final class Entry {
+        private final String key;
+        private final String body;
+        private final String eTag;
+        private final long fetchedAtMillis;
+
+        Entry(String key, String body, String eTag, long fetchedAtMillis) {
+            this.key = key;
+            this.body = body;
+            this.eTag = eTag;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+    }
+
+    private final File directory;
+    private final long maxDiskBytes;
+    private final long ttlMillis;
+    private final Map<String, Entry> memory;
+
+    /**
+     * @param directory        The directory to keep responses in. It's only used by this cache.
+     * @param maxMemoryEntries The number of responses to keep in memory.
+     * @param maxDiskBytes     The total size of the responses to keep on disk.
+     * @param ttlMillis        How long a response is served without revalidating it.
+     */
+    ProfileCache(File directory, final int maxMemoryEntries, long maxDiskBytes, long ttlMillis) {
+        if (maxMemoryEntries < 1) {
+            throw new IllegalArgumentException("maxMemoryEntries must be at least 1");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttlMillis = ttlMillis;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the response body for {@code request}, from the cache if it's fresh, otherwise from
+     * {@code client}.
+     *
+     * @param client  The client to fetch or revalidate the response with.
+     * @param userId  The Facebook user id the request is made for.
+     * @param request The request.
+     * @return A task that resolves to the response body.
+     */
+    Task<String> getAsync(final GraphClient client, final String userId,
+                          final GraphClient.Request request) {
+        final String key = userId + '\n' + request.getRelativeUrl();
+        return Task.call(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                return get(userId, key);
+            }
+        }, Task.BACKGROUND_EXECUTOR).onSuccessTask(new Continuation<Entry, Task<String>>() {
+            @Override
+            public Task<String> then(Task<Entry> task) throws Exception {
+                final Entry cached = task.getResult();
+                if (cached != null && isFresh(cached)) {
+                    return Task.forResult(cached.body);
+                }
+                GraphClient.Request revalidation = cached != null && cached.eTag != null
+                        ? request.withETag(cached.eTag)
+                        : request;
+                return client.getAsync(revalidation).continueWith(
+                        new Continuation<GraphClient.Response, String>() {
+                            @Override
+                            public String then(Task<GraphClient.Response> task) throws Exception {
+                                return onResponse(userId, key, cached, task);
+                            }
+                        }, Task.BACKGROUND_EXECUTOR);
+            }
+        });
+    }
+
+    private String onResponse(String userId, String key, Entry cached,
+                              Task<GraphClient.Response> task) throws Exception {
+        if (task.isCancelled()) {
+            throw new CancellationException();
+        }
+        if (task.isFaulted()) {
+            Exception error = task.getError();
+            // An error from the Graph API itself, e.g. a revoked token, must not be hidden.
+            if (cached != null && !(error instanceof GraphClient.GraphException)) {
+                return cached.body;
+            }
+            throw error;
+        }
+        GraphClient.Response response = task.getResult();
+        long now = currentTimeMillis();
+        if (response.isNotModified() && cached != null) {
+            String eTag = response.getETag() != null ? response.getETag() : cached.eTag;
+            put(userId, new Entry(key, cached.body, eTag, now));
+            return cached.body;
+        }
+        put(userId, new Entry(key, response.getBody(), response.getETag(), now));
+        return response.getBody();
+    }
+
+    /* package */ boolean isFresh(Entry entry) {
+        long age = currentTimeMillis() - entry.fetchedAtMillis;
+        return age >= 0 && age < ttlMillis;
+    }
+
+    /* package */ Entry get(String userId, String key) {
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        File file = fileFor(userId, key);
+        Entry entry = read(file);
+        if (entry == null || !key.equals(entry.key)) {
+            return null;
+        }
+        // Keeps recently read responses from being trimmed first.
+        // noinspection ResultOfMethodCallIgnored
+        file.setLastModified(currentTimeMillis());
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        return entry;
+    }
+
+    /* package */ void put(String userId, Entry entry) {
+        synchronized (memory) {
+            memory.put(entry.key, entry);
+        }
+        try {
+            write(fileFor(userId, entry.key), entry);
+            trimToSize();
+        } catch (IOException e) {
+            // The response is still cached in memory.
+        }
+    }
+
+    /**
+     * Removes every response cached for {@code userId}.
+     */
+    void remove(String userId) {
+        String prefix = userId + '\n';
+        synchronized (memory) {
+            Iterator<String> keys = memory.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+        final String filePrefix = hash(userId) + '-';
+        File[] files = listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(filePrefix)) {
+                // noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        for (File file : listFiles()) {
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private synchronized void trimToSize() {
+        FileUtils.trimToSize(listFiles(), maxDiskBytes);
+    }
+
+    private File[] listFiles() {
+        return FileUtils.listFiles(directory, FILE_SUFFIX);
+    }
+
+    private File fileFor(String userId, String key) {
+        return new File(directory, hash(userId) + '-' + hash(key) + FILE_SUFFIX);
+    }
+
+    private static Entry read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readByte() != FORMAT_VERSION) {
+                    return null;
+                }
+                String key = in.readUTF();
+                long fetchedAtMillis = in.readLong();
+                String eTag = in.readBoolean() ? in.readUTF() : null;
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                return new Entry(key, new String(body, "UTF-8"), eTag, fetchedAtMillis);
+            } finally {
+                in.close();
+            }
+        } catch (IOException | NegativeArraySizeException e) {
+            // A corrupt response is refetched.
+            return null;
+        }
+    }
+
+    private static void write(File file, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(entry.key);
+        out.writeLong(entry.fetchedAtMillis);
+        out.writeBoolean(entry.eTag != null);
+        if (entry.eTag != null) {
+            out.writeUTF(entry.eTag);
+        }
+        byte[] body = entry.body.getBytes("UTF-8");
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+        FileUtils.writeFileAtomically(file, bytes.toByteArray());
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(HASH_HEX_LENGTH);
+            for (int i = 0; i < HASH_HEX_LENGTH / 2; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16))
+                        .append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
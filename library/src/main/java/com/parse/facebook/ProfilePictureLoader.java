@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Loads Facebook profile pictures sized for the view they're shown in.
+ * <p>
+ * The requested size is rounded up to one of a few {@link #SIZE_BUCKETS}, and only that size is
+ * downloaded from the Graph API, so pictures for similarly sized views share a download. The
+ * downloaded image is kept on disk, and decoded with the largest power of two sample size that
+ * still covers the view, so a small avatar never decodes a large image at full size. Decoded
+ * bitmaps are kept in a memory LRU sized in bytes.
+ * <p>
+ * Pictures older than {@code maxAgeMillis} are downloaded again, so a user's new picture shows
+ * up eventually. Until the new one is downloaded, e.g. while offline, the old one is served.
+ * <p>
+ * Concurrent loads of the same picture at the same size share one load.
+ */
+/* package */ class ProfilePictureLoader {
+
+    /* package */ static final int[] SIZE_BUCKETS = {50, 100, 200, 400, 800, 1600};
+    /* package */ static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String FILE_SUFFIX = ".picture";
+    private static final byte FORMAT_VERSION = 1;
+    // The version and the download time precede the image.
+    private static final int HEADER_LENGTH = 1 + 8;
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+    private final File directory;
+    private final long maxDiskBytes;
+    private final long maxAgeMillis;
+    private final String baseUrl;
+    private final LruCache<String, Picture> memory;
+
+    private final Object lock = new Object();
+    private final Map<String, Task<Bitmap>> inFlight = new HashMap<>();
+
+    /**
+     * @param directory      The directory to keep downloaded pictures in. It's only used by this
+     *                       loader.
+     * @param maxMemoryBytes The total size of the decoded bitmaps to keep in memory.
+     * @param maxDiskBytes   The total size of the downloaded pictures to keep on disk.
+     * @param maxAgeMillis   How long a downloaded picture is used before it's downloaded again.
+     * @param baseUrl        The Graph API endpoint, including the version.
+     */
+    ProfilePictureLoader(File directory, int maxMemoryBytes, long maxDiskBytes,
+                         long maxAgeMillis, String baseUrl) {
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis must not be negative");
+        }
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.memory = new LruCache<String, Picture>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Picture picture) {
+                return picture.bitmap.getRowBytes() * picture.bitmap.getHeight();
+            }
+        };
+    }
+
+    private static final class Picture {
+        final Bitmap bitmap;
+        final long downloadedAtMillis;
+
+        Picture(Bitmap bitmap, long downloadedAtMillis) {
+            this.bitmap = bitmap;
+            this.downloadedAtMillis = downloadedAtMillis;
+        }
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @param facebookId  The Facebook user id whose picture to load.
+     * @param accessToken The access token to download the picture with.
+     * @param width       The width of the view the picture is shown in, in pixels.
+     * @param height      The height of the view the picture is shown in, in pixels.
+     * @return A task that resolves to a bitmap at least as large as the view, unless the picture
+     * itself is smaller.
+     */
+    Task<Bitmap> loadAsync(final String facebookId, final String accessToken,
+                           final int width, final int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("width and height must be at least 1");
+        }
+        final int bucket = bucketFor(Math.max(width, height));
+        final String key = facebookId + '_' + bucket + '_' + width + 'x' + height;
+        Picture cached = memory.get(key);
+        if (cached != null && !isExpired(cached.downloadedAtMillis)) {
+            return Task.forResult(cached.bitmap);
+        }
+
+        final Task<Bitmap> task;
+        synchronized (lock) {
+            Task<Bitmap> loading = inFlight.get(key);
+            // A completed load may not have been removed yet; it may be expired by now.
+            if (loading != null && !loading.isCompleted()) {
+                return loading;
+            }
+            task = Task.call(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    Picture picture = load(facebookId, accessToken, bucket, width, height);
+                    memory.put(key, picture);
+                    return picture.bitmap;
+                }
+            }, Task.BACKGROUND_EXECUTOR);
+            inFlight.put(key, task);
+        }
+        task.continueWith(new Continuation<Bitmap, Void>() {
+            @Override
+            public Void then(Task<Bitmap> ignored) throws Exception {
+                synchronized (lock) {
+                    // Unless a newer load replaced it.
+                    if (inFlight.get(key) == task) {
+                        inFlight.remove(key);
+                    }
+                }
+                return null;
+            }
+        });
+        return task;
+    }
+
+    private Picture load(String facebookId, String accessToken, int bucket, int width,
+                         int height) throws IOException {
+        File file = new File(directory, fileName(facebookId, bucket));
+        byte[] stored = read(file);
+        long downloadedAtMillis = stored != null ? ByteBuffer.wrap(stored, 1, 8).getLong() : 0;
+        byte[] bytes;
+        if (stored != null && !isExpired(downloadedAtMillis)) {
+            bytes = Arrays.copyOfRange(stored, HEADER_LENGTH, stored.length);
+            // Keeps recently shown pictures from being trimmed first.
+            // noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            try {
+                bytes = download(getUrl(facebookId, accessToken, bucket));
+                downloadedAtMillis = currentTimeMillis();
+                write(file, downloadedAtMillis, bytes);
+                trimToSize();
+            } catch (IOException e) {
+                if (stored == null) {
+                    throw e;
+                }
+                // Better an old picture than none; it's downloaded again next time.
+                bytes = Arrays.copyOfRange(stored, HEADER_LENGTH, stored.length);
+            }
+        }
+        Bitmap bitmap = decode(bytes, width, height);
+        if (bitmap == null) {
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw new IOException("Unable to decode the profile picture of " + facebookId);
+        }
+        return new Picture(bitmap, downloadedAtMillis);
+    }
+
+    private boolean isExpired(long downloadedAtMillis) {
+        long age = currentTimeMillis() - downloadedAtMillis;
+        return age < 0 || age >= maxAgeMillis;
+    }
+
+    /**
+     * Forgets every picture, e.g. once the current user logs out.
+     */
+    void clear() {
+        memory.evictAll();
+        for (File file : listFiles()) {
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /* package */ static int bucketFor(int size) {
+        for (int bucket : SIZE_BUCKETS) {
+            if (size <= bucket) {
+                return bucket;
+            }
+        }
+        return SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+    }
+
+    /**
+     * @return The largest power of two that keeps a {@code imageWidth} x {@code imageHeight}
+     * image at least {@code width} x {@code height} once decoded.
+     */
+    /* package */ static int calculateInSampleSize(
+            int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= width
+                && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /* package */ Bitmap decode(byte[] bytes, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(
+                options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    /* package */ URL getUrl(String facebookId, String accessToken, int bucket)
+            throws IOException {
+        StringBuilder url = new StringBuilder(baseUrl)
+                .append('/').append(GraphClient.Request.encode(facebookId))
+                .append("/picture?width=").append(bucket)
+                .append("&height=").append(bucket);
+        if (accessToken != null) {
+            url.append("&access_token=").append(GraphClient.Request.encode(accessToken));
+        }
+        return new URL(url.toString());
+    }
+
+    /* package */ byte[] download(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // The Graph API redirects to the CDN that serves the image.
+            connection.setInstanceFollowRedirects(true);
+            int statusCode = connection.getResponseCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new GraphClient.GraphException(statusCode, null);
+            }
+            return FileUtils.readFully(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String fileName(String facebookId, int bucket) {
+        return GraphClient.Request.encode(facebookId) + '_' + bucket + FILE_SUFFIX;
+    }
+
+    /**
+     * @return The stored picture, header included, or {@code null} if there's none.
+     */
+    private static byte[] read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = FileUtils.readFile(file);
+            if (bytes.length < HEADER_LENGTH || bytes[0] != FORMAT_VERSION) {
+                return null;
+            }
+            return bytes;
+        } catch (IOException e) {
+            // A picture that can't be read is downloaded again.
+            return null;
+        }
+    }
+
+    private static void write(File file, long downloadedAtMillis, byte[] bytes) {
+        try {
+            FileUtils.writeFileAtomically(file, ByteBuffer.allocate(HEADER_LENGTH + bytes.length)
+                    .put(FORMAT_VERSION)
+                    .putLong(downloadedAtMillis)
+                    .put(bytes)
+                    .array());
+        } catch (IOException e) {
+            // The picture is downloaded again next time.
+        }
+    }
+
+    private synchronized void trimToSize() {
+        FileUtils.trimToSize(listFiles(), maxDiskBytes);
+    }
+
+    private File[] listFiles() {
+        return FileUtils.listFiles(directory, FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONObject;
+
+/**
+ * The result of logging in or linking together with the Facebook profile that was fetched
+ * alongside it.
+ *
+ * @param <T> The type of the log in or link result.
+ */
+public final class ProfileResult<T> {
+    private final T result;
+    private final JSONObject profile;
+    private final Exception profileError;
+
+    /* package */ ProfileResult(T result, JSONObject profile, Exception profileError) {
+        this.result = result;
+        this.profile = profile;
+        this.profileError = profileError;
+    }
+
+    /**
+     * @return The result of logging in or linking, e.g. the {@link com.parse.ParseUser}.
+     */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+     * @return The profile, or {@code null} if it couldn't be fetched.
+     */
+    public JSONObject getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return Why the profile couldn't be fetched, or {@code null} if it was. Logging in or linking
+     * doesn't fail because of it.
+     */
+    public Exception getProfileError() {
+        return profileError;
+    }
+}
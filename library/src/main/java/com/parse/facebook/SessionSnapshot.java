@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * The last Facebook session, kept on disk in {@link FacebookSessionCodec} format followed by a
+ * CRC32, so it can be read with one small read on cold start, before Parse has loaded the current
+ * user and restored its auth data.
+ * <p>
+ * Writes happen in the background, one at a time, and only the latest session is written: a
+ * write that's still queued when a newer session arrives is skipped.
+ */
+/* package */ class SessionSnapshot {
+
+    private static final int CHECKSUM_LENGTH = 4;
+    // Far more than any real session; guards against reading garbage into memory.
+    private static final int MAX_FILE_LENGTH = 16 * 1024;
+
+    private final File file;
+    private final Object lock = new Object();
+    private Task<Void> writeTask = Task.forResult(null);
+    private FacebookSession pendingSession;
+    private boolean pending;
+
+    SessionSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The last session written, or {@code null} if there's none or it can't be read.
+     */
+    FacebookSession read() {
+        long length = file.length();
+        if (length < CHECKSUM_LENGTH || length > MAX_FILE_LENGTH) {
+            return null;
+        }
+        try {
+            byte[] bytes = FileUtils.readFile(file);
+            if (bytes.length < CHECKSUM_LENGTH) {
+                return null;
+            }
+
+            int payloadLength = bytes.length - CHECKSUM_LENGTH;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, payloadLength);
+            if ((int) crc.getValue() != readInt(bytes, payloadLength)) {
+                return null;
+            }
+            return FacebookSessionCodec.decode(bytes, payloadLength);
+        } catch (IOException e) {
+            // A missing or corrupt snapshot only means restoring the slow way.
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot in the background.
+     *
+     * @param session The session, or {@code null} to delete the snapshot.
+     * @return A task that completes once the session, or a newer one, is written.
+     */
+    Task<Void> writeInBackground(FacebookSession session) {
+        synchronized (lock) {
+            pendingSession = session;
+            if (pending) {
+                // The queued write hasn't started yet and will pick this session up.
+                return writeTask;
+            }
+            pending = true;
+            writeTask = writeTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+                @Override
+                public Task<Void> then(Task<Void> task) throws Exception {
+                    return Task.call(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            FacebookSession session;
+                            synchronized (lock) {
+                                session = pendingSession;
+                                pendingSession = null;
+                                pending = false;
+                            }
+                            write(session);
+                            return null;
+                        }
+                    }, Task.BACKGROUND_EXECUTOR);
+                }
+            });
+            return writeTask;
+        }
+    }
+
+    private void write(FacebookSession session) throws IOException {
+        if (session == null) {
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return;
+        }
+        byte[] payload = FacebookSessionCodec.encode(session);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        byte[] bytes = Arrays.copyOf(payload, payload.length + CHECKSUM_LENGTH);
+        writeInt(bytes, payload.length, (int) crc.getValue());
+        FileUtils.writeFileAtomically(file, bytes);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+                | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8)
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A {@link FacebookSession} shared by all processes of the app through a memory-mapped file, so
+ * each process can read the current session without restoring and validating it on its own.
+ * <p>
+ * The file starts with a sequence number that writers make odd before changing the payload and
+ * even again afterwards. Readers copy the payload and retry if the sequence number changed or was
+ * odd meanwhile, so reads never block on the file lock. Unchanged sessions are served from memory
+ * after a single read of the sequence number. Writers exclude each other with a file lock.
+ * <p>
+ * Mapped memory comes with no ordering guarantees between processes, so the payload is also
+ * validated when decoded, and readers that keep seeing it change fall back to reading under the
+ * file lock.
+ * <p>
+ * A session this process handed to {@link #writeInBackground(FacebookSession)} is read back until
+ * the write lands, so the process sees its own changes right away.
+ * <p>
+ * Separately, the store hands out a refresh lease, so work that only one process needs to do,
+ * such as restoring the session or saving a refreshed token to Parse, is done by whichever
+ * process gets the lease.
+ */
+/* package */ class SharedSessionStore {
+
+    /**
+     * Exclusive permission to do refresh work on behalf of all processes.
+     */
+    interface Lease {
+        void release();
+    }
+
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int PAYLOAD_OFFSET = 12;
+    /* package */ static final int REGION_SIZE = 16 * 1024;
+    private static final int MAX_PAYLOAD_LENGTH = REGION_SIZE - PAYLOAD_OFFSET;
+
+    // Locks are taken on bytes past the mapped region, so they never cover data readers touch.
+    private static final long WRITE_LOCK_POSITION = REGION_SIZE;
+    private static final long LEASE_LOCK_POSITION = REGION_SIZE + 1;
+
+    private static final int MAX_OPTIMISTIC_READS = 8;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // File locks are held per process, so threads of this process also need to exclude each other.
+    private final Object writeLock = new Object();
+    private final Object leaseLock = new Object();
+    private FileLock lease;
+
+    private volatile CachedRead cached;
+
+    private static final class CachedRead {
+        final long sequence;
+        final FacebookSession session;
+
+        CachedRead(long sequence, FacebookSession session) {
+            this.sequence = sequence;
+            this.session = session;
+        }
+    }
+
+    private final Object writeTaskLock = new Object();
+    private Task<Void> writeTask = Task.forResult(null);
+    private boolean writePending;
+    private FacebookSession pendingSession;
+    // The latest session passed to writeInBackground until it's stored, so reads don't go back
+    // to the previous one meanwhile.
+    private final AtomicReference<LocalWrite> unwritten = new AtomicReference<>();
+
+    private static final class LocalWrite {
+        final FacebookSession session;
+
+        LocalWrite(FacebookSession session) {
+            this.session = session;
+        }
+    }
+
+    SharedSessionStore(File path) throws IOException {
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        FileLock lock = channel.lock(WRITE_LOCK_POSITION, 1, false);
+        try {
+            if (file.length() < REGION_SIZE) {
+                // Zero filled, i.e. sequence 0 and no session.
+                file.setLength(REGION_SIZE);
+            }
+        } finally {
+            lock.release();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+    }
+
+    /**
+     * @return A number that changes whenever the stored session does.
+     */
+    long getSequence() {
+        return buffer.getLong(SEQUENCE_OFFSET);
+    }
+
+    /**
+     * @return {@code true} if a session, or the lack of one, was ever stored, i.e. {@link #read()}
+     * is authoritative.
+     */
+    boolean isWritten() {
+        return unwritten.get() != null || getSequence() != 0;
+    }
+
+    /**
+     * @return The session last written by any process, or {@code null} if there's none.
+     */
+    FacebookSession read() {
+        LocalWrite local = unwritten.get();
+        if (local != null) {
+            return local.session;
+        }
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+            long before = buffer.getLong(SEQUENCE_OFFSET);
+            if ((before & 1) != 0) {
+                // A write is in progress.
+                Thread.yield();
+                continue;
+            }
+            CachedRead read = cached;
+            if (read != null && before == read.sequence) {
+                return read.session;
+            }
+
+            byte[] payload = copyPayload();
+            if (buffer.getLong(SEQUENCE_OFFSET) != before) {
+                continue;
+            }
+            try {
+                FacebookSession session = FacebookSessionCodec.decode(payload);
+                cache(before, session);
+                return session;
+            } catch (IOException e) {
+                // Torn read that slipped past the sequence check; try again.
+            }
+        }
+        return readLocked();
+    }
+
+    /**
+     * Replaces the stored session.
+     *
+     * @param session The session, or {@code null} to clear it.
+     * @return {@code false} if the session was too large to store.
+     */
+    boolean write(FacebookSession session) throws IOException {
+        byte[] payload = FacebookSessionCodec.encode(session);
+        if (payload.length > MAX_PAYLOAD_LENGTH) {
+            return false;
+        }
+        synchronized (writeLock) {
+            FileLock lock = channel.lock(WRITE_LOCK_POSITION, 1, false);
+            try {
+                long sequence = buffer.getLong(SEQUENCE_OFFSET);
+                if ((sequence & 1) != 0) {
+                    // A writer died mid-write; we hold the lock, so it's safe to take over.
+                    sequence++;
+                }
+                buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+                buffer.putInt(LENGTH_OFFSET, payload.length);
+                ByteBuffer target = buffer.duplicate();
+                target.position(PAYLOAD_OFFSET);
+                target.put(payload);
+                buffer.putLong(SEQUENCE_OFFSET, sequence + 2);
+                cache(sequence + 2, session);
+            } finally {
+                lock.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the stored session on a background thread, since writing waits for the file lock.
+     * Writes are serialized, and sessions passed in while a write is queued replace it, so only
+     * the latest one is written.
+     *
+     * @param session The session, or {@code null} to clear it.
+     * @return A task that will be resolved once the session, or a later one, is stored.
+     */
+    Task<Void> writeInBackground(FacebookSession session) {
+        synchronized (writeTaskLock) {
+            unwritten.set(new LocalWrite(session));
+            pendingSession = session;
+            if (writePending) {
+                // The queued write hasn't started yet and will pick this session up.
+                return writeTask;
+            }
+            writePending = true;
+            writeTask = writeTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+                @Override
+                public Task<Void> then(Task<Void> task) throws Exception {
+                    return Task.call(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            FacebookSession session;
+                            LocalWrite local;
+                            synchronized (writeTaskLock) {
+                                session = pendingSession;
+                                local = unwritten.get();
+                                pendingSession = null;
+                                writePending = false;
+                            }
+                            if (write(session)) {
+                                // Unless a newer session was passed in meanwhile. If the write
+                                // failed, this process keeps reading its own session.
+                                unwritten.compareAndSet(local, null);
+                            }
+                            return null;
+                        }
+                    }, Task.BACKGROUND_EXECUTOR);
+                }
+            });
+            return writeTask;
+        }
+    }
+
+    /**
+     * Takes the refresh lease, waiting for whichever process or thread holds it to release it.
+     */
+    Lease acquireRefreshLease() throws IOException {
+        synchronized (leaseLock) {
+            while (lease != null) {
+                try {
+                    leaseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return newLease(channel.lock(LEASE_LOCK_POSITION, 1, false));
+        }
+    }
+
+    /**
+     * Tries to take the refresh lease without waiting.
+     *
+     * @return The lease, or {@code null} if another process or thread holds it.
+     */
+    Lease tryAcquireRefreshLease() throws IOException {
+        synchronized (leaseLock) {
+            if (lease != null) {
+                return null;
+            }
+            FileLock lock = channel.tryLock(LEASE_LOCK_POSITION, 1, false);
+            if (lock == null) {
+                return null;
+            }
+            return newLease(lock);
+        }
+    }
+
+    // Must hold leaseLock.
+    private Lease newLease(final FileLock lock) {
+        lease = lock;
+        return new Lease() {
+            @Override
+            public void release() {
+                synchronized (leaseLock) {
+                    if (lease != lock) {
+                        return;
+                    }
+                    lease = null;
+                    leaseLock.notifyAll();
+                    try {
+                        lock.release();
+                    } catch (IOException e) {
+                        // The lock goes away with the channel at the latest.
+                    }
+                }
+            }
+        };
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private FacebookSession readLocked() {
+        synchronized (writeLock) {
+            try {
+                FileLock lock = channel.lock(WRITE_LOCK_POSITION, 1, true);
+                try {
+                    long sequence = buffer.getLong(SEQUENCE_OFFSET);
+                    FacebookSession session = FacebookSessionCodec.decode(copyPayload());
+                    cache(sequence, session);
+                    return session;
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private byte[] copyPayload() {
+        int length = buffer.getInt(LENGTH_OFFSET);
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            length = 0;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(PAYLOAD_OFFSET);
+        source.get(payload);
+        return payload;
+    }
+
+    private void cache(long sequence, FacebookSession session) {
+        cached = new CachedRead(sequence, session);
+    }
+}
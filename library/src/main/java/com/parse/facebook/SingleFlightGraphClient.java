@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A {@link GraphClient} that shares one request between identical requests made while it's in
+ * flight. Requests are identical if they have the same path, parameters, access token and ETag.
+ * Everyone who shares a request gets the same {@link GraphClient.Response}, so its body is only
+ * parsed once.
+ * <p>
+ * Nothing is cached once the request completes; wrap a {@link BatchingGraphClient} to also
+ * batch the requests that do go out.
+ *
+ * @see ParseFacebookUtils#setGraphClient(GraphClient)
+ */
+public class SingleFlightGraphClient implements GraphClient {
+
+    private final GraphClient client;
+
+    private final Object lock = new Object();
+    private final Map<String, Task<Response>> inFlight = new HashMap<>();
+    private long sharedCount;
+
+    /**
+     * @param client The client to make the requests with.
+     */
+    public SingleFlightGraphClient(GraphClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return The number of requests that shared a request already in flight instead of making
+     * their own.
+     */
+    public long getSharedCount() {
+        synchronized (lock) {
+            return sharedCount;
+        }
+    }
+
+    /* package */ int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight.size();
+        }
+    }
+
+    @Override
+    public Task<Response> getAsync(Request request) {
+        final String key = request.getRelativeUrl() + '\n' + request.getAccessToken()
+                + '\n' + request.getETag();
+        Task<Response> task;
+        synchronized (lock) {
+            task = inFlight.get(key);
+            if (task != null) {
+                sharedCount++;
+                return task;
+            }
+            task = client.getAsync(request);
+            if (task.isCompleted()) {
+                return task;
+            }
+            inFlight.put(key, task);
+        }
+
+        final Task<Response> flight = task;
+        task.continueWith(new Continuation<Response, Void>() {
+            @Override
+            public Void then(Task<Response> task) throws Exception {
+                synchronized (lock) {
+                    if (inFlight.get(key) == flight) {
+                        inFlight.remove(key);
+                    }
+                }
+                return null;
+            }
+        });
+        return task;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import java.util.Set;
+
+/**
+ * A Graph API access token Facebook has confirmed is valid for the app.
+ *
+ * @see AccessTokenVerifier
+ */
+public final class VerifiedAccessToken {
+
+    private final String token;
+    private final String userId;
+    private final String applicationId;
+    private final long expiresAtMillis;
+    private final Set<String> scopes;
+
+    /* package */ VerifiedAccessToken(String token, String userId, String applicationId,
+                                      long expiresAtMillis, Set<String> scopes) {
+        this.token = token;
+        this.userId = userId;
+        this.applicationId = applicationId;
+        this.expiresAtMillis = expiresAtMillis;
+        this.scopes = scopes;
+    }
+
+    /**
+     * @return The access token.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return The Facebook user id the token belongs to.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return The Facebook app id the token was issued to.
+     */
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    /**
+     * @return When the token expires, in milliseconds since the epoch, or {@code 0} if it doesn't.
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * @return The permissions granted to the token.
+     */
+    public Set<String> getScopes() {
+        return scopes;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AccessTokenSyncTest {
+
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    private FacebookController controller;
+    private RecordingWriter writer;
+    private AccessTokenSync sync;
+
+    @Before
+    public void setUp() {
+        controller = mock(FacebookController.class);
+        writer = new RecordingWriter();
+        sync = new AccessTokenSync(controller, DEBOUNCE_MILLIS, writer);
+        sync.setSyncedAuthData(newAuthData("linked_token"));
+    }
+
+    @Test
+    public void testBurstOfChangesIsWrittenOnce() throws InterruptedException {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+
+        for (int i = 0; i < 5; i++) {
+            sync.onAccessTokenChanged();
+        }
+        awaitSync();
+
+        assertEquals(1, writer.written.size());
+        assertEquals("test_token", writer.written.get(0).get("access_token"));
+    }
+
+    @Test
+    public void testUnchangedAuthDataIsNotWritten() throws InterruptedException {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+        sync.setSyncedAuthData(newAuthData("test_token"));
+
+        sync.onAccessTokenChanged();
+        awaitSync();
+
+        assertTrue(writer.written.isEmpty());
+    }
+
+    @Test
+    public void testTokenOfAnotherUserIsNotWritten() throws InterruptedException {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        Map<String, String> authData = newAuthData("test_token");
+        authData.put("id", "other_id");
+        when(controller.getAuthData(accessToken)).thenReturn(authData);
+
+        sync.onAccessTokenChanged();
+        awaitSync();
+
+        assertTrue(writer.written.isEmpty());
+    }
+
+    @Test
+    public void testNothingIsWrittenWhenUnlinked() throws InterruptedException {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+        sync.setSyncedAuthData(null);
+
+        sync.onAccessTokenChanged();
+        awaitSync();
+
+        assertTrue(writer.written.isEmpty());
+    }
+
+    @Test
+    public void testWritesAreNotRepeated() throws InterruptedException {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+
+        sync.onAccessTokenChanged();
+        awaitSync();
+        sync.onAccessTokenChanged();
+        awaitSync();
+
+        assertEquals(1, writer.written.size());
+    }
+
+    @Test
+    public void testStartAndStop() throws InterruptedException {
+        AccessTokenTracker tracker = mock(AccessTokenTracker.class);
+        when(controller.trackAccessToken(any(FacebookController.AccessTokenListener.class)))
+                .thenReturn(tracker);
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+
+        sync.start();
+        ArgumentCaptor<FacebookController.AccessTokenListener> listenerCaptor =
+                ArgumentCaptor.forClass(FacebookController.AccessTokenListener.class);
+        verify(controller).trackAccessToken(listenerCaptor.capture());
+        FacebookController.AccessTokenListener listener = listenerCaptor.getValue();
+
+        // Logging out isn't synced.
+        listener.onCurrentAccessTokenChanged(null);
+        awaitSync();
+        assertTrue(writer.written.isEmpty());
+
+        // Neither is a change still being debounced when sync stops.
+        listener.onCurrentAccessTokenChanged(accessToken);
+        sync.stop();
+        awaitSync();
+        assertTrue(writer.written.isEmpty());
+        verify(tracker).stopTracking();
+    }
+
+    @Test
+    public void testWriterRunsWithoutTheLock() throws Exception {
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        when(controller.getAuthData(accessToken)).thenReturn(newAuthData("test_token"));
+        Field lockField = AccessTokenSync.class.getDeclaredField("lock");
+        lockField.setAccessible(true);
+        writer.lock = lockField.get(sync);
+
+        sync.onAccessTokenChanged();
+        awaitSync();
+
+        assertEquals(1, writer.written.size());
+        assertFalse(writer.calledWithLock);
+    }
+
+    private void awaitSync() throws InterruptedException {
+        Thread.sleep(DEBOUNCE_MILLIS * 4);
+        sync.getSyncTask().waitForCompletion();
+    }
+
+    private static Map<String, String> newAuthData(String token) {
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        authData.put("access_token", token);
+        authData.put("expiration_date", "2015-07-03T07:00:00.000Z");
+        return authData;
+    }
+
+    private static class RecordingWriter implements AccessTokenSync.Writer {
+        final List<Map<String, String>> written = new ArrayList<>();
+        Object lock;
+        volatile boolean calledWithLock;
+
+        @Override
+        public synchronized Task<Void> writeAsync(Map<String, String> authData) {
+            written.add(authData);
+            if (lock != null && Thread.holdsLock(lock)) {
+                calledWithLock = true;
+            }
+            return Task.forResult(null);
+        }
+    }
+}
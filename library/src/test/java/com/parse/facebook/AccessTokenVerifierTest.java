@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link AccessTokenVerifier} against a local stand-in for the {@code debug_token} endpoint.
+ */
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AccessTokenVerifierTest {
+
+    private static final long NOW_SECONDS = 1600000000;
+    private static final long EXPIRES_AT_SECONDS = NOW_SECONDS + 7200;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String lastQuery;
+    private volatile CountDownLatch release;
+    private AccessTokenVerifier verifier;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v5.0/debug_token", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                lastQuery = exchange.getRequestURI().getRawQuery();
+                CountDownLatch latch = release;
+                if (latch != null) {
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (lastQuery.contains("input_token=invalid_token")) {
+                    respond(exchange, 200, "{\"data\":{\"is_valid\":false,"
+                            + "\"error\":{\"message\":\"Session has expired\"}}}");
+                } else if (lastQuery.contains("input_token=error_token")) {
+                    respond(exchange, 500, "{\"error\":{\"message\":\"Unavailable\"}}");
+                } else if (lastQuery.contains("input_token=other_app_token")) {
+                    respond(exchange, 200, data("other_app_id", "test_user_id"));
+                } else {
+                    respond(exchange, 200, data("test_app_id", "test_user_id"));
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        now = TimeUnit.SECONDS.toMillis(NOW_SECONDS);
+        verifier = newVerifier(10);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        VerifiedAccessToken verified = verify("valid_token");
+
+        assertEquals("valid_token", verified.getToken());
+        assertEquals("test_user_id", verified.getUserId());
+        assertEquals("test_app_id", verified.getApplicationId());
+        assertEquals(TimeUnit.SECONDS.toMillis(EXPIRES_AT_SECONDS), verified.getExpiresAtMillis());
+        assertEquals(Collections.singleton("email"), verified.getScopes());
+        assertTrue(lastQuery.contains("access_token=test_app_id%7Ctest_secret"));
+    }
+
+    @Test
+    public void testResultIsCachedUntilMaxAge() throws Exception {
+        verify("valid_token");
+        now += AccessTokenVerifier.DEFAULT_MAX_AGE_MILLIS - 1;
+        verify("valid_token");
+        assertEquals(1, requests.get());
+
+        now += 1;
+        verify("valid_token");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testResultIsCachedUntilExpiry() throws Exception {
+        verifier = new AccessTokenVerifier("test_app_id", "test_secret", newClient(), 10,
+                TimeUnit.DAYS.toMillis(1)) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        verify("valid_token");
+        now = TimeUnit.SECONDS.toMillis(EXPIRES_AT_SECONDS);
+        verify("valid_token");
+
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        verifier = newVerifier(2);
+        verify("token_1");
+        verify("token_2");
+        verify("token_1");
+        verify("token_3");
+        assertEquals(3, requests.get());
+
+        // token_2 was the least recently used.
+        verify("token_1");
+        verify("token_2");
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void testConcurrentVerificationsShareARequest() throws Exception {
+        release = new CountDownLatch(1);
+        Task<VerifiedAccessToken> first = verifier.verifyAsync("valid_token");
+        Task<VerifiedAccessToken> second = verifier.verifyAsync("valid_token");
+        assertSame(first, second);
+
+        release.countDown();
+        first.waitForCompletion();
+        assertEquals("test_user_id", second.getResult().getUserId());
+        assertEquals(1, requests.get());
+        assertEquals(1, verifier.getRequestCount());
+    }
+
+    @Test
+    public void testInvalidToken() throws Exception {
+        assertInvalid(verifier.verifyAsync("invalid_token"));
+        assertInvalid(verifier.verifyAsync("invalid_token"));
+        assertEquals(1, requests.get());
+
+        now += AccessTokenVerifier.INVALID_TTL_MILLIS;
+        assertInvalid(verifier.verifyAsync("invalid_token"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testTokenForAnotherApp() throws Exception {
+        assertInvalid(verifier.verifyAsync("other_app_token"));
+    }
+
+    @Test
+    public void testMissingToken() throws Exception {
+        assertInvalid(verifier.verifyAsync((String) null));
+        assertInvalid(verifier.verifyAsync((Map<String, String>) null));
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testErrorsAreNotCached() throws Exception {
+        Task<VerifiedAccessToken> task = verifier.verifyAsync("error_token");
+        task.waitForCompletion();
+        assertTrue(task.getError() instanceof GraphClient.GraphException);
+
+        verifier.verifyAsync("error_token").waitForCompletion();
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testVerifyAuthData() throws Exception {
+        Date expires = new Date(TimeUnit.SECONDS.toMillis(EXPIRES_AT_SECONDS));
+        Map<String, String> authData = AuthDataCodec.encode("test_user_id", "valid_token",
+                expires, new Date(now), Collections.singleton("email"));
+
+        Task<VerifiedAccessToken> task = verifier.verifyAsync(authData);
+        task.waitForCompletion();
+        assertEquals("test_user_id", task.getResult().getUserId());
+
+        authData.put(AuthDataCodec.KEY_USER_ID, "other_user_id");
+        assertInvalid(verifier.verifyAsync(authData));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        verify("valid_token");
+        verifier.invalidate("valid_token");
+        verify("valid_token");
+
+        assertEquals(2, requests.get());
+        assertFalse(verifier.verifyAsync("valid_token").isFaulted());
+    }
+
+    private AccessTokenVerifier newVerifier(int maxEntries) {
+        return new AccessTokenVerifier("test_app_id", "test_secret", newClient(), maxEntries,
+                AccessTokenVerifier.DEFAULT_MAX_AGE_MILLIS) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private HttpGraphClient newClient() {
+        return new HttpGraphClient("http://127.0.0.1:" + server.getAddress().getPort() + "/v5.0");
+    }
+
+    private VerifiedAccessToken verify(String accessToken) throws Exception {
+        Task<VerifiedAccessToken> task = verifier.verifyAsync(accessToken);
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private static void assertInvalid(Task<VerifiedAccessToken> task) throws Exception {
+        task.waitForCompletion();
+        assertTrue(String.valueOf(task.getError()),
+                task.getError() instanceof InvalidAccessTokenException);
+    }
+
+    private static String data(String appId, String userId) {
+        return "{\"data\":{\"app_id\":\"" + appId + "\",\"type\":\"USER\",\"is_valid\":true,"
+                + "\"expires_at\":" + EXPIRES_AT_SECONDS + ",\"scopes\":[\"email\"],"
+                + "\"user_id\":\"" + userId + "\"}}";
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
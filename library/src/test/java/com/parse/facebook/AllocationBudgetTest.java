@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.parse.AuthenticationCallback;
+import com.parse.ParseUser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the bytes allocated per call on the auth hot paths that run during cold start.
+ * <p>
+ * The budgets below are checked in on purpose: if a change legitimately needs more, raise the
+ * budget in the same change so the increase is visible in review.
+ */
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AllocationBudgetTest {
+
+    // Budgets in bytes allocated per call, averaged over ITERATIONS calls.
+    private static final long GET_AUTH_DATA_BUDGET = 8 * 1024;
+    private static final long SET_AUTH_DATA_SAME_TOKEN_BUDGET = 4 * 1024;
+    private static final long SET_AUTH_DATA_NEW_TOKEN_BUDGET = 16 * 1024;
+    private static final long RESTORE_BUDGET = 4 * 1024;
+    private static final long RESTORE_CHANGED_AUTH_DATA_BUDGET = 24 * 1024;
+
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 2000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private FakeFacebookSdkDelegate facebookSdk;
+    private FacebookController controller;
+
+    private FacebookController previousController;
+    private ParseFacebookUtils.ParseUserDelegate previousUserDelegate;
+    private boolean previousIsInitialized;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Allocation measurement is not supported on this JVM",
+                bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        facebookSdk = new FakeFacebookSdkDelegate();
+        controller = new FacebookController(facebookSdk);
+
+        previousController = ParseFacebookUtils.controller;
+        previousUserDelegate = ParseFacebookUtils.userDelegate;
+        previousIsInitialized = ParseFacebookUtils.isInitialized;
+    }
+
+    @After
+    public void tearDown() {
+        ParseFacebookUtils.controller = previousController;
+        ParseFacebookUtils.userDelegate = previousUserDelegate;
+        ParseFacebookUtils.isInitialized = previousIsInitialized;
+        ParseFacebookUtils.restoredAuthData = null;
+        ParseFacebookUtils.restoredAccessToken = null;
+        ParseFacebookUtils.skippedRestoreCount = 0;
+    }
+
+    @Test
+    public void testGetAuthDataAllocationBudget() {
+        final AccessToken accessToken = newAccessToken("test_token");
+
+        long bytesPerCall = measure(new Runnable() {
+            @Override
+            public void run() {
+                controller.getAuthData(accessToken);
+            }
+        });
+        assertWithinBudget("getAuthData", bytesPerCall, GET_AUTH_DATA_BUDGET);
+    }
+
+    @Test
+    public void testSetAuthDataWithSameTokenAllocationBudget() {
+        AccessToken accessToken = newAccessToken("test_token");
+        facebookSdk.currentAccessToken = accessToken;
+        final Map<String, String> authData = controller.getAuthData(accessToken);
+
+        long bytesPerCall = measure(new Runnable() {
+            @Override
+            public void run() {
+                setAuthData(authData);
+            }
+        });
+        assertWithinBudget("setAuthData (same token)", bytesPerCall, SET_AUTH_DATA_SAME_TOKEN_BUDGET);
+    }
+
+    @Test
+    public void testSetAuthDataWithNewTokenAllocationBudget() {
+        final Map<String, String> authData =
+                controller.getAuthData(newAccessToken("new_token"));
+
+        long bytesPerCall = measure(new Runnable() {
+            @Override
+            public void run() {
+                // Reset so every call takes the path that installs a new token.
+                facebookSdk.currentAccessToken = null;
+                setAuthData(authData);
+            }
+        });
+        assertWithinBudget("setAuthData (new token)", bytesPerCall, SET_AUTH_DATA_NEW_TOKEN_BUDGET);
+    }
+
+    @Test
+    public void testRestoreAllocationBudget() {
+        FakeParseUserDelegate userDelegate = new FakeParseUserDelegate();
+        ParseFacebookUtils.controller = controller;
+        ParseFacebookUtils.userDelegate = userDelegate;
+        ParseFacebookUtils.initialize(null);
+        final AuthenticationCallback callback = userDelegate.callback;
+
+        AccessToken accessToken = newAccessToken("test_token");
+        facebookSdk.currentAccessToken = accessToken;
+        final Map<String, String> authData = controller.getAuthData(accessToken);
+
+        long bytesPerCall = measure(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRestore(authData);
+            }
+        });
+        assertWithinBudget("onRestore", bytesPerCall, RESTORE_BUDGET);
+    }
+
+    @Test
+    public void testRestoreChangedAuthDataAllocationBudget() {
+        FakeParseUserDelegate userDelegate = new FakeParseUserDelegate();
+        ParseFacebookUtils.controller = controller;
+        ParseFacebookUtils.userDelegate = userDelegate;
+        ParseFacebookUtils.initialize(null);
+        final AuthenticationCallback callback = userDelegate.callback;
+
+        final Map<String, String> firstAuthData =
+                controller.getAuthData(newAccessToken("first_token"));
+        final Map<String, String> secondAuthData =
+                controller.getAuthData(newAccessToken("second_token"));
+
+        long bytesPerCall = measure(new Runnable() {
+            private boolean first;
+
+            @Override
+            public void run() {
+                // Alternate, so no restore is a repeat of the last one and can be skipped.
+                first = !first;
+                callback.onRestore(first ? firstAuthData : secondAuthData);
+            }
+        });
+        assertWithinBudget("onRestore (changed auth data)", bytesPerCall,
+                RESTORE_CHANGED_AUTH_DATA_BUDGET);
+        assertEquals(0, ParseFacebookUtils.getSkippedRestoreCount());
+    }
+
+    //region Helpers
+
+    private long measure(Runnable runnable) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            runnable.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        return (after - before) / ITERATIONS;
+    }
+
+    private static void assertWithinBudget(String name, long bytesPerCall, long budget) {
+        assertTrue(String.format(
+                "%s allocated %d bytes per call, budget is %d bytes", name, bytesPerCall, budget),
+                bytesPerCall <= budget);
+    }
+
+    private void setAuthData(Map<String, String> authData) {
+        try {
+            controller.setAuthData(authData);
+        } catch (java.text.ParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static AccessToken newAccessToken(String token) {
+        Set<String> permissions = new HashSet<>();
+        permissions.add("public_profile");
+        permissions.add("email");
+        permissions.add("user_friends");
+        return new AccessToken(
+                token,
+                "test_application_id",
+                "test_id",
+                permissions,
+                null,
+                null,
+                AccessTokenSource.DEVICE_AUTH,
+                new Date(1435906800000L),
+                new Date(1435906800000L),
+                null);
+    }
+
+    private static class FakeParseUserDelegate implements ParseFacebookUtils.ParseUserDelegate {
+        AuthenticationCallback callback;
+
+        @Override
+        public void registerAuthenticationCallback(String authType, AuthenticationCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public Task<ParseUser> logInWithInBackground(String authType, Map<String, String> authData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ParseUser getCurrentUser() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AuthEventPublisherTest {
+
+    @Test
+    public void testDeliversOnlyWhatWasRequested() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        AuthEvent logIn = new AuthEvent(AuthEvent.Type.LOG_IN, null);
+        publisher.publish(logIn);
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertSame(logIn, subscriber.events.get(0));
+
+        AuthEvent unlink = new AuthEvent(AuthEvent.Type.UNLINK, null);
+        publisher.publish(unlink);
+        assertEquals(1, subscriber.events.size());
+        subscriber.subscription.request(1);
+        assertSame(unlink, subscriber.events.get(1));
+    }
+
+    @Test
+    public void testConflatesEventsWithoutDemand() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.publish(new AuthEvent(AuthEvent.Type.LOG_IN, null));
+        publisher.publish(new AuthEvent(AuthEvent.Type.LINK, null));
+        AuthEvent latest = new AuthEvent(AuthEvent.Type.REFRESH, null);
+        publisher.publish(latest);
+
+        subscriber.subscription.request(10);
+        assertEquals(1, subscriber.events.size());
+        assertSame(latest, subscriber.events.get(0));
+    }
+
+    @Test
+    public void testDoesNotConflateLogOutOrUnlink() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        AuthEvent logOut = new AuthEvent(AuthEvent.Type.LOG_OUT, null);
+        AuthEvent unlink = new AuthEvent(AuthEvent.Type.UNLINK, null);
+        AuthEvent latest = new AuthEvent(AuthEvent.Type.LINK, null);
+        publisher.publish(new AuthEvent(AuthEvent.Type.REFRESH, null));
+        publisher.publish(logOut);
+        publisher.publish(new AuthEvent(AuthEvent.Type.LOG_IN, null));
+        publisher.publish(unlink);
+        publisher.publish(new AuthEvent(AuthEvent.Type.RESTORE, null));
+        publisher.publish(latest);
+
+        subscriber.subscription.request(10);
+        assertEquals(3, subscriber.events.size());
+        assertSame(logOut, subscriber.events.get(0));
+        assertSame(unlink, subscriber.events.get(1));
+        assertSame(latest, subscriber.events.get(2));
+    }
+
+    @Test
+    public void testNewSubscriberReceivesLatestEvent() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        AuthEvent restore = new AuthEvent(AuthEvent.Type.RESTORE, null);
+        publisher.publish(restore);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(1, subscriber.events.size());
+        assertSame(restore, subscriber.events.get(0));
+
+        publisher.publish(new AuthEvent(AuthEvent.Type.UNLINK, null));
+        publisher.publish(new AuthEvent(AuthEvent.Type.LOG_IN, null));
+        assertEquals(3, subscriber.events.size());
+    }
+
+    @Test
+    public void testCancel() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(1, publisher.getSubscriberCount());
+
+        subscriber.subscription.cancel();
+        publisher.publish(new AuthEvent(AuthEvent.Type.LOG_IN, null));
+        assertTrue(subscriber.events.isEmpty());
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void testNonPositiveRequestSignalsError() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void testReentrantRequestDoesNotRecurse() {
+        AuthEventPublisher publisher = new AuthEventPublisher();
+        final List<AuthEvent> events = new ArrayList<>();
+        publisher.subscribe(new Subscriber<AuthEvent>() {
+            private Subscription subscription;
+            private int depth;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(AuthEvent event) {
+                depth++;
+                assertEquals(1, depth);
+                events.add(event);
+                subscription.request(1);
+                depth--;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            publisher.publish(new AuthEvent(AuthEvent.Type.REFRESH, null));
+        }
+        assertEquals(100, events.size());
+    }
+
+    private static class RecordingSubscriber implements Subscriber<AuthEvent> {
+        final List<AuthEvent> events = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(AuthEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
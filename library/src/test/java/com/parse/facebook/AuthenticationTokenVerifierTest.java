@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AuthenticationTokenVerifierTest {
+
+    private static final String APP_ID = "test_app_id";
+    private static final String NONCE = "test_nonce";
+    private static final long NOW_SECONDS = 1600000000;
+
+    private KeyPair keyPair;
+    private FakeKeySet keySet;
+    private AuthenticationTokenVerifier verifier;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        now = TimeUnit.SECONDS.toMillis(NOW_SECONDS);
+        keySet = new FakeKeySet();
+        keySet.jwks = jwks("key_1", keyPair);
+        verifier = new AuthenticationTokenVerifier(APP_ID, keySet) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        String token = sign(header("key_1"), claims(), keyPair);
+
+        FacebookAuthenticationToken verified = verify(token, NONCE);
+
+        assertEquals(token, verified.getToken());
+        assertEquals("test_user_id", verified.getUserId());
+        assertEquals(NONCE, verified.getNonce());
+        assertEquals("Test User", verified.getName());
+        assertEquals("test@example.com", verified.getEmail());
+        assertEquals(TimeUnit.SECONDS.toMillis(NOW_SECONDS + 3600),
+                verified.getExpiresAtMillis());
+    }
+
+    @Test
+    public void testKeysAreFetchedOnce() throws Exception {
+        verify(sign(header("key_1"), claims(), keyPair), NONCE);
+        verify(sign(header("key_1"), claims(), keyPair), NONCE);
+
+        assertEquals(1, keySet.getFetchCount());
+    }
+
+    @Test
+    public void testStaleKeysAreRefreshedInBackground() throws Exception {
+        verify(sign(header("key_1"), claims(), keyPair), NONCE);
+
+        now += JwksKeySet.DEFAULT_TTL_MILLIS;
+        verify(sign(header("key_1"), claims().put("exp", NOW_SECONDS + 200000), keyPair), NONCE);
+
+        assertEquals(2, keySet.getFetchCount());
+    }
+
+    @Test
+    public void testRotatedKeyIsFetched() throws Exception {
+        verify(sign(header("key_1"), claims(), keyPair), NONCE);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair rotated = generator.generateKeyPair();
+        keySet.jwks = jwks("key_2", rotated);
+        now += JwksKeySet.MIN_REFRESH_INTERVAL_MILLIS;
+
+        assertEquals("test_user_id",
+                verify(sign(header("key_2"), claims(), rotated), NONCE).getUserId());
+        assertEquals(2, keySet.getFetchCount());
+    }
+
+    @Test
+    public void testUnknownKeysAreNotFetchedRepeatedly() throws Exception {
+        verify(sign(header("key_1"), claims(), keyPair), NONCE);
+        now += JwksKeySet.MIN_REFRESH_INTERVAL_MILLIS;
+
+        assertInvalid(sign(header("unknown_1"), claims(), keyPair), NONCE);
+        assertInvalid(sign(header("unknown_2"), claims(), keyPair), NONCE);
+
+        assertEquals(2, keySet.getFetchCount());
+    }
+
+    @Test
+    public void testBadSignature() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair other = generator.generateKeyPair();
+
+        assertInvalid(sign(header("key_1"), claims(), other), NONCE);
+    }
+
+    @Test
+    public void testTamperedClaims() throws Exception {
+        String token = sign(header("key_1"), claims(), keyPair);
+        String[] parts = token.split("\\.");
+        String tampered = parts[0] + "." + encode(claims().put("sub", "other_user_id")) + "."
+                + parts[2];
+
+        assertInvalid(tampered, NONCE);
+    }
+
+    @Test
+    public void testUnsignedToken() throws Exception {
+        JSONObject header = new JSONObject().put("alg", "none").put("kid", "key_1");
+        assertInvalid(encode(header) + "." + encode(claims()) + ".", NONCE);
+    }
+
+    @Test
+    public void testWrongAudience() throws Exception {
+        assertInvalid(sign(header("key_1"), claims().put("aud", "other_app_id"), keyPair), NONCE);
+    }
+
+    @Test
+    public void testWrongIssuer() throws Exception {
+        assertInvalid(sign(header("key_1"), claims().put("iss", "https://example.com"), keyPair),
+                NONCE);
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        now += TimeUnit.SECONDS.toMillis(3600) + AuthenticationTokenVerifier.CLOCK_SKEW_MILLIS;
+        assertInvalid(sign(header("key_1"), claims(), keyPair), NONCE);
+    }
+
+    @Test
+    public void testIssuedInFuture() throws Exception {
+        now -= AuthenticationTokenVerifier.CLOCK_SKEW_MILLIS + 1000;
+        assertInvalid(sign(header("key_1"), claims(), keyPair), NONCE);
+    }
+
+    @Test
+    public void testNonceMismatch() throws Exception {
+        assertInvalid(sign(header("key_1"), claims(), keyPair), "other_nonce");
+    }
+
+    @Test
+    public void testMalformedToken() throws Exception {
+        assertInvalid("not a token", NONCE);
+        assertInvalid(null, NONCE);
+        assertEquals(0, keySet.getFetchCount());
+    }
+
+    private FacebookAuthenticationToken verify(String token, String nonce) throws Exception {
+        Task<FacebookAuthenticationToken> task = verifier.verifyAsync(token, nonce);
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private void assertInvalid(String token, String nonce) throws Exception {
+        Task<FacebookAuthenticationToken> task = verifier.verifyAsync(token, nonce);
+        task.waitForCompletion();
+        assertTrue(String.valueOf(task.getError()),
+                task.getError() instanceof InvalidAuthenticationTokenException);
+    }
+
+    private static JSONObject header(String keyId) throws Exception {
+        return new JSONObject().put("alg", "RS256").put("typ", "JWT").put("kid", keyId);
+    }
+
+    private static JSONObject claims() throws Exception {
+        return new JSONObject()
+                .put("iss", "https://www.facebook.com")
+                .put("aud", APP_ID)
+                .put("sub", "test_user_id")
+                .put("iat", NOW_SECONDS)
+                .put("exp", NOW_SECONDS + 3600)
+                .put("nonce", NONCE)
+                .put("name", "Test User")
+                .put("email", "test@example.com");
+    }
+
+    private static String sign(JSONObject header, JSONObject claims, KeyPair keyPair)
+            throws Exception {
+        String signingInput = encode(header) + "." + encode(claims);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(signingInput.getBytes("US-ASCII"));
+        return signingInput + "." + encode(signature.sign());
+    }
+
+    private static String jwks(String keyId, KeyPair keyPair) throws Exception {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return new JSONObject().put("keys", new JSONArray()
+                .put(new JSONObject()
+                        .put("kty", "EC")
+                        .put("kid", "ignored"))
+                .put(new JSONObject()
+                        .put("kty", "RSA")
+                        .put("use", "sig")
+                        .put("alg", "RS256")
+                        .put("kid", keyId)
+                        .put("n", encode(key.getModulus().toByteArray()))
+                        .put("e", encode(key.getPublicExponent().toByteArray()))))
+                .toString();
+    }
+
+    private static String encode(JSONObject json) throws Exception {
+        return encode(json.toString().getBytes("UTF-8"));
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+
+    private class FakeKeySet extends JwksKeySet {
+        volatile String jwks;
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        String fetch() throws IOException {
+            return jwks;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class BatchingGraphClientTest {
+
+    @Test
+    public void testRequestsInWindowAreBatched() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        http.batchResponse = new JSONArray()
+                .put(new JSONObject()
+                        .put("code", 200)
+                        .put("headers", new JSONArray().put(new JSONObject()
+                                .put("name", "ETag")
+                                .put("value", "\"v1\"")))
+                        .put("body", "{\"id\":\"test_id\"}"))
+                .put(new JSONObject()
+                        .put("code", 400)
+                        .put("body", "{\"error\":{}}"))
+                .put(JSONObject.NULL)
+                .toString();
+        BatchingGraphClient client = new BatchingGraphClient(http, 50);
+
+        Task<GraphClient.Response> first = client.getAsync(request("me", "test_token"));
+        Task<GraphClient.Response> second = client.getAsync(request("me/friends", "test_token"));
+        Task<GraphClient.Response> third = client.getAsync(request("me/likes", "test_token"));
+        third.waitForCompletion();
+
+        assertEquals(1, client.getBatchCount());
+        assertEquals(0, http.requests.size());
+        assertEquals("test_token", http.batchAccessTokens.get(0));
+        JSONArray batch = new JSONArray(http.batches.get(0));
+        assertEquals(3, batch.length());
+        assertEquals("GET", batch.getJSONObject(0).getString("method"));
+        assertEquals("me?fields=id", batch.getJSONObject(0).getString("relative_url"));
+        assertEquals("me/friends?fields=id", batch.getJSONObject(1).getString("relative_url"));
+
+        assertEquals(200, first.getResult().getStatusCode());
+        assertEquals("{\"id\":\"test_id\"}", first.getResult().getBody());
+        assertEquals("\"v1\"", first.getResult().getETag());
+        GraphClient.GraphException error = (GraphClient.GraphException) second.getError();
+        assertEquals(400, error.getStatusCode());
+        assertEquals("{\"error\":{}}", error.getBody());
+        assertTrue(third.getError() instanceof IOException);
+    }
+
+    @Test
+    public void testSingleRequestIsNotBatched() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        BatchingGraphClient client = new BatchingGraphClient(http, 0);
+
+        Task<GraphClient.Response> task = client.getAsync(request("me", "test_token"));
+        task.waitForCompletion();
+
+        assertEquals(0, client.getBatchCount());
+        assertEquals(1, http.requests.size());
+        assertEquals(200, task.getResult().getStatusCode());
+    }
+
+    @Test
+    public void testRevalidationIsNotBatched() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        BatchingGraphClient client = new BatchingGraphClient(http, 50);
+
+        Task<GraphClient.Response> task =
+                client.getAsync(request("me", "test_token").withETag("\"v1\""));
+        task.waitForCompletion();
+
+        assertEquals(1, http.requests.size());
+        assertEquals("\"v1\"", http.requests.get(0).getETag());
+    }
+
+    @Test
+    public void testRequestsAreBatchedByAccessToken() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        http.batchResponse = new JSONArray()
+                .put(new JSONObject().put("code", 200).put("body", "{}"))
+                .put(new JSONObject().put("code", 200).put("body", "{}"))
+                .toString();
+        BatchingGraphClient client = new BatchingGraphClient(http, 50);
+
+        List<Task<GraphClient.Response>> tasks = new ArrayList<>();
+        tasks.add(client.getAsync(request("me", "token_a")));
+        tasks.add(client.getAsync(request("me", "token_b")));
+        tasks.add(client.getAsync(request("me/friends", "token_b")));
+        Task.whenAll(tasks).waitForCompletion();
+
+        assertEquals(1, client.getBatchCount());
+        assertEquals("token_b", http.batchAccessTokens.get(0));
+        assertEquals(1, http.requests.size());
+        assertEquals("token_a", http.requests.get(0).getAccessToken());
+    }
+
+    @Test
+    public void testFullBatchIsSentRightAway() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        JSONArray responses = new JSONArray();
+        for (int i = 0; i < BatchingGraphClient.MAX_BATCH_SIZE; i++) {
+            responses.put(new JSONObject().put("code", 200).put("body", "{}"));
+        }
+        http.batchResponse = responses.toString();
+        // Long enough that the test would time out waiting for the window.
+        BatchingGraphClient client = new BatchingGraphClient(http, 60 * 60 * 1000);
+
+        List<Task<GraphClient.Response>> tasks = new ArrayList<>();
+        for (int i = 0; i < BatchingGraphClient.MAX_BATCH_SIZE; i++) {
+            tasks.add(client.getAsync(request("me/" + i, "test_token")));
+        }
+        Task.whenAll(tasks).waitForCompletion();
+
+        assertEquals(1, client.getBatchCount());
+        for (Task<GraphClient.Response> task : tasks) {
+            assertEquals(200, task.getResult().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testFailedBatchFailsEveryRequest() throws Exception {
+        FakeHttpGraphClient http = new FakeHttpGraphClient();
+        http.batchError = new IOException("offline");
+        BatchingGraphClient client = new BatchingGraphClient(http, 50);
+
+        Task<GraphClient.Response> first = client.getAsync(request("me", "test_token"));
+        Task<GraphClient.Response> second = client.getAsync(request("me/friends", "test_token"));
+        first.waitForCompletion();
+        second.waitForCompletion();
+
+        assertSame(http.batchError, first.getError());
+        assertSame(http.batchError, second.getError());
+        assertNull(second.getResult());
+    }
+
+    private static GraphClient.Request request(String path, String accessToken) {
+        return new GraphClient.Request(
+                path, Collections.singletonMap("fields", "id"), accessToken);
+    }
+
+    private static class FakeHttpGraphClient extends HttpGraphClient {
+        final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+        final List<String> batches = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> batchAccessTokens =
+                Collections.synchronizedList(new ArrayList<String>());
+        String batchResponse;
+        Exception batchError;
+
+        @Override
+        public Task<Response> getAsync(Request request) {
+            requests.add(request);
+            return Task.forResult(new Response(200, "{}", null));
+        }
+
+        @Override
+        Task<String> postBatchAsync(String accessToken, String batch) {
+            batchAccessTokens.add(accessToken);
+            batches.add(batch);
+            if (batchError != null) {
+                return Task.forError(batchError);
+            }
+            return Task.forResult(batchResponse);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+import com.parse.ParseUser;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class BulkLinkerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeOperation operation;
+    private RecordingCallback callback;
+    private File checkpointFile;
+
+    @Before
+    public void setUp() throws Exception {
+        operation = new FakeOperation();
+        callback = new RecordingCallback();
+        checkpointFile = new File(temporaryFolder.getRoot(), "checkpoint");
+    }
+
+    @Test
+    public void testRunsAllItems() throws Exception {
+        List<BulkLinkItem> items = newItems(5);
+
+        List<BulkLinkResult> results = run(items, 2, null);
+
+        assertEquals(5, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertSame(items.get(i), results.get(i).getItem());
+            assertTrue(results.get(i).isSuccess());
+        }
+        assertEquals(items, operation.started);
+        assertEquals(5, callback.results.size());
+        assertEquals(Integer.valueOf(5), callback.completedCounts.get(4));
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        operation.async = true;
+        BulkLinker linker = new BulkLinker(newItems(5), 2, null, operation, callback);
+        Task<List<BulkLinkResult>> task = linker.runAsync();
+        assertEquals(2, operation.started.size());
+
+        operation.pending.get(1).setResult(null);
+        assertEquals(3, operation.started.size());
+        operation.pending.get(0).setResult(null);
+        operation.pending.get(2).setResult(null);
+        assertEquals(5, operation.started.size());
+        assertFalse(task.isCompleted());
+
+        operation.pending.get(3).setResult(null);
+        operation.pending.get(4).setResult(null);
+        assertEquals(5, task.getResult().size());
+        assertEquals(1, task.getResult().get(1).getIndex());
+    }
+
+    @Test
+    public void testFailedItemIsReported() throws Exception {
+        List<BulkLinkItem> items = newItems(3);
+        operation.errors.put(items.get(1),
+                new ParseException(ParseException.OBJECT_NOT_FOUND, "Not found"));
+
+        List<BulkLinkResult> results = run(items, 1, null);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(ParseException.OBJECT_NOT_FOUND,
+                ((ParseException) results.get(1).getError()).getCode());
+        assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    public void testConnectionFailureStopsAndResumes() throws Exception {
+        List<BulkLinkItem> items = newItems(5);
+        operation.errors.put(items.get(2),
+                new ParseException(ParseException.CONNECTION_FAILED, "Offline"));
+
+        Task<List<BulkLinkResult>> task =
+                new BulkLinker(items, 1, checkpointFile, operation, callback).runAsync();
+        task.waitForCompletion();
+
+        assertEquals(ParseException.CONNECTION_FAILED,
+                ((ParseException) task.getError()).getCode());
+        assertEquals(3, operation.started.size());
+        assertEquals(2, callback.results.size());
+
+        operation = new FakeOperation();
+        callback = new RecordingCallback();
+        List<BulkLinkResult> results = run(items, 1, checkpointFile);
+
+        assertEquals(items.subList(2, 5), operation.started);
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(0).getIndex());
+        assertEquals(Integer.valueOf(3), callback.completedCounts.get(0));
+    }
+
+    @Test
+    public void testCompletedRunIsNotRepeated() throws Exception {
+        List<BulkLinkItem> items = newItems(3);
+        run(items, 2, checkpointFile);
+
+        operation = new FakeOperation();
+        assertTrue(run(items, 2, checkpointFile).isEmpty());
+        assertTrue(operation.started.isEmpty());
+    }
+
+    @Test
+    public void testCheckpointForOtherItemsIsIgnored() throws Exception {
+        run(newItems(3), 2, checkpointFile);
+
+        operation = new FakeOperation();
+        assertEquals(4, run(newItems(4), 2, checkpointFile).size());
+    }
+
+    @Test
+    public void testCheckpointForOtherItemsOfSameSizeIsIgnored() throws Exception {
+        run(newItems("first_", 3), 2, checkpointFile);
+
+        operation = new FakeOperation();
+        assertEquals(3, run(newItems("second_", 3), 2, checkpointFile).size());
+    }
+
+    @Test
+    public void testCheckpointOnlyCoversLeadingItems() throws Exception {
+        operation.async = true;
+        List<BulkLinkItem> items = newItems(3);
+        Task<List<BulkLinkResult>> task =
+                new BulkLinker(items, 3, checkpointFile, operation, callback).runAsync();
+        operation.pending.get(1).setResult(null);
+        operation.pending.get(2).setResult(null);
+        operation.pending.get(0).setError(
+                new ParseException(ParseException.CONNECTION_FAILED, "Offline"));
+        task.waitForCompletion();
+        assertTrue(task.isFaulted());
+
+        // Items 1 and 2 completed, but the checkpoint can't skip item 0.
+        operation = new FakeOperation();
+        assertEquals(3, run(items, 3, checkpointFile).size());
+    }
+
+    @Test
+    public void testUnlinkItem() {
+        ParseUser user = mock(ParseUser.class);
+        BulkLinkItem item = BulkLinkItem.unlink(user);
+        assertTrue(item.isUnlink());
+        assertNull(item.getAuthData());
+        assertFalse(BulkLinkItem.link(user, Collections.singletonMap("id", "fb")).isUnlink());
+    }
+
+    private List<BulkLinkResult> run(List<BulkLinkItem> items, int maxConcurrency, File file)
+            throws Exception {
+        Task<List<BulkLinkResult>> task =
+                new BulkLinker(items, maxConcurrency, file, operation, callback).runAsync();
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private static List<BulkLinkItem> newItems(int count) {
+        return newItems("user_", count);
+    }
+
+    private static List<BulkLinkItem> newItems(String objectIdPrefix, int count) {
+        List<BulkLinkItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ParseUser user = mock(ParseUser.class);
+            when(user.getObjectId()).thenReturn(objectIdPrefix + i);
+            items.add(BulkLinkItem.link(user, Collections.singletonMap("id", "fb_" + i)));
+        }
+        return items;
+    }
+
+    private static class FakeOperation implements BulkLinker.Operation {
+        final List<BulkLinkItem> started = new ArrayList<>();
+        final List<Task<Void>.TaskCompletionSource> pending = new ArrayList<>();
+        final Map<BulkLinkItem, Exception> errors = new HashMap<>();
+        boolean async;
+
+        @Override
+        public synchronized Task<Void> runAsync(BulkLinkItem item) {
+            started.add(item);
+            if (async) {
+                Task<Void>.TaskCompletionSource tcs = Task.create();
+                pending.add(tcs);
+                return tcs.getTask();
+            }
+            Exception error = errors.get(item);
+            return error != null ? Task.<Void>forError(error) : Task.<Void>forResult(null);
+        }
+    }
+
+    private static class RecordingCallback implements BulkLinkCallback {
+        final List<BulkLinkResult> results = new ArrayList<>();
+        final List<Integer> completedCounts = new ArrayList<>();
+
+        @Override
+        public synchronized void onItemCompleted(
+                BulkLinkResult result, int completedCount, int totalCount) {
+            results.add(result);
+            completedCounts.add(completedCount);
+        }
+    }
+}
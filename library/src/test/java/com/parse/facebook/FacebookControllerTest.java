@@ -10,6 +10,7 @@ package com.parse.facebook;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.Intent;
 import android.support.v4.app.Fragment;
 
 import com.facebook.AccessToken;
@@ -17,6 +18,7 @@ import com.facebook.AccessTokenSource;
 import com.facebook.CallbackManager;
 import com.facebook.FacebookCallback;
 import com.facebook.FacebookException;
+import com.facebook.login.LoginBehavior;
 import com.facebook.login.LoginManager;
 import com.facebook.login.LoginResult;
 
@@ -28,26 +30,34 @@ import org.mockito.ArgumentCaptor;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
+import bolts.Continuation;
 import bolts.Task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -115,6 +125,33 @@ public class FacebookControllerTest {
 
     //region testSetAuthData
 
+    @Test
+    public void testGetAuthDataWithAuthenticationToken() {
+        FacebookController controller = new FacebookController(null);
+        FacebookAuthenticationToken authenticationToken = new FacebookAuthenticationToken(
+                "header.claims.signature", "user_id", "nonce", null, null, null, 0, 0);
+
+        Map<String, String> authData = controller.getAuthData(authenticationToken);
+        assertEquals(2, authData.size());
+        assertEquals("user_id", authData.get("id"));
+        assertEquals("header.claims.signature", authData.get("token"));
+    }
+
+    @Test
+    public void testSetAuthDataWithAuthenticationToken() throws ParseException {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        authData.put("token", "header.claims.signature");
+        controller.setAuthData(authData);
+
+        // There's no Graph API access token to install.
+        verifyNoMoreInteractions(facebookSdk);
+    }
+
     @Test
     public void testSetAuthDataWithNull() throws java.text.ParseException {
         FacebookController.FacebookSdkDelegate facebookSdk =
@@ -346,6 +383,62 @@ public class FacebookControllerTest {
         assertTrue(task.isCompleted());
     }
 
+    @Test
+    public void testAbandonedLoginTimesOut() throws InterruptedException {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        CallbackManager callbackManager = mock(CallbackManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(callbackManager);
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.setAbandonedLoginTimeoutMillis(50);
+
+        Task<Map<String, String>> task = controller.authenticateAsync(mock(Activity.class), null,
+                FacebookController.LoginAuthorizationType.READ, new ArrayList<String>());
+        assertFalse(task.isCompleted());
+        task.waitForCompletion(5, TimeUnit.SECONDS);
+
+        assertTrue(task.isCancelled());
+        verify(loginManager).unregisterCallback(callbackManager);
+    }
+
+    @Test
+    public void testDisabledTimeoutKeepsLogin() throws InterruptedException {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.setAbandonedLoginTimeoutMillis(0);
+
+        Task<Map<String, String>> task = controller.authenticateAsync(mock(Activity.class), null,
+                FacebookController.LoginAuthorizationType.READ, new ArrayList<String>());
+        Thread.sleep(100);
+
+        assertFalse(task.isCompleted());
+    }
+
+    @Test
+    public void testUnrelatedActivityResultKeepsLogin() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        CallbackManager callbackManager = mock(CallbackManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(callbackManager);
+        when(callbackManager.onActivityResult(1, -1, null)).thenReturn(false);
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Task<Map<String, String>> task = controller.authenticateAsync(mock(Activity.class), null,
+                FacebookController.LoginAuthorizationType.READ, new ArrayList<String>());
+        assertFalse(controller.onActivityResult(1, -1, null));
+
+        assertFalse(task.isCompleted());
+        verify(loginManager, never()).unregisterCallback(callbackManager);
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testAuthenticateAsyncCancel() {
@@ -394,5 +487,409 @@ public class FacebookControllerTest {
         assertTrue(task.isFaulted());
     }
 
+    @Test
+    public void testAuthenticateAsyncWithAlreadyGrantedPermissions() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(
+                newAccessTokenWithPermissions("public_profile", "email"));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Collection<String> permissions = new ArrayList<>();
+        permissions.add("email");
+        Task<Map<String, String>> task = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        assertTrue(task.isCompleted());
+        assertEquals("test_token", task.getResult().get("access_token"));
+        verify(facebookSdk, never()).createCallbackManager();
+        verifyNoMoreInteractions(loginManager);
+    }
+
+    @Test
+    public void testAuthenticateAsyncRequestsOnlyMissingPermissions() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(mock(CallbackManager.class));
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(
+                newAccessTokenWithPermissions("public_profile", "email"));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Activity activity = mock(Activity.class);
+        Collection<String> permissions = new ArrayList<>();
+        permissions.add("email");
+        permissions.add("user_friends");
+        Task<Map<String, String>> task = controller.authenticateAsync(
+                activity, null, FacebookController.LoginAuthorizationType.READ, permissions);
+        assertFalse(task.isCompleted());
+        List<String> missingPermissions = new ArrayList<>();
+        missingPermissions.add("user_friends");
+        verify(loginManager).logInWithReadPermissions(activity, missingPermissions);
+    }
+
+    private static AccessToken newAccessTokenWithPermissions(String... permissions) {
+        Set<String> permissionSet = new HashSet<>();
+        Collections.addAll(permissionSet, permissions);
+        return new AccessToken(
+                "test_token",
+                "test_application_id",
+                "test_id",
+                permissionSet,
+                null,
+                null,
+                AccessTokenSource.DEVICE_AUTH,
+                new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                new Date(),
+                null);
+    }
+
+    //region Session
+
+    @Test
+    public void testGetSessionBootstrapsFromCurrentAccessToken() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        AccessToken accessToken = newAccessTokenWithPermissions("public_profile", "email");
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(accessToken);
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        FacebookSession session = controller.getSession();
+        assertEquals("test_id", session.getUserId());
+        assertEquals("test_token", session.getToken());
+        assertEquals(accessToken.getExpires().getTime(), session.getExpiresAtMillis());
+        assertTrue(session.hasPermission("email"));
+        assertFalse(session.isLinked());
+        // Unchanged token, same snapshot.
+        assertTrue(session == controller.getSession());
+    }
+
+    @Test
+    public void testSetAuthDataPublishesSession() throws ParseException {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getApplicationId()).thenReturn("test_application_id");
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        authData.put("access_token", "test_token");
+        authData.put("expiration_date", "2015-07-03T07:00:00.000Z");
+        authData.put("last_refresh_date", "2015-07-03T07:00:00.000Z");
+        controller.setAuthData(authData);
+        FacebookSession session = controller.getSession();
+        assertEquals("test_token", session.getToken());
+        assertEquals(1435906800000L, session.getExpiresAtMillis());
+
+        controller.setAuthData(null);
+        verify(loginManager).logOut();
+        assertEquals(null, controller.getSession());
+    }
+
+    @Test
+    public void testSetSessionLinked() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(
+                newAccessTokenWithPermissions("public_profile"));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        FacebookSession unlinked = controller.getSession();
+        controller.setSessionLinked(true);
+        FacebookSession linked = controller.getSession();
+        assertTrue(linked.isLinked());
+        assertFalse(unlinked.isLinked());
+        assertEquals(unlinked.getToken(), linked.getToken());
+
+        // A refreshed token for the same user stays linked.
+        AccessToken refreshed = newAccessTokenWithPermissions("public_profile", "email");
+        controller.publishSession(refreshed);
+        assertTrue(controller.getSession().isLinked());
+        assertTrue(controller.getSession().hasPermission("email"));
+    }
+
+    @Test
+    public void testInstallSession() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getApplicationId()).thenReturn("test_application_id");
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        controller.installSession(new FacebookSession("test_id", "test_token", 1435906800000L,
+                1435900000000L, new String[] { "email" }, true));
+        ArgumentCaptor<AccessToken> accessTokenCaptor = ArgumentCaptor.forClass(AccessToken.class);
+        verify(facebookSdk).setCurrentAccessToken(accessTokenCaptor.capture());
+        AccessToken accessToken = accessTokenCaptor.getValue();
+        assertEquals("test_token", accessToken.getToken());
+        assertEquals("test_id", accessToken.getUserId());
+        assertEquals("test_application_id", accessToken.getApplicationId());
+        assertEquals(1435906800000L, accessToken.getExpires().getTime());
+        assertTrue(accessToken.getPermissions().contains("email"));
+        assertTrue(controller.getSession().isLinked());
+    }
+
+    @Test
+    public void testInstallSessionKeepsTokenOfAnotherUser() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(
+                newAccessTokenWithPermissions("public_profile"));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        controller.installSession(new FacebookSession("other_id", "other_token", 1435906800000L,
+                1435900000000L, new String[0], true));
+        verify(facebookSdk, never()).setCurrentAccessToken(any(AccessToken.class));
+        assertEquals("test_token", controller.getSession().getToken());
+        assertFalse(controller.getSession().isLinked());
+    }
+
+    @Test
+    public void testTrackAccessTokenRefreshesSession() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getCurrentAccessToken()).thenReturn(
+                newAccessTokenWithPermissions("public_profile"));
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.getSession();
+
+        FacebookController.AccessTokenListener listener =
+                mock(FacebookController.AccessTokenListener.class);
+        controller.trackAccessToken(listener);
+        ArgumentCaptor<FacebookController.AccessTokenListener> listenerCaptor =
+                ArgumentCaptor.forClass(FacebookController.AccessTokenListener.class);
+        verify(facebookSdk).createAccessTokenTracker(listenerCaptor.capture());
+
+        AccessToken refreshed = newAccessTokenWithPermissions("public_profile", "email");
+        listenerCaptor.getValue().onCurrentAccessTokenChanged(refreshed);
+        assertTrue(controller.getSession().hasPermission("email"));
+        verify(listener).onCurrentAccessTokenChanged(refreshed);
+    }
+
+    //endregion
+
+    @Test
+    public void testAuthenticateAsyncWhileInProgress() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getLoginManager()).thenReturn(mock(LoginManager.class));
+        when(facebookSdk.createCallbackManager()).thenReturn(mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Collection<String> permissions = new ArrayList<>();
+        Task<Map<String, String>> task = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        Task<Map<String, String>> secondTask = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        assertFalse(task.isCompleted());
+        assertTrue(secondTask.isFaulted());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAuthenticateAsyncReleasesLoginOnCompletion() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        CallbackManager callbackManager = mock(CallbackManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(callbackManager);
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        Collection<String> permissions = new ArrayList<>();
+        controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        ArgumentCaptor<FacebookCallback> callbackCapture =
+                ArgumentCaptor.forClass(FacebookCallback.class);
+        verify(loginManager).registerCallback(eq(callbackManager),
+                (FacebookCallback<LoginResult>) callbackCapture.capture());
+        callbackCapture.getValue().onCancel();
+        verify(loginManager).unregisterCallback(callbackManager);
+
+        // The released login no longer blocks a new one
+        Task<Map<String, String>> task = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        assertFalse(task.isCompleted());
+    }
+
+    @Test
+    public void testAuthenticateAsyncCancelsAbandonedLogin() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(
+                mock(CallbackManager.class), mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.setAbandonedLoginTimeoutMillis(0);
+
+        Collection<String> permissions = new ArrayList<>();
+        Task<Map<String, String>> abandonedTask = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        Task<Map<String, String>> task = controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        assertTrue(abandonedTask.isCancelled());
+        assertFalse(task.isCompleted());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAuthenticateAsyncUsesSelectedLoginBehavior() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        CallbackManager callbackManager = mock(CallbackManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(callbackManager);
+        when(loginManager.getLoginBehavior()).thenReturn(LoginBehavior.NATIVE_WITH_FALLBACK);
+        FacebookController controller = new FacebookController(facebookSdk);
+        LoginBehaviorSelector selector = new LoginBehaviorSelector(null);
+        selector.setOverride(LoginBehavior.WEB_ONLY);
+        controller.setLoginBehaviorSelector(selector);
+
+        Task<Map<String, String>> task = controller.authenticateAsync(mock(Activity.class), null,
+                FacebookController.LoginAuthorizationType.READ, new ArrayList<String>());
+        verify(loginManager).setLoginBehavior(LoginBehavior.WEB_ONLY);
+        ArgumentCaptor<FacebookCallback> callbackCapture =
+                ArgumentCaptor.forClass(FacebookCallback.class);
+        verify(loginManager).registerCallback(eq(callbackManager),
+                (FacebookCallback<LoginResult>) callbackCapture.capture());
+
+        LoginResult loginResult = mock(LoginResult.class);
+        when(loginResult.getAccessToken()).thenReturn(TestUtils.newAccessToken());
+        callbackCapture.getValue().onSuccess(loginResult);
+
+        assertTrue(task.isCompleted());
+        // The app's behavior is put back.
+        verify(loginManager).setLoginBehavior(LoginBehavior.NATIVE_WITH_FALLBACK);
+        LoginBehaviorStats stats = selector.getStats().get(LoginBehavior.WEB_ONLY);
+        assertEquals(1, stats.getSuccessCount());
+        assertEquals(0, stats.getFailureCount());
+    }
+
+    @Test
+    public void testAuthenticateAsyncRecordsAbandonedLogin() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        when(facebookSdk.getLoginManager()).thenReturn(mock(LoginManager.class));
+        when(facebookSdk.createCallbackManager()).thenReturn(
+                mock(CallbackManager.class), mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.setAbandonedLoginTimeoutMillis(0);
+        LoginBehaviorSelector selector = new LoginBehaviorSelector(null);
+        controller.setLoginBehaviorSelector(selector);
+
+        Collection<String> permissions = new ArrayList<>();
+        controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+        controller.authenticateAsync(
+                mock(Activity.class), null, FacebookController.LoginAuthorizationType.READ, permissions);
+
+        LoginBehaviorStats stats =
+                selector.getStats().get(LoginBehavior.NATIVE_WITH_FALLBACK);
+        assertEquals(1, stats.getFailureCount());
+    }
+
+    @Test
+    public void testAuthenticateAsyncWithoutSelectorKeepsLoginBehavior() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        controller.authenticateAsync(mock(Activity.class), null,
+                FacebookController.LoginAuthorizationType.READ, new ArrayList<String>());
+
+        verify(loginManager, never()).setLoginBehavior(any(LoginBehavior.class));
+    }
+
+    @Test
+    public void testPrewarm() {
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        when(facebookSdk.createCallbackManager()).thenReturn(mock(CallbackManager.class));
+        FacebookController controller = new FacebookController(facebookSdk);
+
+        controller.prewarm();
+
+        verify(facebookSdk).getLoginManager();
+        verify(facebookSdk).createCallbackManager();
+        // Nothing is registered and no login is started.
+        verifyNoMoreInteractions(loginManager);
+    }
+
+    @Test
+    public void testAbandonedLoginsDoNotRetainActivities() {
+        final int logins = 2000;
+
+        FacebookController.FacebookSdkDelegate facebookSdk =
+                mock(FacebookController.FacebookSdkDelegate.class);
+        LoginManager loginManager = mock(LoginManager.class);
+        when(facebookSdk.getLoginManager()).thenReturn(loginManager);
+        FacebookController controller = new FacebookController(facebookSdk);
+        controller.setAbandonedLoginTimeoutMillis(0);
+
+        Collection<String> permissions = new ArrayList<>();
+        List<WeakReference<Activity>> activityRefs = new ArrayList<>();
+        for (int i = 0; i < logins; i++) {
+            when(facebookSdk.createCallbackManager()).thenReturn(new NoOpCallbackManager());
+            Activity activity = mock(Activity.class);
+            activityRefs.add(new WeakReference<>(activity));
+            // Mimic an app callback that closes over its Activity, which is what keeps an
+            // abandoned login's Activity reachable.
+            controller.authenticateAsync(
+                    activity, null, FacebookController.LoginAuthorizationType.READ, permissions)
+                    .continueWith(new ActivityHoldingContinuation(activity));
+            // Drop the mock's own record of the invocations, which would otherwise hold every
+            // Activity we passed in.
+            reset(loginManager);
+        }
+        reset(facebookSdk);
+
+        int retained = 0;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            System.gc();
+            retained = 0;
+            for (WeakReference<Activity> ref : activityRefs) {
+                if (ref.get() != null) {
+                    retained++;
+                }
+            }
+            // Only the most recent login is still legitimately in flight.
+            if (retained <= 1) {
+                break;
+            }
+        }
+        assertTrue("Abandoned logins retained " + retained + " activities", retained <= 1);
+    }
+
+    private static class NoOpCallbackManager implements CallbackManager {
+        @Override
+        public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
+            return false;
+        }
+    }
+
+    private static class ActivityHoldingContinuation
+            implements Continuation<Map<String, String>, Void> {
+        private final Activity activity;
+
+        ActivityHoldingContinuation(Activity activity) {
+            this.activity = activity;
+        }
+
+        @Override
+        public Void then(Task<Map<String, String>> task) throws Exception {
+            return null;
+        }
+    }
+
     //endregion
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FacebookSessionCodecTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        FacebookSession session = new FacebookSession("test_id", "test_token", 1435906800000L,
+                1435900000000L, new String[] { "custom_permission", "email", "public_profile" },
+                true);
+
+        FacebookSession decoded = FacebookSessionCodec.decode(FacebookSessionCodec.encode(session));
+        assertEquals("test_id", decoded.getUserId());
+        assertEquals("test_token", decoded.getToken());
+        assertEquals(1435906800000L, decoded.getExpiresAtMillis());
+        assertEquals(1435900000000L, decoded.getLastRefreshMillis());
+        assertEquals(Arrays.asList("custom_permission", "email", "public_profile"),
+                decoded.getPermissions());
+        assertTrue(decoded.isLinked());
+    }
+
+    @Test
+    public void testKnownPermissionsAreBits() throws IOException {
+        FacebookSession withoutPermissions = new FacebookSession(
+                "test_id", "test_token", 0, 0, new String[0], false);
+        FacebookSession withPermissions = new FacebookSession("test_id", "test_token", 0, 0,
+                new String[] { "email", "public_profile", "user_friends" }, false);
+
+        assertEquals(FacebookSessionCodec.encode(withoutPermissions).length,
+                FacebookSessionCodec.encode(withPermissions).length);
+    }
+
+    @Test
+    public void testNull() throws IOException {
+        assertEquals(0, FacebookSessionCodec.encode(null).length);
+        assertNull(FacebookSessionCodec.decode(new byte[0]));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeRejectsUnknownFormat() throws IOException {
+        byte[] payload = FacebookSessionCodec.encode(new FacebookSession(
+                "test_id", "test_token", 0, 0, new String[0], false));
+        payload[0] = 42;
+        FacebookSessionCodec.decode(payload);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeRejectsTruncatedPayload() throws IOException {
+        byte[] payload = FacebookSessionCodec.encode(new FacebookSession(
+                "test_id", "test_token", 0, 0, new String[0], false));
+        FacebookSessionCodec.decode(payload, payload.length - 1);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class FacebookSessionTest {
+
+    @Test
+    public void testFromAccessToken() {
+        AccessToken accessToken = newAccessToken("test_token", "user_friends", "email");
+        FacebookSession session = FacebookSession.fromAccessToken(accessToken, true);
+
+        assertEquals("test_id", session.getUserId());
+        assertEquals("test_token", session.getToken());
+        assertEquals(1435906800000L, session.getExpiresAtMillis());
+        assertEquals(1435900000000L, session.getLastRefreshMillis());
+        assertEquals(Arrays.asList("email", "user_friends"), session.getPermissions());
+        assertTrue(session.isLinked());
+        assertTrue(session.isExpired());
+    }
+
+    @Test
+    public void testHasPermission() {
+        FacebookSession session = FacebookSession.fromAccessToken(
+                newAccessToken("test_token", "public_profile", "email"), false);
+
+        assertTrue(session.hasPermission("email"));
+        assertTrue(session.hasPermission("public_profile"));
+        assertFalse(session.hasPermission("user_friends"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPermissionsAreUnmodifiable() {
+        FacebookSession session = FacebookSession.fromAccessToken(
+                newAccessToken("test_token", "email"), false);
+        session.getPermissions().set(0, "user_friends");
+    }
+
+    @Test
+    public void testWithLinked() {
+        FacebookSession session = FacebookSession.fromAccessToken(
+                newAccessToken("test_token", "email"), false);
+
+        assertSame(session, session.withLinked(false));
+        FacebookSession linked = session.withLinked(true);
+        assertTrue(linked.isLinked());
+        assertFalse(session.isLinked());
+        assertEquals(session.getToken(), linked.getToken());
+        assertEquals(session.getPermissions(), linked.getPermissions());
+    }
+
+    @Test
+    public void testHasSameToken() {
+        FacebookSession session = FacebookSession.fromAccessToken(
+                newAccessToken("test_token", "email"), false);
+
+        assertTrue(session.hasSameToken(newAccessToken("test_token", "email")));
+        assertFalse(session.hasSameToken(newAccessToken("new_token", "email")));
+        assertFalse(session.hasSameToken(newAccessToken("test_token", "email", "user_friends")));
+        assertFalse(session.hasSameToken(newAccessToken("test_token", "user_friends")));
+    }
+
+    private static AccessToken newAccessToken(String token, String... permissions) {
+        Set<String> permissionSet = new HashSet<>();
+        Collections.addAll(permissionSet, permissions);
+        return new AccessToken(
+                token,
+                "test_application_id",
+                "test_id",
+                permissionSet,
+                null,
+                null,
+                AccessTokenSource.DEVICE_AUTH,
+                new Date(1435906800000L),
+                new Date(1435900000000L),
+                null);
+    }
+}
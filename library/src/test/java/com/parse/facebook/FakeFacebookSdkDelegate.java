@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.content.Context;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenTracker;
+import com.facebook.CallbackManager;
+import com.facebook.login.LoginManager;
+
+/**
+ * Hand-rolled {@link FacebookController.FacebookSdkDelegate} for tests where mock invocation
+ * bookkeeping would skew the measurement, e.g. allocation and load tests.
+ */
+class FakeFacebookSdkDelegate implements FacebookController.FacebookSdkDelegate {
+    volatile AccessToken currentAccessToken;
+
+    @Override
+    public void initialize(Context context, int callbackRequestCodeOffset) {
+        // do nothing
+    }
+
+    @Override
+    public String getApplicationId() {
+        return "test_application_id";
+    }
+
+    @Override
+    public AccessToken getCurrentAccessToken() {
+        return currentAccessToken;
+    }
+
+    @Override
+    public void setCurrentAccessToken(AccessToken token) {
+        currentAccessToken = token;
+    }
+
+    @Override
+    public CallbackManager createCallbackManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LoginManager getLoginManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AccessTokenTracker createAccessTokenTracker(
+            FacebookController.AccessTokenListener listener) {
+        throw new UnsupportedOperationException();
+    }
+}
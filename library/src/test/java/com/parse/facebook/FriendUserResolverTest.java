@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseUser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class FriendUserResolverTest {
+
+    private static final long TTL = 1000;
+
+    private FakeDelegate delegate;
+    private FriendUserResolver resolver;
+    private long now;
+
+    @Before
+    public void setUp() {
+        delegate = new FakeDelegate();
+        resolver = new FriendUserResolver(delegate, TTL) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        now = 10000;
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        ParseUser user = delegate.addUser("fb_1", "user_1");
+        delegate.addUser("fb_3", "user_3");
+
+        Map<String, ParseUser> users = resolve("fb_1", "fb_2");
+
+        assertEquals(1, users.size());
+        assertSame(user, users.get("fb_1"));
+        assertEquals(Collections.singletonList(Arrays.asList("fb_1", "fb_2")), delegate.queries);
+    }
+
+    @Test
+    public void testOnlyMissesAreQueried() throws Exception {
+        delegate.addUser("fb_1", "user_1");
+        resolve("fb_1", "fb_2");
+
+        delegate.addUser("fb_3", "user_3");
+        Map<String, ParseUser> users = resolve("fb_1", "fb_2", "fb_3");
+
+        assertEquals(2, delegate.queries.size());
+        assertEquals(Collections.singletonList("fb_3"), delegate.queries.get(1));
+        assertEquals(2, users.size());
+        // Resolved from the cache.
+        assertEquals("user_1", users.get("fb_1").getObjectId());
+        assertTrue(users.containsKey("fb_3"));
+        assertFalse(users.containsKey("fb_2"));
+    }
+
+    @Test
+    public void testExpiredIdsAreQueriedAgain() throws Exception {
+        resolve("fb_1");
+        delegate.addUser("fb_1", "user_1");
+
+        now += TTL - 1;
+        assertTrue(resolve("fb_1").isEmpty());
+
+        now += 1;
+        assertEquals("user_1", resolve("fb_1").get("fb_1").getObjectId());
+        assertEquals(2, delegate.queries.size());
+    }
+
+    @Test
+    public void testIdsAreQueriedInChunks() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < FriendUserResolver.CHUNK_SIZE * 2 + 1; i++) {
+            ids.add("fb_" + i);
+        }
+        delegate.addUser("fb_0", "user_0");
+        delegate.addUser("fb_200", "user_200");
+
+        Task<Map<String, ParseUser>> task = resolver.resolveAsync(ids);
+        task.waitForCompletion();
+
+        assertEquals(3, resolver.getQueryCount());
+        assertEquals(FriendUserResolver.CHUNK_SIZE, delegate.queries.get(0).size());
+        assertEquals(1, delegate.queries.get(2).size());
+        assertEquals(2, task.getResult().size());
+    }
+
+    @Test
+    public void testDuplicateIdsAreQueriedOnce() throws Exception {
+        resolve("fb_1", "fb_1");
+
+        assertEquals(Collections.singletonList(Collections.singletonList("fb_1")),
+                delegate.queries);
+    }
+
+    @Test
+    public void testFailedQueryIsNotCached() throws Exception {
+        Exception error = new Exception("offline");
+        delegate.error = error;
+        Task<Map<String, ParseUser>> task = resolver.resolveAsync(Collections.singletonList("fb_1"));
+        task.waitForCompletion();
+        assertSame(error, task.getError());
+
+        delegate.error = null;
+        resolve("fb_1");
+        assertEquals(2, delegate.queries.size());
+    }
+
+    @Test
+    public void testUsersWithHiddenAuthDataAreMatchedByNarrowingTheIds() throws Exception {
+        ParseUser user = delegate.addUserWithHiddenAuthData("fb_1", "user_1");
+
+        Map<String, ParseUser> users = resolve("fb_1", "fb_2", "fb_3", "fb_4");
+
+        assertEquals(1, users.size());
+        assertSame(user, users.get("fb_1"));
+        // [1, 2, 3, 4], [1, 2], [3, 4], [1], [2]
+        assertEquals(5, delegate.queries.size());
+        assertTrue(delegate.queries.contains(Collections.singletonList("fb_1")));
+    }
+
+    @Test
+    public void testNarrowedIdsAreCached() throws Exception {
+        delegate.addUserWithHiddenAuthData("fb_1", "user_1");
+        resolve("fb_1", "fb_2", "fb_3", "fb_4");
+
+        Map<String, ParseUser> users = resolve("fb_1", "fb_2", "fb_3", "fb_4");
+
+        assertEquals(1, users.size());
+        assertEquals("user_1", users.get("fb_1").getObjectId());
+        assertEquals(5, delegate.queries.size());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        resolve("fb_1");
+        resolver.clear();
+        resolve("fb_1");
+
+        assertEquals(2, delegate.queries.size());
+    }
+
+    private Map<String, ParseUser> resolve(String... facebookIds) throws Exception {
+        Task<Map<String, ParseUser>> task = resolver.resolveAsync(Arrays.asList(facebookIds));
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private static class FakeDelegate implements FriendUserResolver.Delegate {
+        final List<List<String>> queries = Collections.synchronizedList(new ArrayList<List<String>>());
+        final Map<String, ParseUser> usersByFacebookId = new HashMap<>();
+        final Map<ParseUser, String> facebookIds = new HashMap<>();
+        Exception error;
+
+        ParseUser addUser(String facebookId, String objectId) {
+            ParseUser user = newUser(objectId);
+            usersByFacebookId.put(facebookId, user);
+            facebookIds.put(user, facebookId);
+            return user;
+        }
+
+        // Like Parse Server does for other users' records without the master key.
+        ParseUser addUserWithHiddenAuthData(String facebookId, String objectId) {
+            ParseUser user = newUser(objectId);
+            usersByFacebookId.put(facebookId, user);
+            return user;
+        }
+
+        @Override
+        public Task<List<ParseUser>> findUsersAsync(List<String> ids) {
+            queries.add(new ArrayList<>(ids));
+            if (error != null) {
+                return Task.forError(error);
+            }
+            List<ParseUser> users = new ArrayList<>();
+            for (String id : ids) {
+                if (usersByFacebookId.containsKey(id)) {
+                    users.add(usersByFacebookId.get(id));
+                }
+            }
+            return Task.forResult(users);
+        }
+
+        @Override
+        public String getFacebookId(ParseUser user) {
+            return facebookIds.get(user);
+        }
+
+        @Override
+        public ParseUser createWithoutData(String objectId) {
+            return newUser(objectId);
+        }
+
+        private static ParseUser newUser(String objectId) {
+            ParseUser user = mock(ParseUser.class);
+            when(user.getObjectId()).thenReturn(objectId);
+            return user;
+        }
+    }
+}
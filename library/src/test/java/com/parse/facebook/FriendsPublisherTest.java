@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class FriendsPublisherTest {
+
+    private static final String FIRST_PAGE = "{"
+            + "\"data\":[{\"id\":\"1\",\"name\":\"One\"},{\"id\":\"2\",\"name\":\"Two\"}],"
+            + "\"paging\":{\"cursors\":{\"before\":\"b1\",\"after\":\"a1\"},"
+            + "\"next\":\"https://graph.facebook.com/v5.0/me/friends?after=a1\"},"
+            + "\"summary\":{\"total_count\":3}}";
+    private static final String LAST_PAGE = "{"
+            + "\"data\":[{\"id\":\"3\",\"name\":\"Three\",\"picture\":{\"data\":{}}}],"
+            + "\"paging\":{\"cursors\":{\"before\":\"b2\",\"after\":\"a2\"}}}";
+
+    @Test
+    public void testParsePage() throws Exception {
+        FriendsPublisher.Page page = FriendsPublisher.parsePage(FIRST_PAGE);
+        assertEquals(2, page.friends.size());
+        assertEquals("1", page.friends.get(0).getId());
+        assertEquals("Two", page.friends.get(1).getName());
+        assertEquals("a1", page.after);
+
+        page = FriendsPublisher.parsePage(LAST_PAGE);
+        assertEquals(1, page.friends.size());
+        assertEquals("Three", page.friends.get(0).getName());
+        assertNull(page.after);
+
+        page = FriendsPublisher.parsePage("{\"data\":[{\"id\":\"4\",\"name\":null}]}");
+        assertNull(page.friends.get(0).getName());
+        assertNull(page.after);
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseMalformedPage() throws Exception {
+        FriendsPublisher.parsePage("{\"data\":{}}");
+    }
+
+    @Test
+    public void testNothingIsFetchedUntilRequested() {
+        FakeGraphClient client = new FakeGraphClient();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(client, "test_token", 2).subscribe(subscriber);
+
+        assertEquals(0, client.requests.size());
+
+        subscriber.subscription.request(1);
+
+        assertEquals(1, client.requests.size());
+        GraphClient.Request request = client.requests.get(0);
+        assertEquals("me/friends", request.getPath());
+        assertEquals("2", request.getParameters().get("limit"));
+        assertEquals("id,name", request.getParameters().get("fields"));
+        assertFalse(request.getParameters().containsKey("after"));
+        assertEquals("test_token", request.getAccessToken());
+    }
+
+    @Test
+    public void testNextPageIsPrefetchedWhileDelivering() {
+        FakeGraphClient client = new FakeGraphClient();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(client, "test_token", 2).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        client.respond(0, FIRST_PAGE);
+
+        assertEquals(1, subscriber.friends.size());
+        assertEquals("1", subscriber.friends.get(0).getId());
+        // The second page is on its way before the first one has been consumed.
+        assertEquals(2, client.requests.size());
+        assertEquals("a1", client.requests.get(1).getParameters().get("after"));
+
+        subscriber.subscription.request(1);
+        assertEquals(2, subscriber.friends.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.friends.size());
+        client.respond(1, LAST_PAGE);
+
+        assertEquals(3, subscriber.friends.size());
+        assertEquals("Three", subscriber.friends.get(2).getName());
+        assertTrue(subscriber.completed);
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    public void testBufferedFriendsAreDeliveredBeforeError() {
+        FakeGraphClient client = new FakeGraphClient();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(client, "test_token", 2).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        client.respond(0, FIRST_PAGE);
+
+        IOException error = new IOException("offline");
+        client.fail(1, error);
+        assertNull(subscriber.error);
+
+        subscriber.subscription.request(5);
+
+        assertEquals(2, subscriber.friends.size());
+        assertSame(error, subscriber.error);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testCancel() {
+        FakeGraphClient client = new FakeGraphClient();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(client, "test_token", 2).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        subscriber.subscription.cancel();
+        client.respond(0, FIRST_PAGE);
+
+        assertEquals(0, subscriber.friends.size());
+        assertEquals(1, client.requests.size());
+    }
+
+    @Test
+    public void testNoSession() {
+        FakeGraphClient client = new FakeGraphClient();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(client, null, 2).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertEquals(0, client.requests.size());
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new FriendsPublisher(new FakeGraphClient(), "test_token", 2).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    private static class FakeGraphClient implements GraphClient {
+        final List<Request> requests = new ArrayList<>();
+        final List<Task<Response>.TaskCompletionSource> pending = new ArrayList<>();
+
+        @Override
+        public Task<Response> getAsync(Request request) {
+            requests.add(request);
+            Task<Response>.TaskCompletionSource tcs = Task.create();
+            pending.add(tcs);
+            return tcs.getTask();
+        }
+
+        void respond(int index, String body) {
+            pending.get(index).setResult(new Response(200, body, null));
+        }
+
+        void fail(int index, Exception error) {
+            pending.get(index).setError(error);
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<FacebookFriend> {
+        final List<FacebookFriend> friends = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(FacebookFriend friend) {
+            friends.add(friend);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
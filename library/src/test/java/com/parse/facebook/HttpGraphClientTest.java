@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link HttpGraphClient} against a local stand-in for the Graph API.
+ */
+public class HttpGraphClientTest {
+
+    private static final String PROFILE = "{\"id\":\"test_id\",\"name\":\"Test\"}";
+    private static final String ETAG = "\"profile-v1\"";
+
+    private HttpServer server;
+    private HttpGraphClient client;
+    private volatile String lastQuery;
+    private volatile String lastMethod;
+    private volatile String lastBody;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v5.0/me", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                lastQuery = exchange.getRequestURI().getRawQuery();
+                if (!lastQuery.contains("access_token=test_token")) {
+                    respond(exchange, 400, "{\"error\":{\"message\":\"Invalid token\"}}");
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                respond(exchange, 200, PROFILE);
+            }
+        });
+        server.createContext("/v5.0", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                lastMethod = exchange.getRequestMethod();
+                lastBody = new Scanner(exchange.getRequestBody(), "UTF-8")
+                        .useDelimiter("\\A").next();
+                respond(exchange, 200, "[{\"code\":200,\"body\":\"{}\"}]");
+            }
+        });
+        server.start();
+        client = new HttpGraphClient(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v5.0/");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        Task<GraphClient.Response> task = client.getAsync(newRequest("test_token"));
+        task.waitForCompletion();
+
+        GraphClient.Response response = task.getResult();
+        assertEquals(200, response.getStatusCode());
+        assertEquals(PROFILE, response.getBody());
+        assertEquals(ETAG, response.getETag());
+        assertEquals("fields=id%2Cname&locale=en_US&access_token=test_token", lastQuery);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        Task<GraphClient.Response> task =
+                client.getAsync(newRequest("test_token").withETag(ETAG));
+        task.waitForCompletion();
+
+        GraphClient.Response response = task.getResult();
+        assertTrue(response.isNotModified());
+        assertNull(response.getBody());
+        assertEquals(ETAG, response.getETag());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        Task<GraphClient.Response> task = client.getAsync(newRequest("bad_token"));
+        task.waitForCompletion();
+
+        assertTrue(task.getError() instanceof GraphClient.GraphException);
+        GraphClient.GraphException error = (GraphClient.GraphException) task.getError();
+        assertEquals(400, error.getStatusCode());
+        assertTrue(error.getBody().contains("Invalid token"));
+    }
+
+    @Test
+    public void testPostBatch() throws Exception {
+        Task<String> task = client.postBatchAsync("test_token", "[{\"method\":\"GET\"}]");
+        task.waitForCompletion();
+
+        assertEquals("[{\"code\":200,\"body\":\"{}\"}]", task.getResult());
+        assertEquals("POST", lastMethod);
+        assertEquals("include_headers=true"
+                + "&batch=%5B%7B%22method%22%3A%22GET%22%7D%5D"
+                + "&access_token=test_token", lastBody);
+    }
+
+    @Test
+    public void testRelativeUrlIsStable() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("locale", "en_US");
+        parameters.put("fields", "id,name");
+        assertEquals("me?fields=id%2Cname&locale=en_US",
+                new GraphClient.Request("me", parameters, "test_token").getRelativeUrl());
+        assertEquals("me", new GraphClient.Request("me", null, "test_token").getRelativeUrl());
+    }
+
+    private static GraphClient.Request newRequest(String accessToken) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("fields", "id,name");
+        parameters.put("locale", "en_US");
+        return new GraphClient.Request("me", parameters, accessToken);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.login.LoginBehavior;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoginBehaviorSelectorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LoginBehaviorSelector selector;
+
+    @Before
+    public void setUp() {
+        selector = new LoginBehaviorSelector(null);
+    }
+
+    @Test
+    public void testStartsWithPreferredBehavior() {
+        assertEquals(LoginBehavior.NATIVE_WITH_FALLBACK, selector.select());
+    }
+
+    @Test
+    public void testMovesOnFromUnreliableBehavior() {
+        record(LoginBehavior.NATIVE_WITH_FALLBACK, LoginBehaviorSelector.Outcome.FAILED, 3);
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+
+        record(LoginBehavior.WEB_ONLY, LoginBehaviorSelector.Outcome.SUCCEEDED, 3);
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+    }
+
+    @Test
+    public void testCancellationsDoNotCount() {
+        record(LoginBehavior.NATIVE_WITH_FALLBACK, LoginBehaviorSelector.Outcome.CANCELLED, 5);
+        assertEquals(LoginBehavior.NATIVE_WITH_FALLBACK, selector.select());
+
+        LoginBehaviorStats stats = selector.getStats().get(LoginBehavior.NATIVE_WITH_FALLBACK);
+        assertEquals(5, stats.getCancellationCount());
+        assertEquals(0, stats.getSuccessRate(), 0);
+    }
+
+    @Test
+    public void testPicksFastestReliableBehavior() {
+        recordSuccesses(LoginBehavior.NATIVE_WITH_FALLBACK, 3, 9000);
+        recordSuccesses(LoginBehavior.WEB_ONLY, 3, 4000);
+        recordSuccesses(LoginBehavior.WEB_VIEW_ONLY, 3, 6000);
+
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+    }
+
+    @Test
+    public void testSkipsFastButUnreliableBehavior() {
+        recordSuccesses(LoginBehavior.NATIVE_WITH_FALLBACK, 4, 9000);
+        recordSuccesses(LoginBehavior.WEB_ONLY, 3, 4000);
+        record(LoginBehavior.WEB_ONLY, LoginBehaviorSelector.Outcome.ABANDONED, 1);
+        recordSuccesses(LoginBehavior.WEB_VIEW_ONLY, 3, 6000);
+
+        // 3 of 4 is below the minimum success rate.
+        assertEquals(LoginBehavior.WEB_VIEW_ONLY, selector.select());
+    }
+
+    @Test
+    public void testExploresUnmeasuredBehavior() {
+        recordSuccesses(LoginBehavior.NATIVE_WITH_FALLBACK, 3, 9000);
+
+        for (int i = 1; i < LoginBehaviorSelector.EXPLORATION_INTERVAL; i++) {
+            assertEquals(LoginBehavior.NATIVE_WITH_FALLBACK, selector.select());
+        }
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+    }
+
+    @Test
+    public void testAllUnreliablePicksMostReliable() {
+        record(LoginBehavior.NATIVE_WITH_FALLBACK, LoginBehaviorSelector.Outcome.FAILED, 3);
+        record(LoginBehavior.WEB_ONLY, LoginBehaviorSelector.Outcome.FAILED, 2);
+        recordSuccesses(LoginBehavior.WEB_ONLY, 1, 1000);
+        record(LoginBehavior.WEB_VIEW_ONLY, LoginBehaviorSelector.Outcome.FAILED, 3);
+
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+    }
+
+    @Test
+    public void testOverride() {
+        recordSuccesses(LoginBehavior.WEB_ONLY, 3, 1000);
+        selector.setOverride(LoginBehavior.DIALOG_ONLY);
+        assertEquals(LoginBehavior.DIALOG_ONLY, selector.select());
+
+        selector.setOverride(null);
+        assertEquals(LoginBehavior.WEB_ONLY, selector.select());
+    }
+
+    @Test
+    public void testAverageLatencyFavorsRecentLogins() {
+        recordSuccesses(LoginBehavior.WEB_ONLY, 1, 1000);
+        recordSuccesses(LoginBehavior.WEB_ONLY, 1, 2000);
+
+        assertEquals(1300,
+                selector.getStats().get(LoginBehavior.WEB_ONLY).getAverageLatencyMillis());
+    }
+
+    @Test
+    public void testStatsArePersisted() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "stats");
+        selector = new LoginBehaviorSelector(file);
+        recordSuccesses(LoginBehavior.WEB_ONLY, 3, 4000);
+        record(LoginBehavior.WEB_ONLY, LoginBehaviorSelector.Outcome.CANCELLED, 1);
+        selector.getWriteTask().waitForCompletion();
+        assertTrue(file.exists());
+
+        LoginBehaviorSelector loaded = new LoginBehaviorSelector(file);
+        loaded.getLoadTask().waitForCompletion();
+        LoginBehaviorStats stats = loaded.getStats().get(LoginBehavior.WEB_ONLY);
+        assertEquals(3, stats.getSuccessCount());
+        assertEquals(1, stats.getCancellationCount());
+        assertEquals(4000, stats.getAverageLatencyMillis());
+    }
+
+    @Test
+    public void testCorruptStatsAreIgnored() throws Exception {
+        File file = temporaryFolder.newFile("stats");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 5, 1});
+        out.close();
+
+        LoginBehaviorSelector loaded = new LoginBehaviorSelector(file);
+        loaded.getLoadTask().waitForCompletion();
+        assertTrue(loaded.getStats().isEmpty());
+    }
+
+    private void record(LoginBehavior behavior, LoginBehaviorSelector.Outcome outcome,
+                        int count) {
+        for (int i = 0; i < count; i++) {
+            selector.record(behavior, outcome, 5000);
+        }
+    }
+
+    private void recordSuccesses(LoginBehavior behavior, int count, long latencyMillis) {
+        for (int i = 0; i < count; i++) {
+            selector.record(behavior, LoginBehaviorSelector.Outcome.SUCCEEDED, latencyMillis);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginCircuitBreakerTest {
+
+    private long nowNanos;
+
+    private LoginCircuitBreaker newBreaker(int failureThreshold, long openDurationMillis) {
+        return new LoginCircuitBreaker(failureThreshold, openDurationMillis) {
+            @Override
+            long nanoTime() {
+                return nowNanos;
+            }
+        };
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        LoginCircuitBreaker breaker = newBreaker(2, 1000);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LoginCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LoginCircuitBreaker.State.OPEN, breaker.getState());
+
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        LoginCircuitBreaker breaker = newBreaker(2, 1000);
+
+        breaker.tryAcquire();
+        breaker.onFailure();
+        breaker.tryAcquire();
+        breaker.onSuccess();
+        breaker.tryAcquire();
+        breaker.onFailure();
+        assertEquals(LoginCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testHalfOpenAllowsSingleTrial() {
+        LoginCircuitBreaker breaker = newBreaker(1, 1000);
+        breaker.tryAcquire();
+        breaker.onFailure();
+
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(LoginCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(LoginCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailedTrialReopens() {
+        LoginCircuitBreaker breaker = newBreaker(1, 1000);
+        breaker.tryAcquire();
+        breaker.onFailure();
+
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(1000);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LoginCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testListener() {
+        final List<LoginCircuitBreaker.State> states = new ArrayList<>();
+        LoginCircuitBreaker breaker = newBreaker(1, 0);
+        breaker.setListener(new LoginCircuitBreaker.Listener() {
+            @Override
+            public void onStateChanged(LoginCircuitBreaker breaker, LoginCircuitBreaker.State state) {
+                states.add(state);
+            }
+        });
+
+        breaker.tryAcquire();
+        breaker.onFailure();
+        breaker.tryAcquire();
+        breaker.onSuccess();
+        assertEquals(3, states.size());
+        assertEquals(LoginCircuitBreaker.State.OPEN, states.get(0));
+        assertEquals(LoginCircuitBreaker.State.HALF_OPEN, states.get(1));
+        assertEquals(LoginCircuitBreaker.State.CLOSED, states.get(2));
+    }
+
+    @Test
+    public void testIsFailure() {
+        LoginCircuitBreaker breaker = new LoginCircuitBreaker(1, 0);
+        assertTrue(breaker.isFailure(new ParseException(ParseException.CONNECTION_FAILED, "")));
+        assertTrue(breaker.isFailure(new ParseException(ParseException.INTERNAL_SERVER_ERROR, "")));
+        assertFalse(breaker.isFailure(
+                new ParseException(ParseException.INVALID_SESSION_TOKEN, "")));
+    }
+}
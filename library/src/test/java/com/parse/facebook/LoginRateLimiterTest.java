@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginRateLimiterTest {
+
+    private long nowNanos;
+
+    private LoginRateLimiter newLimiter(int capacity, double permitsPerSecond) {
+        return new LoginRateLimiter(capacity, permitsPerSecond) {
+            @Override
+            long nanoTime() {
+                return nowNanos;
+            }
+        };
+    }
+
+    @Test
+    public void testBurstUpToCapacity() {
+        LoginRateLimiter limiter = newLimiter(3, 1);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testRefill() {
+        LoginRateLimiter limiter = newLimiter(2, 2);
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+        assertEquals(0, limiter.getAvailablePermits());
+
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(1, limiter.getAvailablePermits());
+
+        // Never refills past capacity
+        nowNanos += TimeUnit.SECONDS.toNanos(10);
+        assertEquals(2, limiter.getAvailablePermits());
+    }
+}
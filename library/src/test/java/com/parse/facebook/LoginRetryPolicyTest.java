@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginRetryPolicyTest {
+
+    @Test
+    public void testBackoffGrowsExponentiallyUpToMax() {
+        LoginRetryPolicy policy = new LoginRetryPolicy(5, 100, 500, 0);
+        assertEquals(100, policy.getBackoffMillis(1));
+        assertEquals(200, policy.getBackoffMillis(2));
+        assertEquals(400, policy.getBackoffMillis(3));
+        assertEquals(500, policy.getBackoffMillis(4));
+    }
+
+    @Test
+    public void testBackoffJitter() {
+        LoginRetryPolicy policy = new LoginRetryPolicy(5, 1000, 1000, 0.5, new Random(42));
+        for (int i = 0; i < 100; i++) {
+            long backoff = policy.getBackoffMillis(1);
+            assertTrue("Backoff " + backoff + " out of range", backoff >= 500 && backoff <= 1000);
+        }
+    }
+
+    @Test
+    public void testIsRetryable() {
+        LoginRetryPolicy policy = new LoginRetryPolicy(3, 0, 0, 0);
+        assertTrue(policy.isRetryable(new ParseException(ParseException.CONNECTION_FAILED, "")));
+        assertTrue(policy.isRetryable(new ParseException(ParseException.TIMEOUT, "")));
+        assertTrue(policy.isRetryable(new IOException()));
+        assertFalse(policy.isRetryable(
+                new ParseException(ParseException.INVALID_SESSION_TOKEN, "")));
+        assertFalse(policy.isRetryable(new RuntimeException()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxAttempts() {
+        new LoginRetryPolicy(0, 0, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidJitter() {
+        new LoginRetryPolicy(1, 0, 0, 2);
+    }
+}
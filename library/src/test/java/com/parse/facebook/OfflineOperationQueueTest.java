@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.parse.ParseException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class OfflineOperationQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(temporaryFolder.getRoot(), "pendingOperations");
+    }
+
+    private static OfflineOperationQueue.PendingOperation logIn(String token) {
+        return new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.LOG_IN, null, authData(token));
+    }
+
+    private static OfflineOperationQueue.PendingOperation link(String objectId, String token) {
+        return new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.LINK, objectId, authData(token));
+    }
+
+    private static Map<String, String> authData(String token) {
+        return Collections.singletonMap("access_token", token);
+    }
+
+    @Test
+    public void testEnqueueCollapsesRepeatedOperations() {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(logIn("first"));
+        queue.enqueue(link("user", "link"));
+        queue.enqueue(logIn("second"));
+
+        List<OfflineOperationQueue.PendingOperation> operations = queue.getPendingOperations();
+        assertEquals(2, operations.size());
+        assertEquals(OfflineOperationQueue.OperationType.LINK, operations.get(0).getType());
+        assertEquals("second", operations.get(1).getAuthData().get("access_token"));
+    }
+
+    @Test
+    public void testRemoveAuthOperationsKeepsUnlinks() {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(logIn("token"));
+        queue.enqueue(link("user", "token"));
+        queue.enqueue(new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.UNLINK, "otherUser", null));
+
+        queue.removeAuthOperations();
+
+        List<OfflineOperationQueue.PendingOperation> operations =
+                new OfflineOperationQueue(file).getPendingOperations();
+        assertEquals(1, operations.size());
+        assertEquals(OfflineOperationQueue.OperationType.UNLINK, operations.get(0).getType());
+    }
+
+    @Test
+    public void testRemoveKeepsOtherOperations() {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(logIn("second"));
+        queue.enqueue(link("user", "token"));
+
+        // A log in with older auth data succeeded; the newer one still has to be replayed.
+        queue.remove(logIn("first"));
+        queue.remove(link("user", "token"));
+
+        List<OfflineOperationQueue.PendingOperation> operations =
+                new OfflineOperationQueue(file).getPendingOperations();
+        assertEquals(1, operations.size());
+        assertEquals("second", operations.get(0).getAuthData().get("access_token"));
+    }
+
+    @Test
+    public void testPersistence() {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(link("user", "token"));
+        queue.enqueue(new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.UNLINK, "otherUser", null));
+
+        List<OfflineOperationQueue.PendingOperation> operations =
+                new OfflineOperationQueue(file).getPendingOperations();
+        assertEquals(2, operations.size());
+        assertEquals(OfflineOperationQueue.OperationType.LINK, operations.get(0).getType());
+        assertEquals("user", operations.get(0).getUserObjectId());
+        assertEquals("token", operations.get(0).getAuthData().get("access_token"));
+        assertEquals(OfflineOperationQueue.OperationType.UNLINK, operations.get(1).getType());
+        assertEquals("otherUser", operations.get(1).getUserObjectId());
+    }
+
+    @Test
+    public void testReplayRunsOperationsInOrder() throws InterruptedException {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(link("user", "link"));
+        queue.enqueue(logIn("logIn"));
+
+        final List<String> replayed = new ArrayList<>();
+        Task<Void> task = queue.replayAsync(new OfflineOperationQueue.OperationRunner() {
+            @Override
+            public Task<Void> runAsync(OfflineOperationQueue.PendingOperation operation) {
+                replayed.add(operation.getAuthData().get("access_token"));
+                return Task.forResult(null);
+            }
+        });
+        task.waitForCompletion();
+
+        assertFalse(task.isFaulted());
+        assertEquals(2, replayed.size());
+        assertEquals("link", replayed.get(0));
+        assertEquals("logIn", replayed.get(1));
+        assertTrue(queue.getPendingOperations().isEmpty());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testReplayStopsWhileOffline() throws InterruptedException {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(link("user", "link"));
+        queue.enqueue(logIn("logIn"));
+
+        final List<String> replayed = new ArrayList<>();
+        Task<Void> task = queue.replayAsync(new OfflineOperationQueue.OperationRunner() {
+            @Override
+            public Task<Void> runAsync(OfflineOperationQueue.PendingOperation operation) {
+                replayed.add(operation.getAuthData().get("access_token"));
+                return Task.forError(
+                        new ParseException(ParseException.CONNECTION_FAILED, "offline"));
+            }
+        });
+        task.waitForCompletion();
+
+        assertTrue(task.isFaulted());
+        assertEquals(1, replayed.size());
+        assertEquals(2, queue.getPendingOperations().size());
+    }
+
+    @Test
+    public void testReplayDropsOperationsThatFailPermanently() throws InterruptedException {
+        OfflineOperationQueue queue = new OfflineOperationQueue(file);
+        queue.enqueue(logIn("logIn"));
+
+        Task<Void> task = queue.replayAsync(new OfflineOperationQueue.OperationRunner() {
+            @Override
+            public Task<Void> runAsync(OfflineOperationQueue.PendingOperation operation) {
+                return Task.forError(
+                        new ParseException(ParseException.INVALID_SESSION_TOKEN, "invalid"));
+            }
+        });
+        task.waitForCompletion();
+
+        assertFalse(task.isFaulted());
+        assertTrue(queue.getPendingOperations().isEmpty());
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.parse.AuthenticationCallback;
+import com.parse.ParseException;
+import com.parse.ParseUser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bolts.Continuation;
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives concurrent {@code logInInBackground(AccessToken)}, {@code linkInBackground} and
+ * {@code unlinkInBackground} flows through {@link ParseFacebookUtils} against a local HTTP
+ * stand-in for the Parse {@code /users} endpoint, and reports latency percentiles and throughput.
+ * <p>
+ * It makes thousands of real HTTP requests, so it's skipped unless run with
+ * {@code -Dloadtest.enabled=true}. For sizing runs, scale it up with e.g.
+ * {@code -Dloadtest.flows=20000 -Dloadtest.concurrency=256 -Dloadtest.serverThreads=64
+ * -Dloadtest.serverLatencyMillis=40}. The percentiles and throughput of each flow are printed
+ * and written to {@code build/reports/loadtest/<flow>.txt}, or {@code -Dloadtest.reportDir}.
+ */
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ParseFacebookUtilsLoadTest {
+
+    private static final int FLOWS = Integer.getInteger("loadtest.flows", 600);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 32);
+    private static final int SERVER_THREADS = Integer.getInteger("loadtest.serverThreads", 16);
+    private static final long SERVER_LATENCY_MILLIS =
+            Long.getLong("loadtest.serverLatencyMillis", 0L);
+    private static final long TIMEOUT_SECONDS = Long.getLong("loadtest.timeoutSeconds", 120L);
+    private static final File REPORT_DIR =
+            new File(System.getProperty("loadtest.reportDir", "build/reports/loadtest"));
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService clientExecutor;
+    private String usersUrl;
+
+    private FacebookController previousController;
+    private ParseFacebookUtils.ParseUserDelegate previousUserDelegate;
+    private boolean previousIsInitialized;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("Load tests are only run with -Dloadtest.enabled=true",
+                Boolean.getBoolean("loadtest.enabled"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/users", new UsersHandler());
+        serverExecutor = Executors.newFixedThreadPool(SERVER_THREADS);
+        server.setExecutor(serverExecutor);
+        server.start();
+        usersUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/users";
+
+        // Bounded, so that client-side queueing shows up in the reported latencies.
+        clientExecutor = Executors.newFixedThreadPool(CONCURRENCY);
+
+        previousController = ParseFacebookUtils.controller;
+        previousUserDelegate = ParseFacebookUtils.userDelegate;
+        previousIsInitialized = ParseFacebookUtils.isInitialized;
+        ParseFacebookUtils.controller = new FacebookController(new FakeFacebookSdkDelegate());
+        ParseFacebookUtils.userDelegate = new HttpParseUserDelegate();
+        ParseFacebookUtils.isInitialized = true;
+    }
+
+    @After
+    public void tearDown() {
+        if (server == null) {
+            // Skipped.
+            return;
+        }
+        ParseFacebookUtils.controller = previousController;
+        ParseFacebookUtils.userDelegate = previousUserDelegate;
+        ParseFacebookUtils.isInitialized = previousIsInitialized;
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        clientExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testLogInLoad() throws Exception {
+        Report report = run("logInInBackground", new Flow() {
+            @Override
+            public Task<Void> start(int i) {
+                return ParseFacebookUtils.logInInBackground(newAccessToken(i)).makeVoid();
+            }
+        });
+        report.assertAllSucceeded();
+    }
+
+    @Test
+    public void testLinkLoad() throws Exception {
+        final ParseUser user = newHttpUser();
+        Report report = run("linkInBackground", new Flow() {
+            @Override
+            public Task<Void> start(int i) {
+                return ParseFacebookUtils.linkInBackground(user, newAccessToken(i));
+            }
+        });
+        report.assertAllSucceeded();
+    }
+
+    @Test
+    public void testUnlinkLoad() throws Exception {
+        final ParseUser user = newHttpUser();
+        Report report = run("unlinkInBackground", new Flow() {
+            @Override
+            public Task<Void> start(int i) {
+                return ParseFacebookUtils.unlinkInBackground(user);
+            }
+        });
+        report.assertAllSucceeded();
+    }
+
+    //region Harness
+
+    private interface Flow {
+        Task<Void> start(int i);
+    }
+
+    private Report run(String name, Flow flow) throws InterruptedException, IOException {
+        final long[] latencies = new long[FLOWS];
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(FLOWS);
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < FLOWS; i++) {
+            final int index = i;
+            final long flowStartedAt = System.nanoTime();
+            flow.start(i).continueWith(new Continuation<Void, Void>() {
+                @Override
+                public Void then(Task<Void> task) throws Exception {
+                    latencies[index] = System.nanoTime() - flowStartedAt;
+                    if (task.isFaulted() || task.isCancelled()) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                    return null;
+                }
+            });
+        }
+        assertTrue(name + " did not finish in time", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - startedAt;
+
+        Report report = new Report(name, latencies, failures.get(), elapsed);
+        report.write();
+        return report;
+    }
+
+    private static class Report {
+        private final String name;
+        private final long[] sortedLatencies;
+        private final int failures;
+        private final long elapsedNanos;
+
+        Report(String name, long[] latencies, int failures, long elapsedNanos) {
+            this.name = name;
+            this.sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double percentileMillis(double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            index = Math.max(0, Math.min(sortedLatencies.length - 1, index));
+            return sortedLatencies[index] / 1e6;
+        }
+
+        double throughputPerSecond() {
+            return sortedLatencies.length / (elapsedNanos / 1e9);
+        }
+
+        void write() throws IOException {
+            String text = toString();
+            System.out.println(text);
+            FileUtils.writeFileAtomically(
+                    new File(REPORT_DIR, name + ".txt"), (text + "\n").getBytes("UTF-8"));
+        }
+
+        void assertAllSucceeded() {
+            assertEquals(toString(), 0, failures);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: flows=%d concurrency=%d failures=%d p50=%.2fms p95=%.2fms p99=%.2fms "
+                            + "throughput=%.1f/s",
+                    name, sortedLatencies.length, CONCURRENCY, failures,
+                    percentileMillis(50), percentileMillis(95), percentileMillis(99),
+                    throughputPerSecond());
+        }
+    }
+
+    private static AccessToken newAccessToken(int i) {
+        return new AccessToken(
+                "token_" + i,
+                "test_application_id",
+                "user_" + i,
+                Collections.singletonList("public_profile"),
+                null,
+                null,
+                AccessTokenSource.DEVICE_AUTH,
+                new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(60)),
+                new Date(),
+                null);
+    }
+
+    /**
+     * A {@link ParseUser} whose link and unlink calls go to the stand-in server. {@code ParseUser}
+     * saves can't be pointed at a local server without initializing the Parse SDK, so this
+     * reproduces the request each call would make.
+     */
+    private ParseUser newHttpUser() {
+        ParseUser user = mock(ParseUser.class);
+        when(user.linkWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenAnswer(new Answer<Task<Void>>() {
+                    @Override
+                    public Task<Void> answer(InvocationOnMock invocation) throws Throwable {
+                        String authType = (String) invocation.getArguments()[0];
+                        @SuppressWarnings("unchecked")
+                        Map<String, String> authData =
+                                (Map<String, String>) invocation.getArguments()[1];
+                        return requestAsync("PUT", usersUrl + "/loadTestUser",
+                                authDataBody(authType, authData)).makeVoid();
+                    }
+                });
+        when(user.unlinkFromInBackground(anyString())).thenAnswer(new Answer<Task<Void>>() {
+            @Override
+            public Task<Void> answer(InvocationOnMock invocation) throws Throwable {
+                String authType = (String) invocation.getArguments()[0];
+                return requestAsync("PUT", usersUrl + "/loadTestUser",
+                        "{\"authData\":{\"" + authType + "\":null}}").makeVoid();
+            }
+        });
+        return user;
+    }
+
+    private class HttpParseUserDelegate implements ParseFacebookUtils.ParseUserDelegate {
+        private final ParseUser user = mock(ParseUser.class);
+
+        @Override
+        public void registerAuthenticationCallback(String authType, AuthenticationCallback callback) {
+            // do nothing
+        }
+
+        @Override
+        public Task<ParseUser> logInWithInBackground(String authType, Map<String, String> authData) {
+            return requestAsync("POST", usersUrl, authDataBody(authType, authData))
+                    .onSuccess(new Continuation<String, ParseUser>() {
+                        @Override
+                        public ParseUser then(Task<String> task) throws Exception {
+                            return user;
+                        }
+                    });
+        }
+
+        @Override
+        public ParseUser getCurrentUser() {
+            return user;
+        }
+    }
+
+    private static String authDataBody(String authType, Map<String, String> authData) {
+        StringBuilder builder = new StringBuilder("{\"authData\":{\"")
+                .append(authType).append("\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : authData.entrySet()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append('"').append(entry.getKey()).append("\":\"")
+                    .append(entry.getValue()).append('"');
+        }
+        return builder.append("}}}").toString();
+    }
+
+    private Task<String> requestAsync(final String method, final String url, final String body) {
+        return Task.call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                try {
+                    connection.setRequestMethod(method);
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json");
+                    OutputStream out = connection.getOutputStream();
+                    out.write(body.getBytes("UTF-8"));
+                    out.close();
+                    if (connection.getResponseCode() >= 300) {
+                        throw new ParseException(ParseException.OTHER_CAUSE,
+                                readFully(connection.getErrorStream()));
+                    }
+                    return readFully(connection.getInputStream());
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        }, clientExecutor);
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Minimal stand-in for the Parse {@code /users} endpoint: {@code POST /users} logs in or signs
+     * up, {@code PUT /users/<objectId>} updates auth data.
+     */
+    private static class UsersHandler implements HttpHandler {
+        private final AtomicInteger nextObjectId = new AtomicInteger();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                readFully(exchange.getRequestBody());
+                if (SERVER_LATENCY_MILLIS > 0) {
+                    Thread.sleep(SERVER_LATENCY_MILLIS);
+                }
+
+                int code;
+                String response;
+                List<String> path = new ArrayList<>(
+                        Arrays.asList(exchange.getRequestURI().getPath().split("/")));
+                path.removeAll(Collections.singleton(""));
+                if ("POST".equals(exchange.getRequestMethod()) && path.size() == 1) {
+                    code = 201;
+                    response = "{\"objectId\":\"" + nextObjectId.incrementAndGet()
+                            + "\",\"sessionToken\":\"r:test\"}";
+                } else if ("PUT".equals(exchange.getRequestMethod()) && path.size() == 2) {
+                    code = 200;
+                    response = "{\"updatedAt\":\"2015-07-03T07:00:00.000Z\"}";
+                } else {
+                    code = 404;
+                    response = "{\"code\":101,\"error\":\"not found\"}";
+                }
+
+                byte[] bytes = response.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(code, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    //endregion
+}
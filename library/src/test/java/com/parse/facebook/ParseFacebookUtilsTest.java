@@ -14,7 +14,9 @@ import android.content.Intent;
 import android.support.v4.app.Fragment;
 
 import com.facebook.AccessToken;
+import com.facebook.AccessTokenTracker;
 import com.parse.AuthenticationCallback;
+import com.parse.ParseException;
 import com.parse.ParseUser;
 
 import org.junit.After;
@@ -27,10 +29,15 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import bolts.Task;
 
@@ -46,6 +53,8 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -70,6 +79,22 @@ public class ParseFacebookUtilsTest {
     public void tearDown() {
         ParseFacebookUtils.controller = null;
         ParseFacebookUtils.userDelegate = null;
+        ParseFacebookUtils.retryPolicy = null;
+        ParseFacebookUtils.circuitBreaker = null;
+        ParseFacebookUtils.rateLimiter = null;
+        ParseFacebookUtils.offlineQueue = null;
+        ParseFacebookUtils.accessTokenSync = null;
+        ParseFacebookUtils.sharedSessionStore = null;
+        ParseFacebookUtils.sessionSnapshot = null;
+        ParseFacebookUtils.graphClient = null;
+        ParseFacebookUtils.profileCache = null;
+        ParseFacebookUtils.friendUserResolver = null;
+        ParseFacebookUtils.pictureLoader = null;
+        ParseFacebookUtils.authenticationTokenVerifier = null;
+        ParseFacebookUtils.loginBehaviorSelector = null;
+        ParseFacebookUtils.restoredAuthData = null;
+        ParseFacebookUtils.restoredAccessToken = null;
+        ParseFacebookUtils.skippedRestoreCount = 0;
     }
 
     //region testInitialize
@@ -95,6 +120,25 @@ public class ParseFacebookUtilsTest {
         assertTrue(ParseFacebookUtils.isInitialized);
     }
 
+    @Test
+    public void testInitializeWithPrewarm() {
+        Context context = mock(Context.class);
+        ParseFacebookUtils.initialize(context, true);
+        verify(controller).initialize(context, 0xface);
+        assertTrue(ParseFacebookUtils.isInitialized);
+        verify(controller, timeout(5000)).prewarm();
+    }
+
+    @Test
+    public void testPrewarmInBackground() throws Exception {
+        Task<Void> task = ParseFacebookUtils.prewarmInBackground();
+        task.waitForCompletion();
+
+        verify(controller).prewarm();
+        assertTrue(task.isCompleted());
+        assertFalse(task.isFaulted());
+    }
+
     //endregion
 
     //region testRestoreAuthentication
@@ -110,6 +154,8 @@ public class ParseFacebookUtilsTest {
 
         assertTrue(callback.onRestore(authData));
         verify(controller).setAuthData(authData);
+        verify(controller).setSessionLinked(true);
+        verify(controller).publishAuthEvent(AuthEvent.Type.RESTORE);
     }
 
     @Test
@@ -128,8 +174,138 @@ public class ParseFacebookUtilsTest {
         verify(controller).setAuthData(authData);
     }
 
+    @Test
+    public void testRestoreNullLogsOut() throws java.text.ParseException {
+        ParseFacebookUtils.initialize(null);
+        ArgumentCaptor<AuthenticationCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthenticationCallback.class);
+        verify(userDelegate).registerAuthenticationCallback(eq("facebook"), callbackCaptor.capture());
+
+        assertTrue(callbackCaptor.getValue().onRestore(null));
+        verify(controller).setAuthData(null);
+        verify(controller).setSessionLinked(false);
+        verify(controller).publishAuthEvent(AuthEvent.Type.LOG_OUT);
+    }
+
+    @Test
+    public void testRepeatedRestoreIsSkipped() throws java.text.ParseException {
+        ParseFacebookUtils.initialize(null);
+        ArgumentCaptor<AuthenticationCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthenticationCallback.class);
+        verify(userDelegate).registerAuthenticationCallback(eq("facebook"), callbackCaptor.capture());
+        AuthenticationCallback callback = callbackCaptor.getValue();
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        Map<String, String> authData = new HashMap<>();
+        authData.put("access_token", "test_token");
+
+        assertTrue(callback.onRestore(authData));
+        assertTrue(callback.onRestore(new HashMap<>(authData)));
+        verify(controller, times(1)).setAuthData(anyMapOf(String.class, String.class));
+        verify(controller, times(1)).publishAuthEvent(AuthEvent.Type.RESTORE);
+        assertEquals(1, ParseFacebookUtils.getSkippedRestoreCount());
+
+        // The token changed since, so restoring the same auth data isn't a no-op anymore.
+        when(controller.getCurrentAccessToken()).thenReturn(TestUtils.newAccessToken());
+        assertTrue(callback.onRestore(authData));
+        verify(controller, times(2)).setAuthData(anyMapOf(String.class, String.class));
+
+        // Nor is restoring different auth data.
+        Map<String, String> newAuthData = new HashMap<>();
+        newAuthData.put("access_token", "new_token");
+        assertTrue(callback.onRestore(newAuthData));
+        verify(controller).setAuthData(newAuthData);
+        assertEquals(1, ParseFacebookUtils.getSkippedRestoreCount());
+    }
+
+    @Test
+    public void testRestoreSkipsSessionRestoredByAnotherProcess() throws Exception {
+        ParseFacebookUtils.initialize(null);
+        ArgumentCaptor<AuthenticationCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthenticationCallback.class);
+        verify(userDelegate).registerAuthenticationCallback(eq("facebook"), callbackCaptor.capture());
+        File file = File.createTempFile("sharedSession", null);
+        SharedSessionStore store = new SharedSessionStore(file);
+        ParseFacebookUtils.sharedSessionStore = store;
+        try {
+            store.write(new FacebookSession("test_id", "test_token", 1435906800000L,
+                    1435900000000L, new String[] { "public_profile" }, true));
+            Map<String, String> authData = new HashMap<>();
+            authData.put("id", "test_id");
+            authData.put("access_token", "test_token");
+
+            assertTrue(callbackCaptor.getValue().onRestore(authData));
+
+            verify(controller, never()).setAuthData(anyMapOf(String.class, String.class));
+            assertEquals(1, ParseFacebookUtils.getSkippedRestoreCount());
+            assertEquals("test_token", ParseFacebookUtils.getSession().getToken());
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testGetSessionReturnsSessionClearedByAnotherProcess() throws Exception {
+        ParseFacebookUtils.isInitialized = true;
+        when(controller.getSession()).thenReturn(new FacebookSession("test_id", "test_token",
+                1435906800000L, 1435900000000L, new String[] { "public_profile" }, true));
+        File file = File.createTempFile("sharedSession", null);
+        SharedSessionStore store = new SharedSessionStore(file);
+        ParseFacebookUtils.sharedSessionStore = store;
+        try {
+            // Nothing stored yet, so this process' own session.
+            assertEquals("test_token", ParseFacebookUtils.getSession().getToken());
+
+            store.write(null);
+
+            assertEquals(null, ParseFacebookUtils.getSession());
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
     //endregion
 
+    @Test
+    public void testGetSessionDoesNotLock() throws Exception {
+        ParseFacebookUtils.isInitialized = true;
+        final FacebookSession session = new FacebookSession("test_id", "test_token",
+                1435906800000L, 1435900000000L, new String[] { "public_profile" }, true);
+        when(controller.getSession()).thenReturn(session);
+        Field lockField = ParseFacebookUtils.class.getDeclaredField("lock");
+        lockField.setAccessible(true);
+        final AtomicReference<FacebookSession> read = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read.set(ParseFacebookUtils.getSession());
+            }
+        });
+
+        synchronized (lockField.get(null)) {
+            reader.start();
+            reader.join(5000);
+            assertEquals(session, read.get());
+        }
+    }
+
+    @Test
+    public void testSetAbandonedLoginTimeout() {
+        ParseFacebookUtils.isInitialized = true;
+
+        ParseFacebookUtils.setAbandonedLoginTimeout(0);
+
+        verify(controller).setAbandonedLoginTimeoutMillis(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetNegativeAbandonedLoginTimeout() {
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setAbandonedLoginTimeout(-1);
+    }
+
     @Test
     public void testIsLinked() {
         ParseUser user = mock(ParseUser.class);
@@ -171,6 +347,8 @@ public class ParseFacebookUtilsTest {
         verify(userDelegate).logInWithInBackground("facebook", authData);
         assertTrue(task.isCompleted());
         assertEquals(user, task.getResult());
+        verify(controller).setSessionLinked(true);
+        verify(controller).publishAuthEvent(AuthEvent.Type.LOG_IN);
     }
 
     @Test
@@ -248,6 +426,179 @@ public class ParseFacebookUtilsTest {
         assertEquals(user, task.getResult());
     }
 
+    @Test
+    public void testLogInRetriesTransientParseFailure() throws InterruptedException {
+        Map<String, String> authData = new HashMap<>();
+        when(controller.authenticateAsync(
+                any(Activity.class),
+                any(Fragment.class),
+                any(FacebookController.LoginAuthorizationType.class),
+                anyListOf(String.class))).thenReturn(Task.forResult(authData));
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setLoginRetryPolicy(new LoginRetryPolicy(3, 0, 0, 0));
+
+        ParseUser user = mock(ParseUser.class);
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(
+                        Task.<ParseUser>forError(
+                                new ParseException(ParseException.CONNECTION_FAILED, "offline")),
+                        Task.forResult(user));
+        Task<ParseUser> task = ParseFacebookUtils.logInWithReadPermissionsInBackground(
+                mock(Activity.class), new LinkedList<String>());
+        task.waitForCompletion();
+
+        // Facebook login ran once, the Parse stage was retried with the same auth data
+        verify(controller).authenticateAsync(
+                any(Activity.class),
+                any(Fragment.class),
+                any(FacebookController.LoginAuthorizationType.class),
+                anyListOf(String.class));
+        verify(userDelegate, times(2)).logInWithInBackground("facebook", authData);
+        assertEquals(user, task.getResult());
+    }
+
+    @Test
+    public void testLogInDoesNotRetryPermanentParseFailure() throws InterruptedException {
+        when(controller.getAuthData(any(AccessToken.class)))
+                .thenReturn(new HashMap<String, String>());
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setLoginRetryPolicy(new LoginRetryPolicy(3, 0, 0, 0));
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<ParseUser>forError(
+                        new ParseException(ParseException.INVALID_SESSION_TOKEN, "invalid")));
+        Task<ParseUser> task = ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken());
+        task.waitForCompletion();
+
+        verify(userDelegate, times(1))
+                .logInWithInBackground(anyString(), anyMapOf(String.class, String.class));
+        assertTrue(task.isFaulted());
+    }
+
+    @Test
+    public void testLogInStopsRetryingAfterMaxAttempts() throws InterruptedException {
+        when(controller.getAuthData(any(AccessToken.class)))
+                .thenReturn(new HashMap<String, String>());
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setLoginRetryPolicy(new LoginRetryPolicy(3, 0, 0, 0));
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<ParseUser>forError(
+                        new ParseException(ParseException.TIMEOUT, "timeout")));
+        Task<ParseUser> task = ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken());
+        task.waitForCompletion();
+
+        verify(userDelegate, times(3))
+                .logInWithInBackground(anyString(), anyMapOf(String.class, String.class));
+        assertTrue(task.isFaulted());
+    }
+
+    @Test
+    public void testLogInFailsFastWhenCircuitIsOpen() {
+        when(controller.getAuthData(any(AccessToken.class)))
+                .thenReturn(new HashMap<String, String>());
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setCircuitBreaker(new LoginCircuitBreaker(1, 60000));
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<ParseUser>forError(
+                        new ParseException(ParseException.CONNECTION_FAILED, "offline")));
+        assertTrue(ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken()).isFaulted());
+
+        Task<ParseUser> task = ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken());
+        assertTrue(task.getError() instanceof LoginThrottledException);
+        assertEquals(LoginThrottledException.Reason.CIRCUIT_OPEN,
+                ((LoginThrottledException) task.getError()).getReason());
+        verify(userDelegate, times(1))
+                .logInWithInBackground(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testLogInFailsFastWhenRateLimited() {
+        when(controller.getAuthData(any(AccessToken.class)))
+                .thenReturn(new HashMap<String, String>());
+        ParseFacebookUtils.isInitialized = true;
+        ParseFacebookUtils.setRateLimiter(new LoginRateLimiter(1, 0.001));
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.forResult(mock(ParseUser.class)));
+        assertFalse(ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken()).isFaulted());
+
+        Task<ParseUser> task = ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken());
+        assertTrue(task.getError() instanceof LoginThrottledException);
+        assertEquals(LoginThrottledException.Reason.RATE_LIMITED,
+                ((LoginThrottledException) task.getError()).getReason());
+        verify(userDelegate, times(1))
+                .logInWithInBackground(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testLogInIsQueuedWhileOffline() throws InterruptedException {
+        OfflineOperationQueue queue = mock(OfflineOperationQueue.class);
+        ParseFacebookUtils.offlineQueue = queue;
+        Map<String, String> authData = new HashMap<>();
+        authData.put("access_token", "test_token");
+        when(controller.getAuthData(any(AccessToken.class))).thenReturn(authData);
+        ParseFacebookUtils.isInitialized = true;
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<ParseUser>forError(
+                        new ParseException(ParseException.CONNECTION_FAILED, "offline")));
+        Task<ParseUser> task = ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken());
+        task.waitForCompletion();
+
+        assertTrue(task.isFaulted());
+        ArgumentCaptor<OfflineOperationQueue.PendingOperation> operationCaptor =
+                ArgumentCaptor.forClass(OfflineOperationQueue.PendingOperation.class);
+        verify(queue).enqueue(operationCaptor.capture());
+        assertEquals(OfflineOperationQueue.OperationType.LOG_IN,
+                operationCaptor.getValue().getType());
+        assertEquals(authData, operationCaptor.getValue().getAuthData());
+    }
+
+    @Test
+    public void testLogInDropsOnlyItsPendingOperation() {
+        OfflineOperationQueue queue = mock(OfflineOperationQueue.class);
+        ParseFacebookUtils.offlineQueue = queue;
+        Map<String, String> authData = new HashMap<>();
+        authData.put("access_token", "test_token");
+        when(controller.getAuthData(any(AccessToken.class))).thenReturn(authData);
+        ParseFacebookUtils.isInitialized = true;
+
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.forResult(mock(ParseUser.class)));
+        assertFalse(ParseFacebookUtils.logInInBackground(TestUtils.newAccessToken()).isFaulted());
+
+        verify(queue).remove(new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.LOG_IN, null, authData));
+        verify(queue, never()).removeAuthOperations();
+    }
+
+    @Test
+    public void testReplaySkipsLogInWhenLoggedIn() throws InterruptedException {
+        OfflineOperationQueue queue = mock(OfflineOperationQueue.class);
+        ParseFacebookUtils.offlineQueue = queue;
+        ParseFacebookUtils.isInitialized = true;
+        when(userDelegate.getCurrentUser()).thenReturn(mock(ParseUser.class));
+        when(queue.replayAsync(any(OfflineOperationQueue.OperationRunner.class)))
+                .thenReturn(Task.<Void>forResult(null));
+
+        ParseFacebookUtils.replayPendingOperationsInBackground();
+
+        ArgumentCaptor<OfflineOperationQueue.OperationRunner> runnerCaptor =
+                ArgumentCaptor.forClass(OfflineOperationQueue.OperationRunner.class);
+        verify(queue).replayAsync(runnerCaptor.capture());
+        Map<String, String> authData = new HashMap<>();
+        authData.put("access_token", "test_token");
+        Task<Void> task = runnerCaptor.getValue().runAsync(new OfflineOperationQueue.PendingOperation(
+                OfflineOperationQueue.OperationType.LOG_IN, null, authData));
+        task.waitForCompletion();
+
+        assertFalse(task.isFaulted());
+        verify(userDelegate, never())
+                .logInWithInBackground(anyString(), anyMapOf(String.class, String.class));
+    }
+
     //endregion
 
     //region testLink
@@ -354,5 +705,155 @@ public class ParseFacebookUtilsTest {
 
         ParseFacebookUtils.unlinkInBackground(user);
         verify(user).unlinkFromInBackground("facebook");
+        verify(controller).setSessionLinked(false);
+        verify(controller).publishAuthEvent(AuthEvent.Type.UNLINK);
     }
+
+    //region testBulkLink
+
+    @Test
+    public void testBulkLinkRequiresAuthenticatedUsers() throws InterruptedException {
+        ParseFacebookUtils.isInitialized = true;
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        ParseUser authenticated = mock(ParseUser.class);
+        when(authenticated.isAuthenticated()).thenReturn(true);
+        when(authenticated.linkWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<Void>forResult(null));
+        ParseUser other = mock(ParseUser.class);
+        List<BulkLinkItem> items = new ArrayList<>();
+        items.add(BulkLinkItem.link(authenticated, authData));
+        items.add(BulkLinkItem.link(other, authData));
+
+        Task<List<BulkLinkResult>> task =
+                ParseFacebookUtils.bulkLinkInBackground(items, null, null);
+        task.waitForCompletion();
+
+        List<BulkLinkResult> results = task.getResult();
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(ParseException.SESSION_MISSING,
+                ((ParseException) results.get(1).getError()).getCode());
+        verify(authenticated).linkWithInBackground("facebook", authData);
+        verify(other, never()).linkWithInBackground(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    //endregion
+
+    //region testAccessTokenSync
+
+    @Test
+    public void testAccessTokenSyncSavesRefreshedToken() throws InterruptedException {
+        ParseFacebookUtils.isInitialized = true;
+        ArgumentCaptor<FacebookController.AccessTokenListener> listenerCaptor =
+                ArgumentCaptor.forClass(FacebookController.AccessTokenListener.class);
+        when(controller.trackAccessToken(listenerCaptor.capture()))
+                .thenReturn(mock(AccessTokenTracker.class));
+        AccessToken accessToken = TestUtils.newAccessToken();
+        when(controller.getCurrentAccessToken()).thenReturn(accessToken);
+        Map<String, String> restoredAuthData = new HashMap<>();
+        restoredAuthData.put("id", "test_id");
+        restoredAuthData.put("access_token", "test_token");
+        ParseFacebookUtils.restoredAuthData = restoredAuthData;
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        authData.put("access_token", "refreshed_token");
+        when(controller.getAuthData(accessToken)).thenReturn(authData);
+        ParseUser user = mock(ParseUser.class);
+        when(user.isLinked("facebook")).thenReturn(true);
+        when(user.linkWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<Void>forResult(null));
+        when(userDelegate.getCurrentUser()).thenReturn(user);
+
+        ParseFacebookUtils.enableAccessTokenSync(0);
+        listenerCaptor.getValue().onCurrentAccessTokenChanged(accessToken);
+        Thread.sleep(100);
+        ParseFacebookUtils.accessTokenSync.getSyncTask().waitForCompletion();
+
+        verify(user).linkWithInBackground("facebook", authData);
+        ParseFacebookUtils.disableAccessTokenSync();
+    }
+
+    //endregion
+
+    //region testProfile
+
+    @Test
+    public void testLogInWithProfileFetchesProfileInParallel() throws Exception {
+        Map<String, String> authData = new HashMap<>();
+        authData.put("id", "test_id");
+        authData.put("access_token", "test_token");
+        when(controller.authenticateAsync(
+                any(Activity.class),
+                any(Fragment.class),
+                any(FacebookController.LoginAuthorizationType.class),
+                anyListOf(String.class))).thenReturn(Task.forResult(authData));
+        ParseFacebookUtils.isInitialized = true;
+        Task<ParseUser>.TaskCompletionSource logIn = Task.create();
+        when(userDelegate.logInWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(logIn.getTask());
+        RecordingGraphClient graphClient = new RecordingGraphClient();
+        ParseFacebookUtils.setGraphClient(graphClient);
+
+        Task<ProfileResult<ParseUser>> task = ParseFacebookUtils.logInWithProfileInBackground(
+                mock(Activity.class), null, "id,name");
+
+        // The profile was requested before the Parse login finished.
+        assertFalse(task.isCompleted());
+        assertEquals(1, graphClient.requests.size());
+        GraphClient.Request request = graphClient.requests.get(0);
+        assertEquals("me", request.getPath());
+        assertEquals("id,name", request.getParameters().get("fields"));
+        assertEquals("test_token", request.getAccessToken());
+
+        ParseUser user = mock(ParseUser.class);
+        logIn.setResult(user);
+        graphClient.response.setResult(
+                new GraphClient.Response(200, "{\"id\":\"test_id\",\"name\":\"Test\"}", null));
+        task.waitForCompletion();
+
+        assertEquals(user, task.getResult().getResult());
+        assertEquals("Test", task.getResult().getProfile().getString("name"));
+        assertEquals(null, task.getResult().getProfileError());
+    }
+
+    @Test
+    public void testLinkWithProfileSucceedsWithoutProfile() throws Exception {
+        Map<String, String> authData = new HashMap<>();
+        authData.put("access_token", "test_token");
+        when(controller.authenticateAsync(
+                any(Activity.class),
+                any(Fragment.class),
+                any(FacebookController.LoginAuthorizationType.class),
+                anyListOf(String.class))).thenReturn(Task.forResult(authData));
+        ParseFacebookUtils.isInitialized = true;
+        ParseUser user = mock(ParseUser.class);
+        when(user.linkWithInBackground(anyString(), anyMapOf(String.class, String.class)))
+                .thenReturn(Task.<Void>forResult(null));
+        RecordingGraphClient graphClient = new RecordingGraphClient();
+        ParseFacebookUtils.setGraphClient(graphClient);
+
+        Task<ProfileResult<Void>> task = ParseFacebookUtils.linkWithProfileInBackground(
+                user, mock(Activity.class), null, "id");
+        GraphClient.GraphException error = new GraphClient.GraphException(500, "{}");
+        graphClient.response.setError(error);
+        task.waitForCompletion();
+
+        assertFalse(task.isFaulted());
+        assertEquals(null, task.getResult().getProfile());
+        assertEquals(error, task.getResult().getProfileError());
+        verify(user).linkWithInBackground("facebook", authData);
+    }
+
+    private static class RecordingGraphClient implements GraphClient {
+        final List<Request> requests = new ArrayList<>();
+        final Task<Response>.TaskCompletionSource response = Task.create();
+
+        @Override
+        public Task<Response> getAsync(Request request) {
+            requests.add(request);
+            return response.getTask();
+        }
+    }
+
+    //endregion
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileCacheTest {
+
+    private static final long TTL = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+    private FakeGraphClient client;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder();
+        client = new FakeGraphClient();
+        now = 10000;
+    }
+
+    @Test
+    public void testFreshProfileIsServedFromMemory() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", "\"v1\""));
+
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "id,name"));
+        now += TTL - 1;
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "id,name"));
+
+        assertEquals(1, client.requests.size());
+    }
+
+    @Test
+    public void testProfileSurvivesRestart() throws Exception {
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        get(newCache(4, 1024 * 1024), "user_a", "id,name");
+
+        assertEquals("{\"name\":\"A\"}", get(newCache(4, 1024 * 1024), "user_a", "id,name"));
+        assertEquals(1, client.requests.size());
+    }
+
+    @Test
+    public void testProfilesAreKeyedByUserAndFields() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        client.respond(new GraphClient.Response(200, "{\"name\":\"B\"}", null));
+        client.respond(new GraphClient.Response(200, "{\"email\":\"a@example.com\"}", null));
+
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "name"));
+        assertEquals("{\"name\":\"B\"}", get(cache, "user_b", "name"));
+        assertEquals("{\"email\":\"a@example.com\"}", get(cache, "user_a", "email"));
+        assertEquals(3, client.requests.size());
+    }
+
+    @Test
+    public void testStaleProfileIsRevalidatedWithETag() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", "\"v1\""));
+        get(cache, "user_a", "id,name");
+
+        now += TTL;
+        client.respond(new GraphClient.Response(GraphClient.Response.HTTP_NOT_MODIFIED, null, null));
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "id,name"));
+
+        assertEquals(2, client.requests.size());
+        assertEquals("\"v1\"", client.requests.get(1).getETag());
+
+        // The revalidation makes the profile fresh again.
+        now += TTL - 1;
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "id,name"));
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    public void testChangedProfileReplacesStaleProfile() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", "\"v1\""));
+        get(cache, "user_a", "name");
+
+        now += TTL;
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A2\"}", "\"v2\""));
+        assertEquals("{\"name\":\"A2\"}", get(cache, "user_a", "name"));
+        assertEquals("{\"name\":\"A2\"}", get(newCache(4, 1024 * 1024), "user_a", "name"));
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    public void testStaleProfileIsServedWhenOffline() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", "\"v1\""));
+        get(cache, "user_a", "name");
+
+        now += TTL;
+        client.fail(new IOException("offline"));
+        assertEquals("{\"name\":\"A\"}", get(cache, "user_a", "name"));
+    }
+
+    @Test
+    public void testGraphErrorIsNotHiddenByStaleProfile() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", "\"v1\""));
+        get(cache, "user_a", "name");
+
+        now += TTL;
+        GraphClient.GraphException error = new GraphClient.GraphException(401, "{}");
+        client.fail(error);
+        Task<String> task = cache.getAsync(client, "user_a", request("name"));
+        task.waitForCompletion();
+
+        assertSame(error, task.getError());
+    }
+
+    @Test
+    public void testDiskIsTrimmedToSize() throws Exception {
+        ProfileCache cache = newCache(1, 200);
+        for (int i = 0; i < 10; i++) {
+            client.respond(new GraphClient.Response(200, "{\"name\":\"" + i + "\"}", null));
+            get(cache, "user_" + i, "name");
+        }
+
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        assertTrue(size <= 200);
+        assertTrue(directory.listFiles().length > 0);
+    }
+
+    @Test
+    public void testRemoveUser() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        client.respond(new GraphClient.Response(200, "{\"name\":\"B\"}", null));
+        get(cache, "user_a", "name");
+        get(cache, "user_b", "name");
+
+        cache.remove("user_a");
+
+        assertNull(cache.get("user_a", "user_a\n" + request("name").getRelativeUrl()));
+        assertEquals(1, directory.listFiles().length);
+        assertEquals("{\"name\":\"B\"}", get(newCache(4, 1024 * 1024), "user_b", "name"));
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        ProfileCache cache = newCache(4, 1024 * 1024);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        get(cache, "user_a", "name");
+
+        cache.clear();
+
+        assertEquals(0, directory.listFiles().length);
+        client.respond(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        get(cache, "user_a", "name");
+        assertEquals(2, client.requests.size());
+    }
+
+    private ProfileCache newCache(int maxMemoryEntries, long maxDiskBytes) {
+        return new ProfileCache(directory, maxMemoryEntries, maxDiskBytes, TTL) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private String get(ProfileCache cache, String userId, String fields) throws Exception {
+        Task<String> task = cache.getAsync(client, userId, request(fields));
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private static GraphClient.Request request(String fields) {
+        return new GraphClient.Request(
+                "me", Collections.singletonMap("fields", fields), "test_token");
+    }
+
+    private static class FakeGraphClient implements GraphClient {
+        final List<Request> requests = new ArrayList<>();
+        private final Queue<Task<Response>> responses = new LinkedList<>();
+
+        void respond(Response response) {
+            responses.add(Task.forResult(response));
+        }
+
+        void fail(Exception error) {
+            responses.add(Task.<Response>forError(error));
+        }
+
+        @Override
+        public synchronized Task<Response> getAsync(Request request) {
+            requests.add(request);
+            return responses.remove();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ProfilePictureLoaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final long MAX_AGE = 1000;
+
+    private static long now;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder();
+        now = 10000;
+    }
+
+    @Test
+    public void testBucketFor() {
+        assertEquals(50, ProfilePictureLoader.bucketFor(1));
+        assertEquals(50, ProfilePictureLoader.bucketFor(50));
+        assertEquals(100, ProfilePictureLoader.bucketFor(51));
+        assertEquals(400, ProfilePictureLoader.bucketFor(300));
+        assertEquals(1600, ProfilePictureLoader.bucketFor(5000));
+    }
+
+    @Test
+    public void testCalculateInSampleSize() {
+        assertEquals(1, ProfilePictureLoader.calculateInSampleSize(100, 100, 100, 100));
+        assertEquals(1, ProfilePictureLoader.calculateInSampleSize(100, 100, 51, 51));
+        assertEquals(2, ProfilePictureLoader.calculateInSampleSize(100, 100, 50, 50));
+        assertEquals(4, ProfilePictureLoader.calculateInSampleSize(800, 800, 150, 150));
+        // Both dimensions must stay covered.
+        assertEquals(2, ProfilePictureLoader.calculateInSampleSize(800, 400, 150, 150));
+        assertEquals(1, ProfilePictureLoader.calculateInSampleSize(40, 40, 100, 100));
+    }
+
+    @Test
+    public void testGetUrl() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+        assertEquals("https://graph.facebook.com/v5.0/123/picture?width=200&height=200"
+                        + "&access_token=test_token",
+                loader.getUrl("123", "test_token", 200).toString());
+    }
+
+    @Test
+    public void testDownloadsBucketSize() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+
+        Bitmap bitmap = load(loader, "123", 120, 80);
+
+        assertEquals(1, loader.downloads.size());
+        assertTrue(loader.downloads.get(0).getQuery().contains("width=200&height=200"));
+        assertEquals(120, bitmap.getWidth());
+        assertEquals(80, bitmap.getHeight());
+    }
+
+    @Test
+    public void testDecodedPictureIsCachedInMemory() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+
+        Bitmap first = load(loader, "123", 100, 100);
+        Bitmap second = load(loader, "123", 100, 100);
+
+        assertSame(first, second);
+        assertEquals(1, loader.decodes);
+    }
+
+    @Test
+    public void testDownloadIsSharedBetweenSizesInBucket() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+
+        load(loader, "123", 150, 150);
+        load(loader, "123", 120, 180);
+
+        assertEquals(1, loader.downloads.size());
+        assertEquals(2, loader.decodes);
+    }
+
+    @Test
+    public void testDownloadSurvivesRestart() throws Exception {
+        load(new FakeLoader(directory), "123", 100, 100);
+
+        FakeLoader loader = new FakeLoader(directory);
+        load(loader, "123", 100, 100);
+
+        assertEquals(0, loader.downloads.size());
+    }
+
+    @Test
+    public void testExpiredPictureIsDownloadedAgain() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+        load(loader, "123", 100, 100);
+
+        now += MAX_AGE - 1;
+        load(loader, "123", 100, 100);
+        assertEquals(1, loader.downloads.size());
+
+        now += 1;
+        load(loader, "123", 100, 100);
+        assertEquals(2, loader.downloads.size());
+        // Again on disk, after a restart.
+        now += MAX_AGE;
+        FakeLoader restarted = new FakeLoader(directory);
+        load(restarted, "123", 100, 100);
+        assertEquals(1, restarted.downloads.size());
+    }
+
+    @Test
+    public void testExpiredPictureIsServedWhileOffline() throws Exception {
+        load(new FakeLoader(directory), "123", 100, 100);
+
+        now += MAX_AGE;
+        FakeLoader loader = new FakeLoader(directory);
+        loader.offline = true;
+        load(loader, "123", 100, 100);
+        assertEquals(1, loader.downloads.size());
+
+        // It's still expired, so it's tried again.
+        loader.offline = false;
+        load(loader, "123", 100, 100);
+        assertEquals(2, loader.downloads.size());
+    }
+
+    @Test
+    public void testConcurrentLoadsShareOneLoad() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+        loader.downloadStarted = new CountDownLatch(1);
+        loader.releaseDownload = new CountDownLatch(1);
+
+        Task<Bitmap> first = loader.loadAsync("123", "test_token", 100, 100);
+        loader.downloadStarted.await();
+        Task<Bitmap> second = loader.loadAsync("123", "test_token", 100, 100);
+        loader.releaseDownload.countDown();
+        first.waitForCompletion();
+        second.waitForCompletion();
+
+        assertSame(first, second);
+        assertEquals(1, loader.downloads.size());
+    }
+
+    @Test
+    public void testUndecodablePictureIsNotKept() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+        loader.decodable = false;
+
+        Task<Bitmap> task = loader.loadAsync("123", "test_token", 100, 100);
+        task.waitForCompletion();
+
+        assertTrue(task.getError() instanceof IOException);
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testDiskIsTrimmedToSize() throws Exception {
+        FakeLoader loader = new FakeLoader(directory, 2500);
+        for (int i = 0; i < 5; i++) {
+            load(loader, String.valueOf(i), 100, 100);
+        }
+
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        assertTrue(size <= 2500);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        FakeLoader loader = new FakeLoader(directory);
+        load(loader, "123", 100, 100);
+
+        loader.clear();
+        load(loader, "123", 100, 100);
+
+        assertEquals(2, loader.downloads.size());
+    }
+
+    private static Bitmap load(ProfilePictureLoader loader, String facebookId, int width,
+                               int height) throws Exception {
+        Task<Bitmap> task = loader.loadAsync(facebookId, "test_token", width, height);
+        task.waitForCompletion();
+        if (task.isFaulted()) {
+            throw task.getError();
+        }
+        return task.getResult();
+    }
+
+    private static class FakeLoader extends ProfilePictureLoader {
+        final List<URL> downloads = Collections.synchronizedList(new ArrayList<URL>());
+        volatile int decodes;
+        volatile boolean decodable = true;
+        volatile boolean offline;
+        CountDownLatch downloadStarted;
+        CountDownLatch releaseDownload;
+
+        FakeLoader(File directory) {
+            this(directory, 1024 * 1024);
+        }
+
+        FakeLoader(File directory, long maxDiskBytes) {
+            super(directory, 1024 * 1024, maxDiskBytes, MAX_AGE, HttpGraphClient.DEFAULT_BASE_URL);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        byte[] download(URL url) throws IOException {
+            downloads.add(url);
+            if (offline) {
+                throw new IOException("offline");
+            }
+            if (downloadStarted != null) {
+                downloadStarted.countDown();
+                try {
+                    releaseDownload.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new byte[1000];
+        }
+
+        @Override
+        Bitmap decode(byte[] bytes, int width, int height) {
+            decodes++;
+            return decodable ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+        }
+    }
+}
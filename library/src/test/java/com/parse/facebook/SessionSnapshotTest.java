@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionSnapshotTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(temporaryFolder.getRoot(), "sessionSnapshot");
+    }
+
+    @Test
+    public void testMissingSnapshot() {
+        assertNull(new SessionSnapshot(file).read());
+    }
+
+    @Test
+    public void testWriteAndRead() throws InterruptedException {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        snapshot.writeInBackground(newSession("test_token")).waitForCompletion();
+
+        // Read back as the next run of the app would.
+        FacebookSession session = new SessionSnapshot(file).read();
+        assertEquals("test_token", session.getToken());
+        assertEquals("test_id", session.getUserId());
+        assertTrue(session.hasPermission("email"));
+        assertTrue(session.isLinked());
+    }
+
+    @Test
+    public void testWriteNullDeletesSnapshot() throws InterruptedException {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        snapshot.writeInBackground(newSession("test_token")).waitForCompletion();
+        assertTrue(file.exists());
+
+        snapshot.writeInBackground(null).waitForCompletion();
+        assertFalse(file.exists());
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testLatestWriteWins() throws InterruptedException {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        for (int i = 0; i < 100; i++) {
+            snapshot.writeInBackground(newSession("token_" + i));
+        }
+        snapshot.writeInBackground(newSession("latest_token")).waitForCompletion();
+
+        assertEquals("latest_token", snapshot.read().getToken());
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        snapshot.writeInBackground(newSession("test_token")).waitForCompletion();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(10);
+            int b = raf.read();
+            raf.seek(10);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        assertNull(snapshot.read());
+    }
+
+    private static FacebookSession newSession(String token) {
+        return new FacebookSession("test_id", token, 1435906800000L, 1435900000000L,
+                new String[] { "email", "public_profile" }, true);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedSessionStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private SharedSessionStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(temporaryFolder.getRoot(), "sharedSession");
+        store = new SharedSessionStore(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void testEmptyStore() {
+        assertNull(store.read());
+        assertEquals(SharedSessionStore.REGION_SIZE, file.length());
+    }
+
+    @Test
+    public void testWriteIsVisibleToOtherInstances() throws IOException {
+        assertTrue(store.write(newSession("test_id", "test_token")));
+
+        // Another process maps the same file.
+        SharedSessionStore other = new SharedSessionStore(file);
+        try {
+            FacebookSession session = other.read();
+            assertEquals("test_id", session.getUserId());
+            assertEquals("test_token", session.getToken());
+            assertEquals(1435906800000L, session.getExpiresAtMillis());
+            assertEquals(1435900000000L, session.getLastRefreshMillis());
+            assertEquals(Arrays.asList("email", "public_profile"), session.getPermissions());
+            assertTrue(session.isLinked());
+
+            other.write(null);
+            assertNull(store.read());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedSessionIsServedFromMemory() throws IOException {
+        store.write(newSession("test_id", "test_token"));
+        long sequence = store.getSequence();
+
+        FacebookSession session = store.read();
+        assertSame(session, store.read());
+        assertEquals(sequence, store.getSequence());
+
+        store.write(newSession("test_id", "new_token"));
+        assertFalse(sequence == store.getSequence());
+        assertEquals("new_token", store.read().getToken());
+    }
+
+    @Test
+    public void testWriteInBackground() throws InterruptedException {
+        store.writeInBackground(newSession("test_id", "first_token"));
+        store.writeInBackground(newSession("test_id", "second_token")).waitForCompletion();
+
+        assertEquals("second_token", store.read().getToken());
+    }
+
+    @Test
+    public void testOwnSessionIsReadBeforeItsWriteLands() throws Exception {
+        SharedSessionStore other = new SharedSessionStore(file);
+        try {
+            Task<Void> task = store.writeInBackground(newSession("test_id", "test_token"));
+            assertTrue(store.isWritten());
+            assertEquals("test_token", store.read().getToken());
+
+            task.waitForCompletion();
+            assertEquals("test_token", other.read().getToken());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testClearedSessionIsWritten() throws IOException {
+        assertFalse(store.isWritten());
+
+        store.write(null);
+
+        assertTrue(store.isWritten());
+        assertNull(store.read());
+    }
+
+    @Test
+    public void testOversizedSessionIsNotWritten() throws IOException {
+        char[] token = new char[SharedSessionStore.REGION_SIZE];
+        Arrays.fill(token, 'a');
+        assertFalse(store.write(newSession("test_id", new String(token))));
+        assertNull(store.read());
+    }
+
+    @Test
+    public void testRefreshLeaseIsExclusive() throws IOException {
+        SharedSessionStore.Lease lease = store.tryAcquireRefreshLease();
+        assertNotNull(lease);
+        assertNull(store.tryAcquireRefreshLease());
+
+        lease.release();
+        // Releasing twice is harmless.
+        lease.release();
+        SharedSessionStore.Lease next = store.tryAcquireRefreshLease();
+        assertNotNull(next);
+        next.release();
+    }
+
+    @Test
+    public void testAcquireRefreshLeaseWaitsForRelease() throws Exception {
+        SharedSessionStore.Lease lease = store.tryAcquireRefreshLease();
+        final AtomicReference<SharedSessionStore.Lease> acquired = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(store.acquireRefreshLease());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        assertNull(acquired.get());
+
+        lease.release();
+        waiter.join(5000);
+        assertNotNull(acquired.get());
+        acquired.get().release();
+    }
+
+    @Test
+    public void testReadsAreNeverTorn() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> tornRead = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    FacebookSession session = store.read();
+                    // Every write pairs a user id with the token derived from it.
+                    if (session != null
+                            && !session.getToken().equals("token_" + session.getUserId())) {
+                        tornRead.set(session.getUserId() + "/" + session.getToken());
+                    }
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 5000; i++) {
+                String userId = Integer.toString(i);
+                store.write(newSession(userId, "token_" + userId));
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(tornRead.get());
+    }
+
+    private static FacebookSession newSession(String userId, String token) {
+        return new FacebookSession(userId, token, 1435906800000L, 1435900000000L,
+                new String[] { "email", "public_profile" }, true);
+    }
+}
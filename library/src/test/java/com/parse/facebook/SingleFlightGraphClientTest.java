@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse.facebook;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+// For org.json.
+@Config(manifest=Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SingleFlightGraphClientTest {
+
+    private FakeGraphClient fake;
+    private SingleFlightGraphClient client;
+
+    @Before
+    public void setUp() {
+        fake = new FakeGraphClient();
+        client = new SingleFlightGraphClient(fake);
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneRequest() throws Exception {
+        Task<GraphClient.Response> first = client.getAsync(request("me", "id,name", "token"));
+        Task<GraphClient.Response> second = client.getAsync(request("me", "id,name", "token"));
+
+        assertEquals(1, fake.requests.size());
+        assertEquals(1, client.getSharedCount());
+
+        GraphClient.Response response = new GraphClient.Response(200, "{}", null);
+        fake.pending.get(0).setResult(response);
+        first.waitForCompletion();
+        second.waitForCompletion();
+
+        assertSame(response, first.getResult());
+        assertSame(response, second.getResult());
+        assertEquals(0, client.getInFlightCount());
+    }
+
+    @Test
+    public void testSharersGetTheirOwnJSONObject() throws Exception {
+        Task<GraphClient.Response> first = client.getAsync(request("me", "id,name", "token"));
+        Task<GraphClient.Response> second = client.getAsync(request("me", "id,name", "token"));
+        fake.pending.get(0).setResult(new GraphClient.Response(200, "{\"name\":\"A\"}", null));
+        first.waitForCompletion();
+        second.waitForCompletion();
+
+        first.getResult().getJSONObject().put("name", "B");
+
+        assertEquals("A", second.getResult().getJSONObject().getString("name"));
+        assertNotSame(first.getResult().getJSONObject(), second.getResult().getJSONObject());
+        assertSame(first.getResult().getSharedJSONObject(),
+                second.getResult().getSharedJSONObject());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotShared() {
+        client.getAsync(request("me", "id,name", "token"));
+        client.getAsync(request("me", "id", "token"));
+        client.getAsync(request("me/permissions", "id,name", "token"));
+        client.getAsync(request("me", "id,name", "other_token"));
+        client.getAsync(request("me", "id,name", "token").withETag("\"v1\""));
+
+        assertEquals(5, fake.requests.size());
+        assertEquals(0, client.getSharedCount());
+    }
+
+    @Test
+    public void testCompletedRequestIsNotShared() throws Exception {
+        Task<GraphClient.Response> first = client.getAsync(request("me", "id", "token"));
+        fake.pending.get(0).setResult(new GraphClient.Response(200, "{}", null));
+        first.waitForCompletion();
+
+        Task<GraphClient.Response> second = client.getAsync(request("me", "id", "token"));
+
+        assertEquals(2, fake.requests.size());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotKept() throws Exception {
+        Task<GraphClient.Response> first = client.getAsync(request("me", "id", "token"));
+        Task<GraphClient.Response> second = client.getAsync(request("me", "id", "token"));
+        IOException error = new IOException("offline");
+        fake.pending.get(0).setError(error);
+        first.waitForCompletion();
+        second.waitForCompletion();
+
+        assertSame(error, first.getError());
+        assertSame(error, second.getError());
+
+        client.getAsync(request("me", "id", "token"));
+        assertEquals(2, fake.requests.size());
+    }
+
+    private static GraphClient.Request request(String path, String fields, String accessToken) {
+        return new GraphClient.Request(
+                path, Collections.singletonMap("fields", fields), accessToken);
+    }
+
+    private static class FakeGraphClient implements GraphClient {
+        final List<Request> requests = new ArrayList<>();
+        final List<Task<Response>.TaskCompletionSource> pending = new ArrayList<>();
+
+        @Override
+        public Task<Response> getAsync(Request request) {
+            requests.add(request);
+            Task<Response>.TaskCompletionSource tcs = Task.create();
+            pending.add(tcs);
+            return tcs.getTask();
+        }
+    }
+}